@@ -2,6 +2,7 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 
 import simpledb.Predicate.Op;
@@ -19,13 +20,19 @@ import simpledb.Predicate.Op;
  * @see simpledb.BTreeRootPtrPage#BTreeRootPtrPage
  * @author Becca Taft
  */
-public class BTreeFile implements DbFile {
+public class BTreeFile implements DbFile, PageDecoder, PageBatchWriter {
 
 	private final File f;
 	private final TupleDesc td;
 	private final int tableid ;
 	private int keyField;
 
+	// non-null when pages are read through memory-mapped regions
+	private volatile MappedRegions mapped = null;
+
+	// in-memory page count; new pages are handed out in preallocated chunks
+	private final PageAllocator allocator;
+
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
 	 * 
@@ -39,6 +46,7 @@ public class BTreeFile implements DbFile {
 		this.tableid = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
 		this.td = td;
+		this.allocator = new PageAllocator(f, BTreeRootPtrPage.getPageSize());
 	}
 
 
@@ -71,6 +79,90 @@ public class BTreeFile implements DbFile {
 		return td;
 	}
 
+	/**
+	 * Apart from the optional memory mapping, BTreeFile opens its backing 
+	 * file on each page access, so there is little to acquire up front.
+	 */
+	public synchronized void open() throws IOException {
+		if (mapped != null)
+			mapped.open();
+	}
+
+	/**
+	 * @see #open()
+	 */
+	public synchronized void close() throws IOException {
+		if (mapped != null)
+			mapped.close();
+		if (f.exists()) {
+			RandomAccessFile rf = new RandomAccessFile(f, "rw");
+			try {
+				allocator.trim(rf.getChannel());
+			} finally {
+				rf.close();
+			}
+		}
+	}
+
+	/**
+	 * Enables or disables the memory-mapped scan mode.  When enabled, leaf,
+	 * internal and header pages are read from read-only mappings of the file
+	 * (leaf pages are parsed directly from the mapped bytes), so large 
+	 * BTreeScans are served from the OS page cache.  The root pointer page
+	 * and all writes still go through regular file I/O.
+	 * 
+	 * @param on - whether to read this file through memory-mapped regions
+	 */
+	public synchronized void setMemoryMapped(boolean on) throws IOException {
+		if (on && mapped == null) {
+			mapped = new MappedRegions(f, BTreeRootPtrPage.getPageSize(), BufferPool.getPageSize());
+		}
+		else if (!on && mapped != null) {
+			mapped.close();
+			mapped = null;
+		}
+	}
+
+	/**
+	 * @return true if this file is read through memory-mapped regions
+	 */
+	public boolean isMemoryMapped() {
+		return mapped != null;
+	}
+
+	// see PageDecoder.java for javadocs
+	public Page decodePage(PageId pid, ByteBuffer data) throws IOException {
+		BTreePageId id = (BTreePageId) pid;
+		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
+			byte pageBuf[] = new byte[BTreeRootPtrPage.getPageSize()];
+			data.duplicate().get(pageBuf);
+			return new BTreeRootPtrPage(id, pageBuf);
+		}
+		return readMappedPage(id, data);
+	}
+
+	/**
+	 * Build a non-root-pointer page from a view of the mapped file
+	 * 
+	 * @param id - the id of the page to build
+	 * @param view - the bytes of the page
+	 * @return the page constructed from the mapped bytes
+	 */
+	private Page readMappedPage(BTreePageId id, ByteBuffer view) throws IOException {
+		Debug.log(1, "BTreeFile.readPage: mapped page %d", id.pageNumber());
+		if(id.pgcateg() == BTreePageId.LEAF) {
+			return new BTreeLeafPage(id, view, keyField);
+		}
+		byte pageBuf[] = new byte[view.remaining()];
+		view.get(pageBuf);
+		if(id.pgcateg() == BTreePageId.INTERNAL) {
+			return new BTreeInternalPage(id, pageBuf, keyField);
+		}
+		else { // id.pgcateg() == BTreePageId.HEADER
+			return new BTreeHeaderPage(id, pageBuf);
+		}
+	}
+
 	/**
 	 * Read a page from the file on disk. This should not be called directly
 	 * but should be called from the BufferPool via getPage()
@@ -82,7 +174,21 @@ public class BTreeFile implements DbFile {
 		BTreePageId id = (BTreePageId) pid;
 		BufferedInputStream bis = null;
 
+		// the file may extend past its last page with preallocated space
+		if(id.pgcateg() != BTreePageId.ROOT_PTR && id.pageNumber() > numPages()) {
+			throw new IllegalArgumentException("Read past end of table");
+		}
+
 		try {
+			MappedRegions m = mapped;
+			if(m != null && id.pgcateg() != BTreePageId.ROOT_PTR 
+					&& m.getPageSize() == BufferPool.getPageSize()) {
+				ByteBuffer view = m.page(id.pageNumber() - 1);
+				if(view != null) {
+					return readMappedPage(id, view);
+				}
+			}
+
 			bis = new BufferedInputStream(new FileInputStream(f));
 			if(id.pgcateg() == BTreePageId.ROOT_PTR) {
 				byte pageBuf[] = new byte[BTreeRootPtrPage.getPageSize()];
@@ -159,15 +265,66 @@ public class BTreeFile implements DbFile {
 			rf.seek(BTreeRootPtrPage.getPageSize() + (page.getId().pageNumber()-1) * BufferPool.getPageSize());
 			rf.write(data);
 			rf.close();
+			allocator.written(id.pageNumber() - 1);
 		}
 	}
 	
+	/**
+	 * Writes pages of this file with a single open of the backing file, one
+	 * vectored write per run of adjacent pages.  The root pointer page is
+	 * page 0 and immediately precedes page 1, so it can start a run too.
+	 * 
+	 * @see PageBatchWriter#writePages(List, boolean)
+	 */
+	public void writePages(List<Page> pages, boolean force) throws IOException {
+		RandomAccessFile rf = new RandomAccessFile(f, "rw");
+		try {
+			FileChannel fc = rf.getChannel();
+			int i = 0;
+			while(i < pages.size()) {
+				int end = PageBatchWriter.runEnd(pages, i);
+				ByteBuffer[] run = new ByteBuffer[end - i];
+				for(int j = i; j < end; j++) {
+					run[j - i] = ByteBuffer.wrap(pages.get(j).getPageData());
+				}
+				int first = pages.get(i).getId().pageNumber();
+				long offset = first == 0 ? 0 :
+					BTreeRootPtrPage.getPageSize() + (long) (first - 1) * BufferPool.getPageSize();
+				PageBatchWriter.writeRun(fc, run, offset);
+				int last = pages.get(end - 1).getId().pageNumber();
+				if(last > 0) {
+					allocator.written(last - 1);
+				}
+				i = end;
+			}
+			if(force) {
+				fc.force(false);
+			}
+		} finally {
+			rf.close();
+		}
+	}
+
 	/**
 	 * Returns the number of pages in this BTreeFile.
 	 */
 	public int numPages() {
-		// we only ever write full pages
-		return (int) ((f.length() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
+		return allocator.numPages();
+	}
+
+	/**
+	 * Appends a new, empty page to this BTreeFile. Page numbers start at 1,
+	 * since page 0 is reserved for the root pointer page.
+	 * 
+	 * @return the page number of the new page
+	 */
+	public int allocatePage() throws IOException {
+		RandomAccessFile rf = new RandomAccessFile(f, "rw");
+		try {
+			return allocator.allocate(rf.getChannel()) + 1;
+		} finally {
+			rf.close();
+		}
 	}
 
 	/**
@@ -1148,6 +1305,7 @@ public class BTreeFile implements DbFile {
 				bw.write(emptyRootPtrData);
 				bw.write(emptyLeafData);
 				bw.close();
+				allocator.written(0);
 			}
 		}
 
@@ -1201,15 +1359,8 @@ public class BTreeFile implements DbFile {
 		// at this point if headerId is null, either there are no header pages 
 		// or there are no free slots
 		if(headerId == null) {		
-			synchronized(this) {
-				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
-				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
-				emptyPageNo = numPages();
-			}
+			// create the new page
+			emptyPageNo = allocatePage();
 		}
 
 		return emptyPageNo; 
@@ -1371,6 +1522,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
 	Iterator<Tuple> it = null;
 	BTreeLeafPage curp = null;
+	ScanRing ring = null; // null if the table is small enough for the pool
 
 	TransactionId tid;
 	BTreeFile f;
@@ -1394,6 +1546,11 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 		BTreePageId root = rootPtr.getRootId();
 		curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
 		it = curp.iterator();
+		// the leaves are read through the ring; the few internal pages on
+		// the way down stay in the pool
+		if (ring != null)
+			Database.getBufferPool().releaseScanRing(ring);
+		ring = Database.getBufferPool().getScanRing(f.numPages());
 	}
 
 	/**
@@ -1414,7 +1571,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 			}
 			else {
 				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-						nextp, Permissions.READ_ONLY);
+						nextp, Permissions.READ_ONLY, ring);
 				it = curp.iterator();
 				if (!it.hasNext())
 					it = null;
@@ -1441,6 +1598,9 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 		super.close();
 		it = null;
 		curp = null;
+		if (ring != null)
+			Database.getBufferPool().releaseScanRing(ring);
+		ring = null;
 	}
 }
 
@@ -69,7 +69,7 @@ public class BTreeHeaderPage implements Page {
 	/**
 	 * Initially mark all slots in the header used.
 	 */
-	public void init() {
+	public synchronized void init() {
 		for (int i=0; i<header.length; i++)
 			header[i] = (byte) 0xFF;
 	}
@@ -133,7 +133,7 @@ public class BTreeHeaderPage implements Page {
 	 * @see #BTreeHeaderPage
 	 * @return A byte array correspond to the bytes of this page.
 	 */
-	public byte[] getPageData() {
+	public synchronized byte[] getPageData() {
 		int len = BufferPool.getPageSize();
 		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
 		DataOutputStream dos = new DataOutputStream(baos);
@@ -212,7 +212,7 @@ public class BTreeHeaderPage implements Page {
 	 * @param id - the page id of the previous header page
 	 * @throws DbException
 	 */
-	public void setPrevPageId(BTreePageId id) throws DbException {
+	public synchronized void setPrevPageId(BTreePageId id) throws DbException {
 		if(id == null) {
 			prevPage = 0;
 		}
@@ -232,7 +232,7 @@ public class BTreeHeaderPage implements Page {
 	 * @param id - the page id of the next header page
 	 * @throws DbException
 	 */
-	public void setNextPageId(BTreePageId id) throws DbException {
+	public synchronized void setNextPageId(BTreePageId id) throws DbException {
 		if(id == null) {
 			nextPage = 0;
 		}
@@ -278,7 +278,7 @@ public class BTreeHeaderPage implements Page {
 	/**
 	 * Abstraction to mark a page of the BTreeFile used or unused
 	 */
-	public void markSlotUsed(int i, boolean value) {
+	public synchronized void markSlotUsed(int i, boolean value) {
 		int headerbit = i % 8;
 		int headerbyte = (i - headerbit) / 8;
 
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of BTreeLeafPage stores data for one page of a BTreeFile and 
@@ -63,9 +64,20 @@ public class BTreeLeafPage extends BTreePage {
 	 * @param key - the field which the index is keyed on
 	 */
 	public BTreeLeafPage(BTreePageId id, byte[] data, int key) throws IOException {
+		this(id, ByteBuffer.wrap(data), key);
+	}
+
+	/**
+	 * Create a BTreeLeafPage directly from a buffer holding the page's bytes, 
+	 * such as a view of a memory-mapped BTreeFile.  The buffer is read from its
+	 * current position and is not retained.
+	 * 
+	 * @see #BTreeLeafPage(BTreePageId, byte[], int)
+	 */
+	BTreeLeafPage(BTreePageId id, ByteBuffer data, int key) throws IOException {
 		super(id, key);
 		this.numSlots = getMaxTuples();
-		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+		DataInputStream dis = new DataInputStream(new ByteBufferInputStream(data.duplicate()));
 
 		// Read the parent and sibling pointers
 		try {
@@ -200,7 +212,7 @@ public class BTreeLeafPage extends BTreePage {
 	 * @see #BTreeLeafPage
 	 * @return A byte array corresponding to the bytes of this page.
 	 */
-	public byte[] getPageData() {
+	public synchronized byte[] getPageData() {
 		int len = BufferPool.getPageSize();
 		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
 		DataOutputStream dos = new DataOutputStream(baos);
@@ -289,7 +301,7 @@ public class BTreeLeafPage extends BTreePage {
 	 *         already empty.
 	 * @param t The tuple to delete
 	 */
-	public void deleteTuple(Tuple t) throws DbException {
+	public synchronized void deleteTuple(Tuple t) throws DbException {
 		RecordId rid = t.getRecordId();
 		if(rid == null)
 			throw new DbException("tried to delete tuple with null rid");
@@ -309,7 +321,7 @@ public class BTreeLeafPage extends BTreePage {
 	 *         is mismatch.
 	 * @param t The tuple to add.
 	 */
-	public void insertTuple(Tuple t) throws DbException {
+	public synchronized void insertTuple(Tuple t) throws DbException {
 		if (!t.getTupleDesc().equals(td))
 			throw new DbException("type mismatch, in addTuple");
 
@@ -402,7 +414,7 @@ public class BTreeLeafPage extends BTreePage {
 	 * @param id - the new left sibling id
 	 * @throws DbException if the id is not valid
 	 */
-	public void setLeftSiblingId(BTreePageId id) throws DbException {
+	public synchronized void setLeftSiblingId(BTreePageId id) throws DbException {
 		if(id == null) {
 			leftSibling = 0;
 		}
@@ -422,7 +434,7 @@ public class BTreeLeafPage extends BTreePage {
 	 * @param id - the new right sibling id
 	 * @throws DbException if the id is not valid
 	 */
-	public void setRightSiblingId(BTreePageId id) throws DbException {
+	public synchronized void setRightSiblingId(BTreePageId id) throws DbException {
 		if(id == null) {
 			rightSibling = 0;
 		}
@@ -77,7 +77,7 @@ public class BTreeRootPtrPage implements Page {
 	 *
 	 * @return A byte array corresponding to the bytes of this root pointer page.
 	 */
-	public byte[] getPageData(){
+	public synchronized byte[] getPageData(){
 		int len = PAGE_SIZE;
 		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
 		DataOutputStream dos = new DataOutputStream(baos);
@@ -168,7 +168,7 @@ public class BTreeRootPtrPage implements Page {
 	 * @param id - the id of the root page
 	 * @throws DbException if the id is invalid
 	 */
-	public void setRootId(BTreePageId id) throws DbException {
+	public synchronized void setRootId(BTreePageId id) throws DbException {
 		if(id == null) {
 			root = 0;
 		}
@@ -200,7 +200,7 @@ public class BTreeRootPtrPage implements Page {
 	 * @param id - the id of the first header page
 	 * @throws DbException if the id is invalid
 	 */
-	public void setHeaderId(BTreePageId id) throws DbException {
+	public synchronized void setHeaderId(BTreePageId id) throws DbException {
 		if(id == null) {
 			header = 0;
 		}
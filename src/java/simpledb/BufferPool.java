@@ -1,14 +1,29 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.Random;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
 import java.util.Vector;
 
 import java.util.HashMap;
 
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Predicate;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -18,6 +33,32 @@ import java.util.concurrent.ConcurrentHashMap;
  * The BufferPool is also responsible for locking; when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * getPage takes no pool-wide lock: hits are a lookup in a concurrent hash
+ * table, misses for different pages are read in parallel, and concurrent
+ * misses for the same page wait for a single read.  Since each miss evicts
+ * on its own, the pool may briefly hold a few more than numPages pages while
+ * several misses are in progress.
+ * <p>
+ * Sequential scans of tables that are large compared to the pool read their
+ * pages through a small {@link ScanRing} of their own, so they do not flush
+ * the pages other queries depend on.
+ * <p>
+ * A background {@link PageWriter} keeps the share of dirty pages in the pool
+ * under a target ratio, writing them out in file order.  Pages of running
+ * transactions may thus reach the disk before they commit (STEAL): their log
+ * records are forced first, and the before images are kept so that an abort
+ * can put the old pages back.
+ * <p>
+ * A pool may also be given a budget in bytes for an off-heap
+ * {@link PageArena}.  Pages evicted clean from the pool are then kept as raw
+ * bytes in the arena and decoded again when they are requested, so a large
+ * cache does not consist of millions of Java objects.
+ * <p>
+ * Tables, or tablespaces, can be given a {@link PoolQuota} in the Catalog
+ * to partition the pool: the pages of a partition at or below its minimum
+ * are only evicted when nothing else can be, and a partition at its maximum
+ * evicts its own pages to make room for new ones.
  * 
  * @Threadsafe, all fields are final
  */
@@ -34,18 +75,157 @@ public class BufferPool {
      */
     public static final int DEFAULT_PAGES = 50;
 
-    private final Random random = new Random();
+    /**
+     * Default upper bound on the number of pages that may be read ahead of a
+     * sequential scan.  Can be overridden with the simpledb.readahead.pages
+     * system property, or per pool with {@link #setMaxReadAhead}.
+     */
+    public static final int DEFAULT_READ_AHEAD = Integer.getInteger("simpledb.readahead.pages", 16);
+
+    /** Number of threads performing asynchronous read-ahead I/O. */
+    private static final int READ_AHEAD_THREADS = Integer.getInteger("simpledb.readahead.threads", 2);
+
+    /**
+     * Default number of frames in the ring of a large sequential scan.  Can
+     * be overridden with the simpledb.scanring.pages system property.
+     */
+    public static final int DEFAULT_SCAN_RING = Integer.getInteger("simpledb.scanring.pages", 16);
+
+    /**
+     * Tables with more pages than this fraction of the pool are scanned
+     * through a {@link ScanRing}.  Smaller tables are still cached by a scan,
+     * so that scanning them again does not touch the disk.
+     */
+    public static final double SCAN_RING_THRESHOLD = 0.75;
+
+    /**
+     * Default share of the pool the background writer lets dirty pages take
+     * up before it starts writing them out.  Can be overridden with the
+     * simpledb.bgwriter.dirtyratio system property, or per pool with
+     * {@link #setDirtyRatio}.
+     */
+    public static final double DEFAULT_DIRTY_RATIO =
+            Double.parseDouble(System.getProperty("simpledb.bgwriter.dirtyratio", "0.5"));
+
+    /**
+     * Default size of the off-heap arena of a pool, in bytes (e.g. "8g"); 0
+     * for none.  Set with the simpledb.bufferpool.bytes system property.
+     */
+    public static final long DEFAULT_ARENA_BYTES =
+            PageArena.parseBytes(System.getProperty("simpledb.bufferpool.bytes", "0"));
+
+    /** Maximum number of pages the background writer writes per round. */
+    static final int WRITER_MAX_PAGES = Integer.getInteger("simpledb.bgwriter.maxpages", 64);
+
+    // the order pages are written in: by table, then by position in the file
+    private static final Comparator<Page> FILE_ORDER = new Comparator<Page>() {
+        public int compare(Page a, Page b) {
+            PageId x = a.getId();
+            PageId y = b.getId();
+            if (x.getTableId() != y.getTableId())
+                return x.getTableId() < y.getTableId() ? -1 : 1;
+            return Integer.compare(x.pageNumber(), y.pageNumber());
+        }
+    };
+
+    // shared by all buffer pools, since tests create a new pool per test
+    private static ExecutorService readAheadPool = null;
+
+    private static final int GENERATION_STRIPES = 256;
+
+    /** A page being read ahead, and the generation of the page it was read at. */
+    static class Prefetch {
+        final Future<Page> page;
+        final long generation;
+
+        Prefetch(Future<Page> page, long generation) {
+            this.page = page;
+            this.generation = generation;
+        }
+    }
+
     final int numPages; // number of pages -- currently, not enforced
     final ConcurrentHashMap<PageId, Page> pages; // hash table storing current pages in memory
 
+    // page-level shared/exclusive locks of strict two-phase locking
+    final LockManager lockManager = new LockManager();
+
+    // pages being read into the pool, so concurrent misses share one read
+    private final ConcurrentHashMap<PageId, FutureTask<Page>> loading;
+
+    // picks the pages to evict; told about every page entering or leaving pages
+    private final EvictionPolicy policy;
+
+    // the partition of each cached page that belongs to one, and the number
+    // of cached pages of each partition
+    private final ConcurrentHashMap<PageId, PoolQuota> partitionOf;
+    private final ConcurrentHashMap<PoolQuota, AtomicInteger> partitionPages;
+
+    // hit, miss, I/O and eviction counters and latencies
+    private final BufferPoolStats stats = new BufferPoolStats();
+
+    // pages read through a scan ring, which the eviction policy does not know
+    // about, and the ring each of them belongs to
+    private final ConcurrentHashMap<PageId, ScanRing> ringPages;
+
+    // pages being (or already) read ahead of a scan. They live outside of
+    // pages, so read-ahead never evicts anything; a page moves into the pool
+    // when getPage asks for it.
+    final ConcurrentHashMap<PageId, Prefetch> readAhead;
+    // bumped when a page changes, striped by page, so that a read-ahead
+    // started before the change is never installed
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+    private volatile int maxReadAhead;
+    private volatile long avgReadNanos = 0; // moving average of page read latency
+
+    // dirty pages are written out once more than this share of the pool is
+    // dirty; 1 or more only writes pages at commit (NO STEAL)
+    private volatile double dirtyRatio = DEFAULT_DIRTY_RATIO;
+
+    // clean pages evicted from pages, as bytes; null if the pool has no arena
+    private final PageArena arena;
+
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, using the 2Q
+     * eviction policy.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, new TwoQueueEvictionPolicy(numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, with an arena
+     * of {@link #DEFAULT_ARENA_BYTES}.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the eviction policy; must not be shared with another pool
+     */
+    public BufferPool(int numPages, EvictionPolicy policy) {
+        this(numPages, policy, DEFAULT_ARENA_BYTES);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages decoded pages, and as
+     * many more pages as fit in arenaBytes in an off-heap arena.
+     *
+     * @param numPages maximum number of decoded pages in this buffer pool.
+     * @param policy the eviction policy; must not be shared with another pool
+     * @param arenaBytes size of the off-heap arena; 0 for none
+     */
+    public BufferPool(int numPages, EvictionPolicy policy, long arenaBytes) {
         this.numPages = numPages;
+        this.arena = arenaBytes >= pageSize ? new PageArena(arenaBytes, pageSize) : null;
+        this.policy = policy;
         this.pages = new ConcurrentHashMap<PageId, Page>();
+        this.loading = new ConcurrentHashMap<PageId, FutureTask<Page>>();
+        this.readAhead = new ConcurrentHashMap<PageId, Prefetch>();
+        this.ringPages = new ConcurrentHashMap<PageId, ScanRing>();
+        this.partitionOf = new ConcurrentHashMap<PageId, PoolQuota>();
+        this.partitionPages = new ConcurrentHashMap<PoolQuota, AtomicInteger>();
+        this.maxReadAhead = Math.min(DEFAULT_READ_AHEAD, numPages / 2);
+        PageWriter.start(this);
     }
 
     public static int getPageSize() {
@@ -79,25 +259,411 @@ public class BufferPool {
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException {
-        // XXX Yuan points out that HashMap is not synchronized, so this is buggy.
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieves the specified page like {@link #getPage(TransactionId,
+     * PageId, Permissions)}, but reads it into the frames of the given ring
+     * rather than admitting it to the eviction policy if it misses.
+     *
+     * @param ring the ring of the scan requesting the page, or null
+     */
+    Page getPage(TransactionId tid, PageId pid, Permissions perm, ScanRing ring)
+            throws TransactionAbortedException, DbException {
         // XXX TODO(ghuo): do we really know enough to implement NO STEAL here?
         // won't we still evict pages?
-        Page p;
-        synchronized (this) {
-            p = pages.get(pid);
-            if (p == null) {
-                if (pages.size() >= numPages) {
-                    evictPage();
-                }
+        if (tid != null)
+            lockManager.acquire(tid, pid, perm == Permissions.READ_WRITE);
+
+        Page p = pages.get(pid);
+        if (p != null) {
+            stats.hits.increment();
+            // a ring page requested outside of its scan is worth keeping
+            if (ring == null && !ringPages.isEmpty() && ringPages.remove(pid) != null)
+                policy.admitted(pid);
+            else
+                policy.accessed(pid);
+            return p;
+        }
+        stats.misses.increment();
 
-                p = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-                pages.put(pid, p);
+        // the first thread to miss on the page reads it, the others wait
+        final PageId fpid = pid;
+        final ScanRing fring = ring;
+        FutureTask<Page> load = new FutureTask<Page>(new Callable<Page>() {
+            public Page call() throws DbException {
+                return loadPage(fpid, fring);
             }
+        });
+        FutureTask<Page> existing = loading.putIfAbsent(pid, load);
+        if (existing == null) {
+            try {
+                load.run();
+            } finally {
+                loading.remove(pid, load);
+            }
+        } else {
+            load = existing;
+        }
+
+        try {
+            return load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DbException("interrupted while reading page " + pid);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DbException)
+                throw (DbException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new RuntimeException(cause);
         }
+    }
 
+    /**
+     * Reads a page that missed in the pool and adds it, evicting pages as
+     * needed.  If the page was added by someone else in the meantime, that
+     * copy is returned instead.
+     *
+     * @param ring the ring to read the page into, or null to admit it to
+     *   the eviction policy
+     */
+    private Page loadPage(PageId pid, ScanRing ring) throws DbException {
+        Page p = pages.get(pid);
+        if (p != null)
+            return p;
+        if (ring != null)
+            recycle(ring, ring.victim());
+        makeRoom(pid);
+
+        p = takeReadAhead(pid);
+        if (p == null)
+            p = takeFromArena(pid);
+        if (p == null)
+            p = readPage(Database.getCatalog().getDatabaseFile(pid.getTableId()), pid);
+        if (ring == null) {
+            Page current = pages.putIfAbsent(pid, p);
+            if (current != null)
+                return current;
+            cached(pid);
+            policy.admitted(pid);
+        } else {
+            // claim the page for the ring first, so that a hit from outside
+            // the scan always finds the claim to take over
+            ringPages.put(pid, ring);
+            Page current = pages.putIfAbsent(pid, p);
+            if (current != null) {
+                ringPages.remove(pid, ring);
+                return current;
+            }
+            cached(pid);
+            ring.add(pid);
+        }
         return p;
     }
 
+    /**
+     * Returns a ring for a sequential scan of a table, if the table is large
+     * enough to flush the pool otherwise.
+     *
+     * @param tablePages the number of pages of the table to scan
+     * @return a new ring, or null if the scan should go through the pool
+     */
+    ScanRing getScanRing(int tablePages) {
+        if (tablePages <= numPages * SCAN_RING_THRESHOLD)
+            return null;
+        return new ScanRing(Math.max(1, Math.min(DEFAULT_SCAN_RING, numPages / 8)));
+    }
+
+    /**
+     * Gives back the frames of a ring whose scan is closed or rewound.  Its
+     * clean pages are dropped and its dirty ones handed over to the eviction
+     * policy, as if each frame were recycled; otherwise nothing could ever
+     * evict them.
+     */
+    void releaseScanRing(ScanRing ring) {
+        for (PageId pid : ring.clear())
+            recycle(ring, pid);
+    }
+
+    /**
+     * Frees the frame of a ring page for the next page of its scan.  A page
+     * that left the ring in the meantime is left alone, and a dirty page is
+     * handed over to the eviction policy, since it cannot be dropped (NO
+     * STEAL).
+     */
+    private void recycle(ScanRing ring, PageId pid) {
+        if (pid == null || !ringPages.remove(pid, ring))
+            return;
+        Page p = pages.get(pid);
+        if (p != null && removeIfClean(pid, p)) {
+            uncached(pid);
+            return;
+        }
+        if (pages.containsKey(pid))
+            policy.admitted(pid);
+    }
+
+    /**
+     * Decodes a page kept in the arena, taking it out of the arena.
+     *
+     * @return the page, or null if the arena does not hold it
+     */
+    private Page takeFromArena(PageId pid) {
+        if (arena == null)
+            return null;
+        byte[] data = arena.take(pid);
+        if (data == null)
+            return null;
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        try {
+            Page p = ((PageDecoder) file).decodePage(pid, ByteBuffer.wrap(data));
+            stats.arenaHits.increment();
+            return p;
+        } catch (IOException e) {
+            // read it from disk instead
+            return null;
+        }
+    }
+
+    /** Reads a page from its file, keeping track of the average read latency */
+    private Page readPage(DbFile file, PageId pid) {
+        long start = System.nanoTime();
+        Page p = file.readPage(pid);
+        long elapsed = System.nanoTime() - start;
+        stats.pageRead(pid, elapsed);
+        avgReadNanos = avgReadNanos == 0 ? elapsed : (avgReadNanos * 7 + elapsed) / 8;
+        return p;
+    }
+
+    /**
+     * Returns the maximum number of pages that may be read ahead of
+     * sequential scans into this pool.
+     */
+    public int getMaxReadAhead() {
+        return maxReadAhead;
+    }
+
+    /**
+     * Sets the maximum number of pages that may be read ahead of sequential
+     * scans; 0 disables read-ahead.
+     */
+    public void setMaxReadAhead(int pages) {
+        this.maxReadAhead = Math.max(0, pages);
+    }
+
+    /** @return the share of the pool dirty pages may take up before they are written out */
+    public double getDirtyRatio() {
+        return dirtyRatio;
+    }
+
+    /**
+     * Sets the share of the pool dirty pages may take up before the
+     * background writer writes them out.  1 or more disables the background
+     * writer and lets evictions fail when all pages are dirty, so only
+     * committed pages ever reach the disk.
+     */
+    public void setDirtyRatio(double ratio) {
+        this.dirtyRatio = Math.max(0, ratio);
+    }
+
+    /** @return the number of pages written out by the background writer */
+    public long getBackgroundWriteCount() {
+        return stats.getBackgroundWrites();
+    }
+
+    /**
+     * @return the number of evictions that found no clean page and had to
+     *   write dirty pages first
+     */
+    public long getDirtyStallCount() {
+        return stats.getDirtyStalls();
+    }
+
+    /**
+     * @return the number of frames in the off-heap arena of this pool, 0 if
+     *   it has none
+     */
+    public int getArenaFrames() {
+        return arena == null ? 0 : arena.getNumFrames();
+    }
+
+    /** @return the number of misses served by decoding a page from the arena */
+    public long getArenaHitCount() {
+        return stats.getArenaHits();
+    }
+
+    /** @return the eviction policy of this pool */
+    public EvictionPolicy getEvictionPolicy() {
+        return policy;
+    }
+
+    /** @return the number of getPage calls served from the pool */
+    public long getHitCount() {
+        return stats.getHits();
+    }
+
+    /** @return the number of getPage calls that had to read the page */
+    public long getMissCount() {
+        return stats.getMisses();
+    }
+
+    /** Resets all counters and latency histograms of this pool to zero. */
+    public void resetCounters() {
+        stats.reset();
+    }
+
+    /** @return the counters and latency histograms of this pool */
+    public BufferPoolStats getStats() {
+        return stats;
+    }
+
+    /** @return the number of dirty pages in the pool */
+    public int getDirtyPageCount() {
+        int dirty = 0;
+        for (Page p : pages.values()) {
+            if (p.isDirty() != null)
+                dirty++;
+        }
+        return dirty;
+    }
+
+    /** @return the number of pages in the pool of a partition */
+    public int getPartitionPageCount(PoolQuota q) {
+        AtomicInteger n = partitionPages.get(q);
+        return n == null ? 0 : n.get();
+    }
+
+    /** @return the number of pages in the pool of each table that has any */
+    public Map<Integer, Integer> getTableResidency() {
+        HashMap<Integer, Integer> residency = new HashMap<Integer, Integer>();
+        for (PageId pid : pages.keySet()) {
+            Integer n = residency.get(pid.getTableId());
+            residency.put(pid.getTableId(), n == null ? 1 : n + 1);
+        }
+        return residency;
+    }
+
+    /** @return a human readable report of the state and statistics of this pool */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("buffer pool: %d of %d pages cached, %d dirty, %s eviction%n",
+                pages.size(), numPages, getDirtyPageCount(), policy.getClass().getSimpleName()));
+        if (arena != null)
+            sb.append(String.format("arena: %d of %d frames used%n", arena.size(), arena.getNumFrames()));
+        for (Map.Entry<PoolQuota, AtomicInteger> e : partitionPages.entrySet())
+            sb.append(String.format("partition %s: %d pages cached%n", e.getKey(), e.getValue().get()));
+        sb.append(stats.report(getTableResidency()));
+        return sb.toString();
+    }
+
+    /** @return the moving average latency of reading one page from disk, in ns */
+    public long getAverageReadNanos() {
+        return avgReadNanos;
+    }
+
+    /**
+     * Asynchronously reads the specified page so that a later getPage call
+     * does not have to wait for the disk.  The page is staged outside the
+     * pool and only enters it (possibly evicting another page) once it is
+     * requested through getPage.  This is a hint: it does nothing if the page
+     * is already cached or being read, or if the read-ahead area is full.
+     *
+     * @param pid the ID of the page to read ahead
+     * @return false if the read-ahead area is full, true otherwise
+     */
+    public boolean prefetchPage(PageId pid) {
+        if (pages.containsKey(pid) || readAhead.containsKey(pid)
+                || (arena != null && arena.contains(pid)))
+            return true;
+        if (readAhead.size() >= maxReadAhead)
+            return false;
+        final DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        final PageId fpid = pid;
+        // taken before the read starts; a change from now on outdates it
+        long generation = generations.get(stripe(pid));
+        Future<Page> f = getReadAheadPool().submit(new Callable<Page>() {
+            public Page call() {
+                return readPage(file, fpid);
+            }
+        });
+        Prefetch pf = new Prefetch(f, generation);
+        if (readAhead.putIfAbsent(pid, pf) != null) {
+            f.cancel(false);
+        } else if (generations.get(stripe(pid)) != generation) {
+            // invalidated before it was installed
+            readAhead.remove(pid, pf);
+            f.cancel(false);
+        }
+        return true;
+    }
+
+    private static int stripe(PageId pid) {
+        return (pid.hashCode() & Integer.MAX_VALUE) % GENERATION_STRIPES;
+    }
+
+    /**
+     * Claims a page that was read ahead, waiting for the read to finish if
+     * needed.
+     *
+     * @return the page, or null if it was not read ahead or the read failed
+     */
+    private Page takeReadAhead(PageId pid) {
+        Prefetch pf = readAhead.remove(pid);
+        if (pf == null)
+            return null;
+        try {
+            Page p = pf.page.get();
+            // the page changed since the read started
+            if (generations.get(stripe(pid)) != pf.generation)
+                return null;
+            return p;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            // fall back to a synchronous read, which reports the error
+            return null;
+        }
+    }
+
+    /**
+     * Drops a read-ahead copy of a page that is about to change, so that a
+     * stale version can never be installed in the pool.
+     */
+    private void invalidateReadAhead(PageId pid) {
+        generations.incrementAndGet(stripe(pid));
+        cancelReadAhead(pid);
+    }
+
+    /**
+     * Drops a page read ahead for a scan that will not get to it, freeing
+     * its slot of the read-ahead area.  Does nothing if the page is not
+     * read ahead.
+     */
+    void cancelReadAhead(PageId pid) {
+        Prefetch pf = readAhead.remove(pid);
+        if (pf != null)
+            pf.page.cancel(false);
+    }
+
+    private static synchronized ExecutorService getReadAheadPool() {
+        if (readAheadPool == null) {
+            readAheadPool = Executors.newFixedThreadPool(READ_AHEAD_THREADS, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "simpledb-readahead");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return readAheadPool;
+    }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -108,8 +674,7 @@ public class BufferPool {
      * @param pid the ID of the page to unlock
      */
     public void releasePage(TransactionId tid, PageId pid) {
-        // some code goes here
-        // not necessary for lab1|lab2|lab3
+        lockManager.release(tid, pid);
     }
 
     /**
@@ -118,15 +683,35 @@ public class BufferPool {
      * @param tid the ID of the transaction requesting the unlock
      */
     public void transactionComplete(TransactionId tid) throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2|lab3
+        transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
-        // some code goes here
-        // not necessary for lab1|lab2|lab3
-        return false;
+        return lockManager.holdsLock(tid, p);
+    }
+
+    /**
+     * Sets how long getPage waits for a lock before aborting the
+     * transaction, in ms; 0 (the default) relies on deadlock detection alone.
+     */
+    public void setLockTimeout(long ms) {
+        lockManager.setTimeout(ms);
+    }
+
+    /** @return the number of deadlocks found among transactions of this pool */
+    public long getDeadlockCount() {
+        return lockManager.getDeadlockCount();
+    }
+
+    /** @return the number of transactions aborted to break deadlocks */
+    public long getDeadlockVictimCount() {
+        return lockManager.getVictimCount();
+    }
+
+    /** @return the average time getPage waited for a lock when it had to, in ns */
+    public long getAverageLockWaitNanos() {
+        return lockManager.getAverageWaitNanos();
     }
 
     /**
@@ -138,8 +723,36 @@ public class BufferPool {
      */
     public void transactionComplete(TransactionId tid, boolean commit)
             throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2|lab3
+        try {
+            LogFile log = Database.getLogFile();
+            if (commit) {
+                // FORCE: the transaction's pages are on disk when it commits
+                flushPages(tid);
+                // pages written out early were logged; a transaction that
+                // did not commit through its log does so now
+                if (log.isRunning(tid))
+                    log.logCommit(tid);
+                for (PageId pid : lockManager.getLockedPages(tid)) {
+                    Page p = pages.get(pid);
+                    if (p != null)
+                        p.setBeforeImage();
+                }
+            } else {
+                // dropping the dirty pages rolls back the changes that are
+                // only in memory; the ones written out early were logged, and
+                // are rolled back from the log unless logAbort already did
+                synchronized (this) {
+                    for (Page p : pages.values()) {
+                        if (tid.equals(p.isDirty()))
+                            discardPage(p.getId());
+                    }
+                    if (log.isRunning(tid))
+                        log.logAbort(tid);
+                }
+            }
+        } finally {
+            lockManager.releaseAll(tid);
+        }
     }
 
     /**
@@ -168,7 +781,10 @@ public class BufferPool {
 
         synchronized (this) {
             for (Page p : dirtypages) {
-                p.markDirty(true, tid);
+                synchronized (p) {
+                    p.markDirty(true, tid);
+                }
+                invalidateReadAhead(p.getId());
 
                 // System.out.println("ADDING TUPLE TO PAGE " + p.getId().pageno() + " WITH HASH
                 // CODE " + p.getId().hashCode());
@@ -177,12 +793,14 @@ public class BufferPool {
                 if (pages.get(p.getId()) != null) {
                     // replace old page with new one in case addTuple returns a new copy of the page
                     pages.put(p.getId(), p);
+                    policy.accessed(p.getId());
                 } else {
 
                     // put page in pool
-                    if (pages.size() >= numPages)
-                        evictPage();
+                    makeRoom(p.getId());
                     pages.put(p.getId(), p);
+                    cached(p.getId());
+                    policy.admitted(p.getId());
                 }
             }
         }
@@ -209,19 +827,24 @@ public class BufferPool {
 
         synchronized (this) {
             for (Page p : dirtypages) {
-                p.markDirty(true, tid);
+                synchronized (p) {
+                    p.markDirty(true, tid);
+                }
+                invalidateReadAhead(p.getId());
 
                 // if page in pool already, done.
                 if (pages.get(p.getId()) != null) {
                     // replace old page with new one in case deleteTuple returns a new copy of the
                     // page
                     pages.put(p.getId(), p);
+                    policy.accessed(p.getId());
                 } else {
 
                     // put page in pool
-                    if (pages.size() >= numPages)
-                        evictPage();
+                    makeRoom(p.getId());
                     pages.put(p.getId(), p);
+                    cached(p.getId());
+                    policy.admitted(p.getId());
                 }
             }
         }
@@ -234,11 +857,7 @@ public class BufferPool {
      * break simpledb if running in NO STEAL mode.
      */
     public synchronized void flushAllPages() throws IOException {
-        Iterator<PageId> i = pages.keySet().iterator();
-        while (i.hasNext())
-            flushPage(i.next());
-        // some code goes here
-
+        writePages(new ArrayList<Page>(pages.values()), true);
     }
 
     /**
@@ -251,11 +870,21 @@ public class BufferPool {
      * are removed from the cache so they can be reused safely
      */
     public synchronized void discardPage(PageId pid) {
+        invalidateReadAhead(pid);
+        if (arena != null)
+            arena.remove(pid);
+        ringPages.remove(pid);
         Page p = pages.get(pid);
         if (p != null) {
             pages.remove(pid);
+            uncached(pid);
+            policy.removed(pid);
         }
-        // some code goes here
+        // the page goes back to an older version, e.g. on abort, which may
+        // have room that an insert of the discarded version used up
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        if (file instanceof HeapFile)
+            ((HeapFile) file).pageRestored(pid.pageNumber());
     }
 
     /**
@@ -267,55 +896,288 @@ public class BufferPool {
         Page p = pages.get(pid);
         if (p == null)
             return; // not in buffer pool -- doesn't need to be flushed
-        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
-        file.writePage(p);
-        p.markDirty(false, null);
-        // </strip>
-        // some code goes here
+        writePages(Collections.singletonList(p), false);
     }
 
     /**
-     * Write all pages of the specified transaction to disk.
+     * Write all pages of the specified transaction to disk.  The pages are
+     * written in file order, runs of adjacent pages with one write, and each
+     * file is forced to disk once at the end.
      */
     public synchronized void flushPages(TransactionId tid) throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2|lab3
+        ArrayList<Page> dirty = new ArrayList<Page>();
+        for (Page p : pages.values()) {
+            if (tid.equals(p.isDirty()))
+                dirty.add(p);
+        }
+        writePages(dirty, true);
     }
 
     /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * One round of the background writer: if more than the dirty ratio of
+     * the pool is dirty, writes out dirty pages until it is not, at most
+     * {@link #WRITER_MAX_PAGES} of them.
      */
-    private synchronized void evictPage() throws DbException {
-        Object pids[] = pages.keySet().toArray();
-        PageId pid = (PageId) pids[random.nextInt(pids.length)];
-        try {
-            Page p = pages.get(pid);
-            if (p.isDirty() != null) { // if this is dirty, remove first non-dirty
-                boolean gotNew = false;
-                for (PageId pg : pages.keySet()) {
-                    if (pages.get(pg).isDirty() == null) {
-                        pid = pg;
-                        gotNew = true;
-                        break;
+    void writeDirtyPages() throws IOException {
+        if (dirtyRatio >= 1)
+            return;
+        int target = (int) (numPages * dirtyRatio);
+        int dirty = getDirtyPageCount();
+        if (dirty > target)
+            stats.backgroundWrites.add(writeDirty(Math.min(dirty - target, WRITER_MAX_PAGES)));
+    }
+
+    /**
+     * Writes out up to max dirty pages.  The pages go out in file order
+     * anyway, so they are taken from the start of it for the writes to
+     * coalesce.
+     *
+     * @return the number of pages written
+     */
+    private synchronized int writeDirty(int max) throws IOException {
+        ArrayList<Page> dirty = new ArrayList<Page>();
+        for (Page p : pages.values()) {
+            if (p.isDirty() != null)
+                dirty.add(p);
+        }
+        Collections.sort(dirty, FILE_ORDER);
+        int n = Math.min(dirty.size(), max);
+        writePages(dirty.subList(0, n), false);
+        return n;
+    }
+
+    /**
+     * Writes pages to disk in file order, marking them clean.  The log
+     * records of the dirty pages are forced before any page is written
+     * (write-ahead logging), and each file that is a PageBatchWriter gets
+     * all its pages in one call.
+     * <p>
+     * Running transactions may change the pages meanwhile, so each dirty
+     * page is imaged once under its latch, and that image is logged, written
+     * and becomes the page's next before image.  A page is only marked clean
+     * if it did not change after it was imaged.  Pages of running
+     * transactions are undone from their log records if they abort.
+     *
+     * @param force whether to force the files written to disk
+     */
+    private synchronized void writePages(List<Page> batch, boolean force) throws IOException {
+        if (batch.isEmpty())
+            return;
+        ArrayList<Page> sorted = new ArrayList<Page>(batch);
+        Collections.sort(sorted, FILE_ORDER);
+
+        LogFile log = Database.getLogFile();
+        ArrayList<Page> images = new ArrayList<Page>(sorted.size());
+        TransactionId[] dirtiers = new TransactionId[sorted.size()];
+        for (int k = 0; k < sorted.size(); k++) {
+            Page p = sorted.get(k);
+            Page before = null;
+            Page image = p;
+            synchronized (p) {
+                dirtiers[k] = p.isDirty();
+                if (dirtiers[k] != null) {
+                    before = p.getBeforeImage();
+                    // the next log record of the page starts from this image
+                    p.setBeforeImage();
+                    image = p.getBeforeImage();
+                }
+            }
+            if (dirtiers[k] != null)
+                log.logWrite(dirtiers[k], before, image);
+            images.add(image);
+        }
+        for (TransactionId dirtier : dirtiers) {
+            if (dirtier != null) {
+                log.force();
+                break;
+            }
+        }
+
+        int i = 0;
+        while (i < sorted.size()) {
+            int tableId = sorted.get(i).getId().getTableId();
+            DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+            int j = i + 1;
+            while (j < sorted.size() && sorted.get(j).getId().getTableId() == tableId)
+                j++;
+            long start = System.nanoTime();
+            if (file instanceof PageBatchWriter) {
+                ((PageBatchWriter) file).writePages(images.subList(i, j), force);
+            } else {
+                for (Page p : images.subList(i, j))
+                    file.writePage(p);
+            }
+            // pages written together share the time of the batch
+            long perPage = (System.nanoTime() - start) / (j - i);
+            for (int k = i; k < j; k++) {
+                Page p = sorted.get(k);
+                stats.pageWritten(p.getId(), perPage);
+                invalidateReadAhead(p.getId());
+                if (arena != null)
+                    arena.remove(p.getId());
+                if (dirtiers[k] != null) {
+                    synchronized (p) {
+                        if (dirtiers[k].equals(p.isDirty())
+                                && Arrays.equals(p.getPageData(), images.get(k).getPageData()))
+                            p.markDirty(false, null);
                     }
                 }
-                if (!gotNew) {
-                    throw new DbException(
-                            "All buffer pool slots contain dirty pages;  COMMIT or ROLLBACK to continue.");
+            }
+            i = j;
+        }
+    }
+
+    // pages the eviction policy may pick: cached and not dirty
+    private final Predicate<PageId> evictable = new Predicate<PageId>() {
+        public boolean test(PageId pid) {
+            Page p = pages.get(pid);
+            return p != null && p.isDirty() == null;
+        }
+    };
+
+    // clean pages that are not reserved by the minimum of their partition
+    private final Predicate<PageId> unreserved = new Predicate<PageId>() {
+        public boolean test(PageId pid) {
+            return evictable.test(pid) && !reserved(pid);
+        }
+    };
+
+    /** @return true if the page's partition holds no more than its minimum */
+    private boolean reserved(PageId pid) {
+        if (partitionOf.isEmpty())
+            return false;
+        PoolQuota q = partitionOf.get(pid);
+        return q != null && partitionPages.get(q).get() <= q.getMinPages();
+    }
+
+    /** Accounts a page that entered the pool to its partition, if it has one. */
+    private void cached(PageId pid) {
+        PoolQuota q = Database.getCatalog().getPoolQuota(pid.getTableId());
+        if (q == null || partitionOf.putIfAbsent(pid, q) != null)
+            return;
+        AtomicInteger n = partitionPages.get(q);
+        if (n == null) {
+            AtomicInteger created = new AtomicInteger();
+            n = partitionPages.putIfAbsent(q, created);
+            if (n == null)
+                n = created;
+        }
+        n.incrementAndGet();
+    }
+
+    /** Takes a page that left the pool off the count of its partition. */
+    private void uncached(PageId pid) {
+        PoolQuota q = partitionOf.remove(pid);
+        if (q != null)
+            partitionPages.get(q).decrementAndGet();
+    }
+
+    /**
+     * Evicts pages until the given page may be added to the pool.  If the
+     * page's partition is at its maximum, one of the partition's own pages
+     * makes room for it.
+     */
+    private void makeRoom(PageId pid) throws DbException {
+        PoolQuota q = partitionPages.isEmpty() ? null
+                : Database.getCatalog().getPoolQuota(pid.getTableId());
+        AtomicInteger n = q == null ? null : partitionPages.get(q);
+        if (n != null) {
+            final PoolQuota fq = q;
+            Predicate<PageId> own = new Predicate<PageId>() {
+                public boolean test(PageId pid) {
+                    return partitionOf.get(pid) == fq && evictable.test(pid);
                 }
+            };
+            // if all its pages are dirty, the partition goes over its maximum
+            while (n.get() >= q.getMaxPages() && evictPage(own))
+                ;
+        }
+        while (pages.size() >= numPages)
+            evictPage();
+    }
+
+    /**
+     * Discards a page from the buffer pool.
+     * The page is the first clean page chosen by the eviction policy, so it
+     * does not need to be written back.  Takes no pool-wide lock; concurrent
+     * evictions each remove a different page.  If all pages are dirty, some
+     * are written out first, unless the background writer is disabled.
+     * Pages reserved by the minimum of their partition are only evicted if
+     * no other page can be.
+     */
+    private void evictPage() throws DbException {
+        long start = System.nanoTime();
+        PageId pid = policy.evict(unreserved);
+        if (pid == null && dirtyRatio < 1) {
+            stats.dirtyStalls.increment();
+            try {
+                writeDirty(WRITER_MAX_PAGES);
+            } catch (IOException e) {
+                throw new DbException("could not write dirty pages to evict one: " + e);
             }
-            // XXX: The above code makes sure page is not dirty.
-            // Assuming we have FORCE, Why do we flush it to disk?
-            // Answer: yes we don't need this if we have FORCE, but we do need it if we
-            // don't.
-            // it doesn't hurt to keep it here.
-            flushPage(pid);
-        } catch (IOException e) {
-            throw new DbException("could not evict page");
+            pid = policy.evict(unreserved);
         }
-        pages.remove(pid);
-        // some code goes here
+        if (pid == null && !partitionOf.isEmpty()) {
+            // the minimums add up to more than the clean pages of the pool
+            pid = policy.evict(evictable);
+        }
+        if (pid == null) {
+            throw new DbException(
+                    "All buffer pool slots contain dirty pages;  COMMIT or ROLLBACK to continue.");
+        }
+        evicted(pid, start);
+    }
+
+    /**
+     * Evicts the first page, in the order of the eviction policy, that the
+     * given predicate accepts.
+     *
+     * @return false if there is no such page
+     */
+    private boolean evictPage(Predicate<PageId> candidates) {
+        long start = System.nanoTime();
+        PageId pid = policy.evict(candidates);
+        if (pid == null)
+            return false;
+        evicted(pid, start);
+        return true;
+    }
+
+    /** Removes a page picked by the eviction policy from the pool. */
+    private void evicted(PageId pid, long start) {
+        Page p = pages.get(pid);
+        if (p != null && !removeIfClean(pid, p)) {
+            // dirtied or replaced since the policy picked it; keep it
+            if (pages.containsKey(pid))
+                policy.admitted(pid);
+            return;
+        }
+        uncached(pid);
+        if (p != null && arena != null)
+            stash(p);
+        stats.evicted(System.nanoTime() - start);
+    }
+
+    /**
+     * Removes a page from the pool if it is clean and still the cached copy
+     * of its id.  Pages are marked dirty under their latch, so a page that
+     * passes the check cannot be dirtied before it is gone; a page that is
+     * dirty is never taken out of the pool, not even for a moment, since a
+     * miss meanwhile would read the stale copy from disk.
+     *
+     * @return whether the page was removed
+     */
+    private boolean removeIfClean(PageId pid, Page p) {
+        synchronized (p) {
+            return p.isDirty() == null && pages.remove(pid, p);
+        }
+    }
+
+    /** Copies a clean page that left the pool into the arena, if it can be decoded again. */
+    private void stash(Page p) {
+        PageId pid = p.getId();
+        if (Database.getCatalog().getDatabaseFile(pid.getTableId()) instanceof PageDecoder)
+            arena.put(pid, p.getPageData());
     }
 
 }
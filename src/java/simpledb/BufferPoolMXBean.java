@@ -0,0 +1,51 @@
+package simpledb;
+
+import java.util.Map;
+
+/**
+ * Management interface of the buffer pool, registered with the platform
+ * MBean server as {@value BufferPoolMonitor#NAME}.  It always describes the
+ * current buffer pool of the Database, so tools such as jconsole can follow
+ * the pool across resets.
+ */
+public interface BufferPoolMXBean {
+
+    public int getNumPages();
+
+    public int getCachedPages();
+
+    public int getDirtyPages();
+
+    public String getEvictionPolicy();
+
+    public long getHits();
+
+    public long getMisses();
+
+    public double getHitRatio();
+
+    public long getReads();
+
+    public long getWrites();
+
+    public long getEvictions();
+
+    public long getDirtyStalls();
+
+    public long getBackgroundWrites();
+
+    public long getArenaHits();
+
+    public double getMeanEvictMicros();
+
+    public long getAverageReadNanos();
+
+    /** @return the number of cached pages of each table, by table name */
+    public Map<String, Integer> getTableResidency();
+
+    /** @return the report printed by SHOW BUFFERPOOL */
+    public String getReport();
+
+    /** Resets the counters and latency histograms of the pool. */
+    public void resetCounters();
+}
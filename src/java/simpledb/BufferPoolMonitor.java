@@ -0,0 +1,113 @@
+package simpledb;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * BufferPoolMonitor exposes the statistics of the buffer pool of the
+ * Database through JMX.  It is registered once per JVM, the first time a
+ * Database is created.
+ */
+class BufferPoolMonitor implements BufferPoolMXBean {
+
+    static final String NAME = "simpledb:type=BufferPool";
+
+    private static final AtomicBoolean registered = new AtomicBoolean(false);
+
+    /** Registers the monitor with the platform MBean server, if it is not yet. */
+    static void register() {
+        if (!registered.compareAndSet(false, true))
+            return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new BufferPoolMonitor(),
+                    new ObjectName(NAME));
+        } catch (JMException e) {
+            // monitoring is optional; run without it
+            Debug.log("could not register %s: %s", NAME, e);
+        }
+    }
+
+    private static BufferPool pool() {
+        return Database.getBufferPool();
+    }
+
+    public int getNumPages() {
+        return pool().numPages;
+    }
+
+    public int getCachedPages() {
+        return pool().pages.size();
+    }
+
+    public int getDirtyPages() {
+        return pool().getDirtyPageCount();
+    }
+
+    public String getEvictionPolicy() {
+        return pool().getEvictionPolicy().getClass().getSimpleName();
+    }
+
+    public long getHits() {
+        return pool().getStats().getHits();
+    }
+
+    public long getMisses() {
+        return pool().getStats().getMisses();
+    }
+
+    public double getHitRatio() {
+        return pool().getStats().getHitRatio();
+    }
+
+    public long getReads() {
+        return pool().getStats().getReads();
+    }
+
+    public long getWrites() {
+        return pool().getStats().getWrites();
+    }
+
+    public long getEvictions() {
+        return pool().getStats().getEvictions();
+    }
+
+    public long getDirtyStalls() {
+        return pool().getStats().getDirtyStalls();
+    }
+
+    public long getBackgroundWrites() {
+        return pool().getStats().getBackgroundWrites();
+    }
+
+    public long getArenaHits() {
+        return pool().getStats().getArenaHits();
+    }
+
+    public double getMeanEvictMicros() {
+        return pool().getStats().getEvictLatency().getMeanMicros();
+    }
+
+    public long getAverageReadNanos() {
+        return pool().getAverageReadNanos();
+    }
+
+    public Map<String, Integer> getTableResidency() {
+        TreeMap<String, Integer> byName = new TreeMap<String, Integer>();
+        for (Map.Entry<Integer, Integer> e : pool().getTableResidency().entrySet())
+            byName.put(BufferPoolStats.tableName(e.getKey()), e.getValue());
+        return byName;
+    }
+
+    public String getReport() {
+        return pool().report();
+    }
+
+    public void resetCounters() {
+        pool().resetCounters();
+    }
+}
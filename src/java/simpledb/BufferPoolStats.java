@@ -0,0 +1,213 @@
+package simpledb;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * BufferPoolStats holds the counters and latency histograms of a
+ * BufferPool.  Counters are striped LongAdders, so the hot paths of the
+ * pool can update them without contending on a shared cache line.  Page
+ * read and write latencies are kept per table and per page category (heap
+ * pages and the four kinds of B+ tree pages).
+ *
+ * @Threadsafe
+ */
+public class BufferPoolStats {
+
+    /** Page categories latencies are kept for. */
+    public static final String HEAP = "heap";
+    public static final String BTREE_ROOT_PTR = "btree-rootptr";
+    public static final String BTREE_INTERNAL = "btree-internal";
+    public static final String BTREE_LEAF = "btree-leaf";
+    public static final String BTREE_HEADER = "btree-header";
+
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+    final LongAdder reads = new LongAdder();
+    final LongAdder writes = new LongAdder();
+    final LongAdder evictions = new LongAdder();
+    final LongAdder dirtyStalls = new LongAdder();
+    final LongAdder arenaHits = new LongAdder();
+    final LongAdder backgroundWrites = new LongAdder();
+
+    private final LatencyHistogram evictLatency = new LatencyHistogram();
+    private final ConcurrentHashMap<Integer, LatencyHistogram> readByTable =
+            new ConcurrentHashMap<Integer, LatencyHistogram>();
+    private final ConcurrentHashMap<Integer, LatencyHistogram> writeByTable =
+            new ConcurrentHashMap<Integer, LatencyHistogram>();
+    private final ConcurrentHashMap<String, LatencyHistogram> readByCategory =
+            new ConcurrentHashMap<String, LatencyHistogram>();
+    private final ConcurrentHashMap<String, LatencyHistogram> writeByCategory =
+            new ConcurrentHashMap<String, LatencyHistogram>();
+
+    /** @return the category of a page, one of the constants of this class */
+    public static String category(PageId pid) {
+        if (!(pid instanceof BTreePageId))
+            return HEAP;
+        switch (((BTreePageId) pid).pgcateg()) {
+        case BTreePageId.ROOT_PTR:
+            return BTREE_ROOT_PTR;
+        case BTreePageId.INTERNAL:
+            return BTREE_INTERNAL;
+        case BTreePageId.LEAF:
+            return BTREE_LEAF;
+        default:
+            return BTREE_HEADER;
+        }
+    }
+
+    private static <K> LatencyHistogram histogram(ConcurrentHashMap<K, LatencyHistogram> map, K key) {
+        LatencyHistogram h = map.get(key);
+        if (h == null) {
+            LatencyHistogram created = new LatencyHistogram();
+            h = map.putIfAbsent(key, created);
+            if (h == null)
+                h = created;
+        }
+        return h;
+    }
+
+    /** Records a page read from disk that took the given time. */
+    void pageRead(PageId pid, long nanos) {
+        reads.increment();
+        histogram(readByTable, pid.getTableId()).record(nanos);
+        histogram(readByCategory, category(pid)).record(nanos);
+    }
+
+    /** Records a page write; pages written together each get their share of the time. */
+    void pageWritten(PageId pid, long nanos) {
+        writes.increment();
+        histogram(writeByTable, pid.getTableId()).record(nanos);
+        histogram(writeByCategory, category(pid)).record(nanos);
+    }
+
+    /** Records an eviction that took the given time. */
+    void evicted(long nanos) {
+        evictions.increment();
+        evictLatency.record(nanos);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /** @return the share of getPage calls served from the pool, or 0 if there were none */
+    public double getHitRatio() {
+        long h = hits.sum();
+        long n = h + misses.sum();
+        return n == 0 ? 0 : (double) h / n;
+    }
+
+    /** @return the number of pages read from disk, including read-ahead */
+    public long getReads() {
+        return reads.sum();
+    }
+
+    /** @return the number of pages written to disk */
+    public long getWrites() {
+        return writes.sum();
+    }
+
+    /** @return the number of pages evicted by the eviction policy */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /** @return the number of evictions that had to write dirty pages first */
+    public long getDirtyStalls() {
+        return dirtyStalls.sum();
+    }
+
+    public long getArenaHits() {
+        return arenaHits.sum();
+    }
+
+    public long getBackgroundWrites() {
+        return backgroundWrites.sum();
+    }
+
+    public LatencyHistogram getEvictLatency() {
+        return evictLatency;
+    }
+
+    /** @return the read latencies of a table, or null if none of its pages was read */
+    public LatencyHistogram getReadLatency(int tableId) {
+        return readByTable.get(tableId);
+    }
+
+    /** @return the write latencies of a table, or null if none of its pages was written */
+    public LatencyHistogram getWriteLatency(int tableId) {
+        return writeByTable.get(tableId);
+    }
+
+    /** @return the read latencies of a page category, or null if there were no reads */
+    public LatencyHistogram getReadLatency(String category) {
+        return readByCategory.get(category);
+    }
+
+    /** @return the write latencies of a page category, or null if there were no writes */
+    public LatencyHistogram getWriteLatency(String category) {
+        return writeByCategory.get(category);
+    }
+
+    /** Clears all counters and histograms. */
+    public void reset() {
+        for (LongAdder a : new LongAdder[] { hits, misses, reads, writes, evictions, dirtyStalls,
+                arenaHits, backgroundWrites })
+            a.reset();
+        evictLatency.reset();
+        readByTable.clear();
+        writeByTable.clear();
+        readByCategory.clear();
+        writeByCategory.clear();
+    }
+
+    /**
+     * @param residency the number of cached pages per table id
+     * @return a human readable report of these statistics
+     */
+    public String report(Map<Integer, Integer> residency) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("hits %d, misses %d, hit ratio %.3f%n", getHits(), getMisses(),
+                getHitRatio()));
+        sb.append(String.format("reads %d, writes %d, background writes %d, arena hits %d%n",
+                getReads(), getWrites(), getBackgroundWrites(), getArenaHits()));
+        sb.append(String.format("evictions %d (%s), dirty stalls %d%n", getEvictions(), evictLatency,
+                getDirtyStalls()));
+        for (String c : new TreeMap<String, LatencyHistogram>(readByCategory).keySet())
+            sb.append(String.format("read  %-15s %s%n", c, readByCategory.get(c)));
+        for (String c : new TreeMap<String, LatencyHistogram>(writeByCategory).keySet())
+            sb.append(String.format("write %-15s %s%n", c, writeByCategory.get(c)));
+
+        TreeMap<String, Integer> tables = new TreeMap<String, Integer>();
+        for (Map.Entry<Integer, Integer> e : residency.entrySet())
+            tables.put(tableName(e.getKey()), e.getKey());
+        for (Map.Entry<String, Integer> e : tables.entrySet()) {
+            int id = e.getValue();
+            sb.append(String.format("table %s: %d pages cached%n", e.getKey(), residency.get(id)));
+            if (readByTable.containsKey(id))
+                sb.append(String.format("  read  %s%n", readByTable.get(id)));
+            if (writeByTable.containsKey(id))
+                sb.append(String.format("  write %s%n", writeByTable.get(id)));
+        }
+        return sb.toString();
+    }
+
+    /** @return the catalog name of a table, or its id if it has none */
+    static String tableName(int tableId) {
+        try {
+            String name = Database.getCatalog().getTableName(tableId);
+            if (name != null)
+                return name;
+        } catch (RuntimeException e) {
+            // not in the catalog
+        }
+        return Integer.toString(tableId);
+    }
+}
@@ -0,0 +1,45 @@
+package simpledb;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * InputStream view over a ByteBuffer.  Lets page constructors that parse
+ * through a DataInputStream read directly out of a (possibly memory-mapped)
+ * buffer rather than a copied byte array.  Reading advances the position of
+ * the wrapped buffer, so callers should pass a duplicate or slice.
+ */
+class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buf;
+
+    public ByteBufferInputStream(ByteBuffer buf) {
+        this.buf = buf;
+    }
+
+    public int read() {
+        if (!buf.hasRemaining())
+            return -1;
+        return buf.get() & 0xFF;
+    }
+
+    public int read(byte[] b, int off, int len) {
+        if (len == 0)
+            return 0;
+        if (!buf.hasRemaining())
+            return -1;
+        len = Math.min(len, buf.remaining());
+        buf.get(b, off, len);
+        return len;
+    }
+
+    public long skip(long n) {
+        int k = (int) Math.max(0, Math.min(n, buf.remaining()));
+        buf.position(buf.position() + k);
+        return k;
+    }
+
+    public int available() {
+        return buf.remaining();
+    }
+}
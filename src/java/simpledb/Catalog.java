@@ -23,6 +23,9 @@ public class Catalog {
     private final Map<String, Integer> name2id;
     private final Map<Integer, String> id2name;
     private final Map<Integer, String> pkey;
+    private final Map<Integer, String> id2space;
+    private final Map<Integer, PoolQuota> tableQuotas;
+    private final Map<String, PoolQuota> spaceQuotas;
 
     /**
      * Constructor.
@@ -34,6 +37,9 @@ public class Catalog {
         name2id = new ConcurrentHashMap<String,Integer>();
         id2name = new ConcurrentHashMap<Integer,String>();
         pkey = new ConcurrentHashMap<Integer,String>();
+        id2space = new ConcurrentHashMap<Integer,String>();
+        tableQuotas = new ConcurrentHashMap<Integer,PoolQuota>();
+        spaceQuotas = new ConcurrentHashMap<String,PoolQuota>();
 
     }
 
@@ -51,13 +57,23 @@ public class Catalog {
 		// it means that you can no longer get at those tables by ID, but it saves
 		// some amount of memory.
 		if (name2id.containsKey(name)) {
-			id2table.remove( name2id.get(name) );
+			DbFile old = id2table.remove( name2id.get(name) );
 			id2tupledesc.remove( name2id.get(name) );
 			name2id.remove(name);
+			if (old != file)
+				closeFile(old);
 		}
+
+        try {
+            file.open();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
 		
         id2tupledesc.put(file.getId(), file.getTupleDesc());
-        id2table.put(file.getId(), file);
+        DbFile displaced = id2table.put(file.getId(), file);
+        if (displaced != file)
+            closeFile(displaced);
         name2id.put(name, file.getId());
         id2name.put(file.getId(), name);
 
@@ -126,17 +142,109 @@ public class Catalog {
         return id2name.get(id);
     }
     
-    /** Delete all tables from the catalog */
+    /**
+     * Reserves and caps the buffer pool frames of a table.  A quota of the
+     * table itself takes precedence over the quota of its tablespace.
+     *
+     * @param minPages the number of frames reserved for the table
+     * @param maxPages the most frames the table may take up, or
+     *     {@link PoolQuota#UNLIMITED}
+     */
+    public synchronized void setTableQuota(int tableid, int minPages, int maxPages) {
+        PoolQuota q = tableQuotas.get(tableid);
+        if (q != null)
+            q.setLimits(minPages, maxPages);
+        else
+            tableQuotas.put(tableid, new PoolQuota(getTableName(tableid), minPages, maxPages));
+    }
+
+    /**
+     * Reserves and caps the buffer pool frames shared by the tables of a
+     * tablespace.
+     *
+     * @see #setTableQuota
+     */
+    public synchronized void setTablespaceQuota(String space, int minPages, int maxPages) {
+        PoolQuota q = spaceQuotas.get(space);
+        if (q != null)
+            q.setLimits(minPages, maxPages);
+        else
+            spaceQuotas.put(space, new PoolQuota(space, minPages, maxPages));
+    }
+
+    /** Puts a table into a tablespace, whose buffer pool quota it then shares */
+    public void setTablespace(int tableid, String space) {
+        id2space.put(tableid, space);
+    }
+
+    /** @return the tablespace of a table, or null if it is in none */
+    public String getTablespace(int tableid) {
+        return id2space.get(tableid);
+    }
+
+    /**
+     * @return the buffer pool partition of a table: its own quota, else the
+     *     quota of its tablespace, or null if it has neither
+     */
+    public PoolQuota getPoolQuota(int tableid) {
+        PoolQuota q = tableQuotas.get(tableid);
+        if (q != null || id2space.isEmpty())
+            return q;
+        String space = id2space.get(tableid);
+        return space == null ? null : spaceQuotas.get(space);
+    }
+
+    /** Close the backing file of a table that is leaving the catalog */
+    private void closeFile(DbFile file) {
+        if (file == null)
+            return;
+        try {
+            file.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** Delete all tables from the catalog, closing their backing files */
     public void clear() {
+        for (DbFile file : id2table.values())
+            closeFile(file);
         id2table.clear();
         id2tupledesc.clear();
         name2id.clear();
         id2name.clear();
         pkey.clear();
+        id2space.clear();
+        tableQuotas.clear();
+        spaceQuotas.clear();
     }
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line has the form
+     * <pre>
+     *     name (field type [pk], ...) [option ...]
+     * </pre>
+     * where the table options are
+     * <ul>
+     * <li><code>mmap</code>: read the table through memory-mapped regions
+     *     (see {@link HeapFile#setMemoryMapped})
+     * <li><code>format=heap|slotted|pax</code>: the page format of the data
+     *     file, fixed-size HeapPages (the default), variable-length
+     *     SlottedHeapPages (see {@link SlottedHeapFile}) or columnar
+     *     PaxHeapPages (see {@link PaxHeapFile})
+     * <li><code>compress=deflate|rle</code>: store the HeapPages of the table
+     *     compressed with the given codec (see {@link CompressedHeapFile});
+     *     only valid with the heap format, and not with <code>mmap</code>
+     * <li><code>minpages=N</code>, <code>maxpages=N</code>: reserve and cap
+     *     the buffer pool frames of the table (see {@link #setTableQuota})
+     * <li><code>tablespace=name</code>: put the table into a tablespace
+     * </ul>
+     * A line of the form
+     * <pre>
+     *     tablespace name [minpages=N] [maxpages=N]
+     * </pre>
+     * sets the buffer pool quota shared by the tables of a tablespace.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -146,6 +254,12 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
             
             while ((line = br.readLine()) != null) {
+                if (line.startsWith("tablespace ") && line.indexOf("(") < 0) {
+                    String[] els = line.trim().split("\\s+");
+                    int[] limits = parseQuota(els, 2);
+                    setTablespaceQuota(els[1], limits[0], limits[1]);
+                    continue;
+                }
                 //assume line is of the format name (field type, field type, ...)
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
@@ -177,8 +291,72 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                //table options follow the field list, e.g. "name (f int) mmap"
+                String options = line.substring(line.indexOf(")") + 1).trim();
+                boolean mmap = false;
+                String format = "heap";
+                String compress = null;
+                String space = null;
+                String[] opts = options.split("\\s+");
+                int[] quota = parseQuota(opts, 0);
+                for (String opt : opts) {
+                    if (opt.isEmpty() || opt.startsWith("minpages=") || opt.startsWith("maxpages="))
+                        continue;
+                    if (opt.equals("mmap"))
+                        mmap = true;
+                    else if (opt.startsWith("format="))
+                        format = opt.substring("format=".length());
+                    else if (opt.startsWith("compress="))
+                        compress = opt.substring("compress=".length());
+                    else if (opt.startsWith("tablespace="))
+                        space = opt.substring("tablespace=".length());
+                    else {
+                        System.out.println("Unknown table option " + opt);
+                        System.exit(0);
+                    }
+                }
+                File dataFile = new File(baseFolder+"/"+name + ".dat");
+                HeapFile tabHf;
+                if (compress != null && !format.equals("heap")) {
+                    System.out.println("Compression is not supported with table format " + format);
+                    System.exit(0);
+                    return;
+                }
+                if (compress != null && mmap) {
+                    System.out.println("Compressed tables cannot be memory mapped");
+                    System.exit(0);
+                    return;
+                }
+                if (compress != null) {
+                    PageCodec codec;
+                    if (compress.equals("deflate"))
+                        codec = new DeflatePageCodec();
+                    else if (compress.equals("rle"))
+                        codec = new RlePageCodec();
+                    else {
+                        System.out.println("Unknown compression codec " + compress);
+                        System.exit(0);
+                        return;
+                    }
+                    tabHf = new CompressedHeapFile(dataFile, t, codec);
+                } else if (format.equals("heap"))
+                    tabHf = new HeapFile(dataFile, t);
+                else if (format.equals("slotted"))
+                    tabHf = new SlottedHeapFile(dataFile, t);
+                else if (format.equals("pax"))
+                    tabHf = new PaxHeapFile(dataFile, t);
+                else {
+                    System.out.println("Unknown table format " + format);
+                    System.exit(0);
+                    return;
+                }
+                if (mmap)
+                    tabHf.setMemoryMapped(true);
                 addTable(tabHf,name,primaryKey);
+                if (space != null)
+                    setTablespace(tabHf.getId(), space);
+                if (quota != null)
+                    setTableQuota(tabHf.getId(), quota[0], quota[1]);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
         } catch (IOException e) {
@@ -187,7 +365,30 @@ public class Catalog {
         } catch (IndexOutOfBoundsException e) {
             System.out.println ("Invalid catalog entry : " + line);
             System.exit(0);
+        } catch (IllegalArgumentException e) {
+            System.out.println ("Invalid catalog entry : " + line + ": " + e.getMessage());
+            System.exit(0);
+        }
+    }
+
+    /**
+     * Parses the minpages= and maxpages= options among the given ones.
+     *
+     * @param start the index of the first option
+     * @return the minimum and maximum, or null if neither is given
+     * @throws NumberFormatException if a value is not a number
+     */
+    private static int[] parseQuota(String[] opts, int start) {
+        int[] limits = null;
+        for (int i = start; i < opts.length; i++) {
+            boolean min = opts[i].startsWith("minpages=");
+            if (!min && !opts[i].startsWith("maxpages="))
+                continue;
+            if (limits == null)
+                limits = new int[] { 0, PoolQuota.UNLIMITED };
+            limits[min ? 0 : 1] = Integer.parseInt(opts[i].substring("minpages=".length()));
         }
+        return limits;
     }
 }
 
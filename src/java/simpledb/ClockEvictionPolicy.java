@@ -0,0 +1,88 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * The CLOCK (second chance) eviction policy.  Pages sit in a circular array
+ * of frames with a reference bit each; a hit sets the bit of the page, and
+ * the clock hand sweeps the frames, clearing set bits and evicting the first
+ * page whose bit is already clear.  This approximates LRU at the cost of a
+ * bit flip per hit, which takes no lock.
+ */
+public class ClockEvictionPolicy implements EvictionPolicy {
+
+    private static class Frame {
+        final PageId pid;
+        final int index;
+        volatile boolean referenced = false;
+
+        Frame(PageId pid, int index) {
+            this.pid = pid;
+            this.index = index;
+        }
+    }
+
+    // the clock and its hand; guarded by this
+    private final ArrayList<Frame> frames = new ArrayList<Frame>();
+    private final ArrayList<Integer> freeFrames = new ArrayList<Integer>();
+    private int hand = 0;
+
+    // read without a lock by accessed(), written under this
+    private final ConcurrentHashMap<PageId, Frame> frameOf = new ConcurrentHashMap<PageId, Frame>();
+
+    public synchronized void admitted(PageId pid) {
+        if (frameOf.containsKey(pid)) {
+            accessed(pid);
+            return;
+        }
+        Frame f;
+        if (freeFrames.isEmpty()) {
+            f = new Frame(pid, frames.size());
+            frames.add(f);
+        } else {
+            f = new Frame(pid, freeFrames.remove(freeFrames.size() - 1));
+            frames.set(f.index, f);
+        }
+        frameOf.put(pid, f);
+    }
+
+    public void accessed(PageId pid) {
+        Frame f = frameOf.get(pid);
+        if (f != null)
+            f.referenced = true;
+    }
+
+    public synchronized void removed(PageId pid) {
+        Frame f = frameOf.remove(pid);
+        if (f != null) {
+            frames.set(f.index, null);
+            freeFrames.add(f.index);
+        }
+    }
+
+    /**
+     * Sweeps the clock hand at most twice around the frames, so every page
+     * is considered at least once.
+     */
+    public synchronized PageId evict(Predicate<PageId> evictable) {
+        int maxSteps = 2 * frames.size();
+        for (int steps = 0; steps < maxSteps; steps++) {
+            int frame = hand;
+            hand = (hand + 1) % frames.size();
+            Frame f = frames.get(frame);
+            if (f == null)
+                continue;
+            if (f.referenced) {
+                f.referenced = false;
+                continue;
+            }
+            if (evictable.test(f.pid)) {
+                removed(f.pid);
+                return f.pid;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,214 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * CompressedHeapFile is a HeapFile whose pages are compressed on disk with a
+ * {@link PageCodec}.  Pages are compressed in writePage() and decompressed in
+ * readPage(), i.e. only when they miss in the BufferPool, so pages in the
+ * BufferPool are plain HeapPages and operators never see compressed data.
+ * <p>
+ * Since compressed pages vary in size, page n no longer lives at offset
+ * n * pageSize.  Each page is stored in an extent of the data file, and a
+ * {@link PageOffsetTable} kept next to the data file maps page numbers to
+ * extents.  Pages are written with shadow paging: each new image goes to a
+ * free extent, which is forced to disk before the table points the page at
+ * it, so a crash never pairs the bytes of one image with the length of
+ * another.  Extents are rounded up to {@link #EXTENT_ALIGN} bytes so that
+ * the extents pages leave can be reused by pages of similar size.  Pages
+ * that do not compress to less than a page are stored uncompressed.
+ * <p>
+ * Use {@link #convert} to build a compressed data file from a HeapFile data
+ * file, and the <code>compress=</code> table option to load it through the
+ * Catalog.  A data file without a page table is read as an uncompressed heap
+ * file, and its pages are compressed as they are rewritten.
+ *
+ * @see PageCodec
+ */
+public class CompressedHeapFile extends HeapFile {
+
+    /** Extents are allocated in multiples of this many bytes. */
+    static final int EXTENT_ALIGN = 256;
+
+    private final PageCodec codec;
+
+    // loaded on first use
+    private PageOffsetTable table = null; // guarded by this
+
+    /**
+     * Constructs a compressed heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param codec
+     *            the codec the pages are compressed with
+     */
+    public CompressedHeapFile(File f, TupleDesc td, PageCodec codec) {
+        super(f, td);
+        this.codec = codec;
+    }
+
+    /** @return the codec the pages of this file are compressed with */
+    public PageCodec getCodec() {
+        return codec;
+    }
+
+    /** Returns the page table, loading it from its side file if needed. */
+    synchronized PageOffsetTable getPageTable() {
+        if (table == null) {
+            try {
+                table = new PageOffsetTable(getFile(), codec.getName());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return table;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        super.close();
+        if (table != null)
+            table.close();
+    }
+
+    /**
+     * Memory-mapped scans are not supported, since the pages on disk are
+     * compressed.
+     */
+    @Override
+    public synchronized void setMemoryMapped(boolean on) throws IOException {
+        if (on)
+            throw new UnsupportedOperationException("compressed tables cannot be memory mapped");
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public Page readPage(PageId pid) {
+        HeapPageId id = (HeapPageId) pid;
+        int pageSize = BufferPool.getPageSize();
+        PageOffsetTable pt = getPageTable();
+        long offset;
+        int length;
+        synchronized (pt) {
+            if (id.pageNumber() >= pt.numPages())
+                throw new IllegalArgumentException("Read past end of table");
+            offset = pt.getOffset(id.pageNumber());
+            length = pt.getLength(id.pageNumber());
+        }
+
+        try {
+            byte[] pageBuf;
+            if (length == 0) {
+                pageBuf = new byte[pageSize];
+            } else {
+                byte[] stored = new byte[length];
+                readFully(ByteBuffer.wrap(stored), offset);
+                pageBuf = length == pageSize ? stored : codec.decompress(stored, pageSize);
+            }
+            Debug.log(1, "CompressedHeapFile.readPage: read page %d (%d bytes)", id.pageNumber(), length);
+            return createPage(id, ByteBuffer.wrap(pageBuf));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public void writePage(Page page) throws IOException {
+        writePages(Collections.singletonList(page), false);
+    }
+
+    /**
+     * Writes each page to a free extent, forces the data file, and only then
+     * points the pages at their new extents.
+     */
+    @Override
+    public void writePages(List<Page> pages, boolean force) throws IOException {
+        PageOffsetTable pt = getPageTable();
+        long[] offsets = new long[pages.size()];
+        int[] lengths = new int[pages.size()];
+        for (int i = 0; i < pages.size(); i++) {
+            byte[] stored = encode(codec, pages.get(i).getPageData());
+            offsets[i] = pt.reserve(extentSize(stored.length));
+            lengths[i] = stored.length;
+            writeFully(ByteBuffer.wrap(stored), offsets[i]);
+        }
+        getChannel().force(false);
+        for (int i = 0; i < pages.size(); i++)
+            pt.set(pages.get(i).getId().pageNumber(), offsets[i], extentSize(lengths[i]), lengths[i]);
+        if (force)
+            pt.force();
+    }
+
+    /**
+     * @return the bytes to store for a page: the compressed page, or the page
+     *   itself if it does not compress
+     */
+    private static byte[] encode(PageCodec codec, byte[] page) {
+        byte[] compressed = codec.compress(page);
+        return compressed.length < page.length && compressed.length > 0 ? compressed : page;
+    }
+
+    private static int extentSize(int length) {
+        return (length + EXTENT_ALIGN - 1) / EXTENT_ALIGN * EXTENT_ALIGN;
+    }
+
+    /**
+     * Returns the number of pages in this file.
+     */
+    @Override
+    public int numPages() {
+        return getPageTable().numPages();
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public int allocatePage() throws IOException {
+        // new pages have no extent until they are first written
+        return getPageTable().append();
+    }
+
+    /**
+     * Compresses the pages of a HeapFile data file into a new data file and
+     * page table that can be read by a CompressedHeapFile using the same
+     * codec.
+     *
+     * @param heapFile the uncompressed data file
+     * @param out the compressed data file to create; its page table is
+     *   written next to it
+     * @param codec the codec to compress the pages with
+     */
+    public static void convert(File heapFile, File out, PageCodec codec) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        out.delete();
+        new File(out.getPath() + ".pgt").delete();
+        PageOffsetTable pt = new PageOffsetTable(out, codec.getName());
+        RandomAccessFile in = new RandomAccessFile(heapFile, "r");
+        RandomAccessFile dst = new RandomAccessFile(out, "rw");
+        try {
+            FileChannel fc = dst.getChannel();
+            byte[] page = new byte[pageSize];
+            int numPages = (int) (in.length() / pageSize);
+            for (int i = 0; i < numPages; i++) {
+                in.readFully(page);
+                byte[] stored = encode(codec, page);
+                int capacity = extentSize(stored.length);
+                long offset = pt.reserve(capacity);
+                ByteBuffer bb = ByteBuffer.wrap(stored);
+                while (bb.hasRemaining())
+                    fc.write(bb, offset + bb.position());
+                pt.set(i, offset, capacity, stored.length);
+            }
+        } finally {
+            in.close();
+            dst.close();
+            pt.close();
+        }
+    }
+}
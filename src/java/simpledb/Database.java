@@ -32,6 +32,7 @@ public class Database {
             System.exit(1);
         }
         _logfile = tmp;
+        BufferPoolMonitor.register();
         // startControllerThread();
     }
 
@@ -55,11 +56,27 @@ public class Database {
      * return it
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(pages, new TwoQueueEvictionPolicy(pages));
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool
+     * with the given eviction policy and return it
+     */
+    public static BufferPool resetBufferPool(int pages, EvictionPolicy policy) {
+        return resetBufferPool(pages, policy, BufferPool.DEFAULT_ARENA_BYTES);
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool
+     * with the given eviction policy and off-heap arena size and return it
+     */
+    public static BufferPool resetBufferPool(int pages, EvictionPolicy policy, long arenaBytes) {
         java.lang.reflect.Field bufferPoolF=null;
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            bufferPoolF.set(_instance.get(), new BufferPool(pages, policy, arenaBytes));
         } catch (NoSuchFieldException e) {
             e.printStackTrace();
         } catch (SecurityException e) {
@@ -28,6 +28,34 @@ public interface DbFile {
      */
     public void writePage(Page p) throws IOException;
 
+    /**
+     * Acquire whatever OS resources (open files, channels) this DbFile keeps
+     * for the lifetime of the table.  Called by the Catalog when the table is
+     * added.
+     *
+     * @throws IOException if the backing file can't be opened
+     */
+    public void open() throws IOException;
+
+    /**
+     * Release the resources acquired by {@link #open}.  Called by the Catalog
+     * when the table is removed.
+     *
+     * @throws IOException if the backing file can't be closed
+     */
+    public void close() throws IOException;
+
+    /**
+     * Appends a new, empty page to the end of the file and returns its page
+     * number.  The page reads back as all zeroes until it is written.
+     * Implementations may grow the underlying file by more than one page at
+     * a time; callers must not infer the page count from the file length.
+     *
+     * @return the page number of the new page
+     * @throws IOException if the file can't be extended
+     */
+    public int allocatePage() throws IOException;
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -0,0 +1,147 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * DeadlockDetector keeps the waits-for graph of the transactions blocked in
+ * the LockManager and breaks the cycles in it.  There is an edge from T to U
+ * while T waits for a lock that U holds.
+ * <p>
+ * Detection is incremental: a new cycle must go through the edges just added
+ * for a transaction that starts (or keeps) waiting, so only the paths leading
+ * from that transaction are searched.  In each cycle found, the youngest
+ * transaction (the one with the highest id, which has done the least work)
+ * is chosen as the victim; its lock request fails with a
+ * TransactionAbortedException.  No other transaction is aborted.
+ * <p>
+ * The detector is only consulted by transactions that have to wait, so
+ * uncontended lock requests never touch it.
+ *
+ * @Threadsafe
+ */
+class DeadlockDetector {
+
+    // waiter -> the transactions holding the lock it waits for
+    private final HashMap<TransactionId, Set<TransactionId>> waitsFor =
+            new HashMap<TransactionId, Set<TransactionId>>();
+    // waiter -> the monitor it waits on, to wake it when it is chosen as victim
+    private final HashMap<TransactionId, Object> waitingOn = new HashMap<TransactionId, Object>();
+    // victims that have not noticed yet
+    private final Set<TransactionId> victims = new HashSet<TransactionId>();
+
+    private long deadlocks = 0;
+    private long abortedVictims = 0;
+
+    /**
+     * Records that tid waits on the given monitor for a lock held by
+     * holders, and checks whether that closes a cycle.
+     *
+     * @return the victim chosen to break a cycle (possibly tid itself), or
+     *   null if there is no deadlock
+     */
+    public synchronized TransactionId waitFor(TransactionId tid, Set<TransactionId> holders,
+            Object monitor) {
+        if (victims.contains(tid))
+            return tid;
+        waitsFor.put(tid, new HashSet<TransactionId>(holders));
+        waitingOn.put(tid, monitor);
+
+        ArrayList<TransactionId> cycle = findCycle(tid);
+        if (cycle == null)
+            return null;
+        deadlocks++;
+        TransactionId victim = tid;
+        for (TransactionId t : cycle)
+            if (t.getId() > victim.getId())
+                victim = t;
+        victims.add(victim);
+        // the victim's edges go now, so the rest of the cycle is not
+        // reported again before it wakes up
+        waitsFor.remove(victim);
+        return victim;
+    }
+
+    /**
+     * @return the transactions on a cycle through tid, or null if there is
+     *   none
+     */
+    private ArrayList<TransactionId> findCycle(TransactionId tid) {
+        HashMap<TransactionId, TransactionId> parent = new HashMap<TransactionId, TransactionId>();
+        ArrayList<TransactionId> stack = new ArrayList<TransactionId>();
+        stack.add(tid);
+        parent.put(tid, null);
+        while (!stack.isEmpty()) {
+            TransactionId t = stack.remove(stack.size() - 1);
+            Set<TransactionId> next = waitsFor.get(t);
+            if (next == null)
+                continue;
+            for (TransactionId u : next) {
+                if (u.equals(tid)) {
+                    ArrayList<TransactionId> cycle = new ArrayList<TransactionId>();
+                    for (TransactionId c = t; c != null; c = parent.get(c))
+                        cycle.add(c);
+                    return cycle;
+                }
+                if (!parent.containsKey(u)) {
+                    parent.put(u, t);
+                    stack.add(u);
+                }
+            }
+        }
+        return null;
+    }
+
+    /** @return the monitor tid waits on, or null if it is not waiting */
+    public synchronized Object getMonitor(TransactionId tid) {
+        return waitingOn.get(tid);
+    }
+
+    /** @return true if tid was chosen as a victim and has to abort */
+    public synchronized boolean isVictim(TransactionId tid) {
+        return victims.contains(tid);
+    }
+
+    /**
+     * Records that tid stopped waiting because it got its lock.  A victim
+     * that got its lock anyway no longer has to abort, since its cycle is
+     * broken.
+     */
+    public synchronized void granted(TransactionId tid) {
+        waitsFor.remove(tid);
+        waitingOn.remove(tid);
+        victims.remove(tid);
+    }
+
+    /**
+     * Records that tid stopped waiting without its lock, either as a victim
+     * or because it timed out.
+     */
+    public synchronized void aborted(TransactionId tid) {
+        if (victims.contains(tid))
+            abortedVictims++;
+        granted(tid);
+    }
+
+    /**
+     * Forgets a transaction that released its locks, including the edges of
+     * the transactions waiting for it.
+     */
+    public synchronized void forget(TransactionId tid) {
+        granted(tid);
+        for (Set<TransactionId> holders : waitsFor.values())
+            holders.remove(tid);
+    }
+
+    /** @return the number of deadlocks found */
+    public synchronized long getDeadlockCount() {
+        return deadlocks;
+    }
+
+    /** @return the number of transactions aborted to break deadlocks */
+    public synchronized long getVictimCount() {
+        return abortedVictims;
+    }
+}
@@ -0,0 +1,60 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * PageCodec using the LZ77-based DEFLATE algorithm of java.util.zip, at its
+ * fastest setting.  It works well on all page formats, and especially on the
+ * long zero runs of empty slots and padded strings in HeapPages.
+ */
+public class DeflatePageCodec implements PageCodec {
+
+    public String getName() {
+        return "deflate";
+    }
+
+    public byte[] compress(byte[] page) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(page);
+            deflater.finish();
+            // incompressible input grows by a few bytes per 16K block
+            byte[] out = new byte[page.length + page.length / 1000 + 64];
+            int len = 0;
+            while (!deflater.finished()) {
+                if (len == out.length)
+                    out = Arrays.copyOf(out, out.length * 2);
+                len += deflater.deflate(out, len, out.length - len);
+            }
+            return Arrays.copyOf(out, len);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    public byte[] decompress(byte[] data, int pageSize) throws IOException {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data);
+            byte[] page = new byte[pageSize];
+            int len = 0;
+            while (len < pageSize && !inflater.finished()) {
+                int n = inflater.inflate(page, len, pageSize - len);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                len += n;
+            }
+            if (len != pageSize)
+                throw new IOException("compressed page is truncated");
+            return page;
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package simpledb;
+
+import java.util.function.Predicate;
+
+/**
+ * EvictionPolicy decides which page the BufferPool evicts when it is full.
+ * The BufferPool reports every page that enters the pool, every hit and every
+ * page that leaves it, and asks the policy for a victim that it is allowed
+ * to evict (e.g. a page that is not dirty).  A policy must be able to find
+ * its victim in constant time when the first candidates are evictable.
+ * <p>
+ * Each BufferPool has its own policy instance; see
+ * {@link Database#resetBufferPool(int, EvictionPolicy)}.  Implementations
+ * must be thread safe, since the BufferPool calls them without holding any
+ * lock of its own, and should make {@link #accessed} cheap, since it is on
+ * the path of every cache hit.
+ *
+ * @see ClockEvictionPolicy
+ * @see TwoQueueEvictionPolicy
+ */
+public interface EvictionPolicy {
+
+    /** Called when a page that was not cached is added to the pool. */
+    public void admitted(PageId pid);
+
+    /** Called when a page that is in the pool is requested again. */
+    public void accessed(PageId pid);
+
+    /**
+     * Called when a page leaves the pool for any other reason than
+     * {@link #evict}, e.g. because it was discarded.  The policy should
+     * forget everything about it.
+     */
+    public void removed(PageId pid);
+
+    /**
+     * Picks the page to evict: the first page, in this policy's eviction
+     * order, for which <code>evictable</code> returns true.  The page is
+     * treated as evicted from then on.
+     *
+     * @param evictable tells whether the BufferPool may evict a page; must
+     *   not block or call back into the policy
+     * @return the page to evict, or null if no page can be evicted
+     */
+    public PageId evict(Predicate<PageId> evictable);
+}
@@ -0,0 +1,143 @@
+package simpledb;
+
+import java.io.*;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap tracks which pages of a HeapFile may have an empty slot, so
+ * that inserts can go straight to a page with room instead of scanning the
+ * file through the BufferPool.
+ * <p>
+ * The map is a hint.  A set bit means "this page may have a free slot" and
+ * a clear bit means "this page is full"; inserts verify the page they pick,
+ * and a page found to be full is cleared, so each stale bit costs at most one
+ * extra page fetch.  The map is kept up to date by HeapPage.insertTuple and
+ * HeapPage.deleteTuple, and a page whose changes are discarded (when the
+ * transaction that made them aborts) is marked as possibly free again.
+ * <p>
+ * The map is stored next to the data file as <code>&lt;file&gt;.fsm</code>.
+ * It is read when the HeapFile first needs it and the side file is removed
+ * at that point; it is written back when the HeapFile is closed.  After a
+ * crash there is no side file, and every page is treated as possibly having
+ * free space until an insert looks at it.
+ *
+ * @Threadsafe
+ */
+class FreeSpaceMap {
+
+    private static final int MAGIC = 0x46534d31; // "FSM1"
+
+    private final File mapFile;
+    private final BitSet free = new BitSet();
+    private int numPages;
+    private int lowestFree = 0; // no page below this one has its bit set
+    private boolean dirty = false;
+
+    /**
+     * Loads the free-space map for a data file, or starts a new map in which
+     * every page may have free space.
+     *
+     * @param dataFile the data file of the HeapFile
+     * @param numPages the number of pages currently in the data file
+     */
+    public FreeSpaceMap(File dataFile, int numPages) {
+        this.mapFile = new File(dataFile.getPath() + ".fsm");
+        this.numPages = numPages;
+        int known = load();
+        // anything the saved map does not cover may have free space
+        free.set(known, numPages);
+        lowestFree = free.nextSetBit(0) == -1 ? numPages : free.nextSetBit(0);
+    }
+
+    /**
+     * Reads the side file, if there is one that matches this file
+     * @return the number of pages covered by the saved map
+     */
+    private int load() {
+        if (!mapFile.exists())
+            return 0;
+        int known = 0;
+        try {
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(mapFile)));
+            try {
+                if (dis.readInt() == MAGIC && dis.readInt() == BufferPool.getPageSize()) {
+                    int savedPages = dis.readInt();
+                    byte[] bits = new byte[dis.readInt()];
+                    dis.readFully(bits);
+                    known = Math.min(savedPages, numPages);
+                    BitSet saved = BitSet.valueOf(bits);
+                    free.or(saved.get(0, known));
+                    dirty = true;
+                }
+            } finally {
+                dis.close();
+            }
+        } catch (IOException e) {
+            // a damaged map is just a missing hint
+            free.clear();
+            known = 0;
+        }
+        // the map on disk is only trusted until the data changes
+        mapFile.delete();
+        return known;
+    }
+
+    /**
+     * Writes the map to its side file, if it holds any information.
+     */
+    public synchronized void save() throws IOException {
+        if (!dirty)
+            return;
+        byte[] bits = free.toByteArray();
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mapFile)));
+        try {
+            dos.writeInt(MAGIC);
+            dos.writeInt(BufferPool.getPageSize());
+            dos.writeInt(numPages);
+            dos.writeInt(bits.length);
+            dos.write(bits);
+        } finally {
+            dos.close();
+        }
+    }
+
+    /**
+     * @return the lowest numbered page that may have a free slot, or -1 if
+     *         every page is known to be full
+     */
+    public synchronized int nextFreePage() {
+        if (lowestFree >= numPages)
+            return -1;
+        return lowestFree;
+    }
+
+    /**
+     * Records whether the specified page has a free slot.  Pages past the
+     * current end of the map extend it.
+     */
+    public synchronized void update(int pgno, boolean hasFreeSlot) {
+        if (pgno >= numPages) {
+            // pages skipped over by the extension may have free space
+            free.set(numPages, pgno);
+            if (lowestFree >= numPages) {
+                int next = free.nextSetBit(numPages);
+                lowestFree = next == -1 ? pgno + 1 : next;
+            }
+            numPages = pgno + 1;
+        }
+        if (free.get(pgno) == hasFreeSlot)
+            return;
+        dirty = true;
+        if (hasFreeSlot) {
+            free.set(pgno);
+            if (pgno < lowestFree)
+                lowestFree = pgno;
+        } else {
+            free.clear(pgno);
+            if (pgno == lowestFree) {
+                int next = free.nextSetBit(pgno + 1);
+                lowestFree = next == -1 ? numPages : next;
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * GroupCommit makes the COMMIT records of a LogFile durable in batches.
+ * Committing threads append their record to the log and then wait here for
+ * it to be forced; a single flusher thread forces the log once for all the
+ * commits waiting at that time and wakes them up together, so the commit
+ * rate is no longer bounded by one force per transaction.
+ * <p>
+ * The flusher forces as soon as {@link #MAX_BATCH} commits are waiting.
+ * Otherwise, while other transactions are running that may commit soon, it
+ * waits up to {@link #WINDOW_MICROS} after the first commit of the batch for
+ * more to join.  A lone transaction is forced right away.  The flusher
+ * thread exits when it has been idle for a while and is started again by
+ * the next commit.
+ *
+ * @Threadsafe
+ */
+class GroupCommit implements Runnable {
+
+    /**
+     * Longest time, in us, a commit waits for others to join its batch.  Can
+     * be overridden with the simpledb.groupcommit.window system property; 0
+     * forces each batch as soon as the flusher is free.
+     */
+    static final long WINDOW_MICROS = Long.getLong("simpledb.groupcommit.window", 500);
+
+    /**
+     * Number of waiting commits that are forced without waiting for the
+     * window to end.  Can be overridden with the simpledb.groupcommit.batch
+     * system property.
+     */
+    static final int MAX_BATCH = Integer.getInteger("simpledb.groupcommit.batch", 64);
+
+    /** Time, in ms, after which an idle flusher thread exits. */
+    static final long IDLE_MILLIS = 1000;
+
+    private final LogFile log;
+
+    // all guarded by this
+    private long durable = 0; // highest commit sequence number forced
+    private int pending = 0; // commits waiting for the next force
+    private long batchStart; // when the first of them started waiting, in ns
+    private Thread flusher = null;
+    private IOException failure = null; // of the last force, for the commits up to failedThrough
+    private long failedThrough = 0;
+
+    private final LatencyHistogram commitLatency = new LatencyHistogram();
+    private final Histogram batchSizes = new Histogram();
+
+    GroupCommit(LogFile log) {
+        this.log = log;
+    }
+
+    /**
+     * Waits until the log is forced up to the commit with the given
+     * sequence number.
+     *
+     * @param seq the sequence number the LogFile gave the commit record
+     * @param start when the commit started, in ns, for its latency
+     * @throws IOException if forcing the log failed
+     */
+    synchronized void await(long seq, long start) throws IOException {
+        if (seq > durable) {
+            if (pending++ == 0)
+                batchStart = System.nanoTime();
+            if (flusher == null) {
+                flusher = new Thread(this, "simpledb-groupcommit");
+                flusher.setDaemon(true);
+                flusher.start();
+            }
+            notifyAll();
+            boolean interrupted = false;
+            while (seq > durable && seq > failedThrough) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    // the commit record is in the log; it has to be waited for
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+            if (seq > durable)
+                throw new IOException("could not force the log: " + failure);
+        }
+        commitLatency.record(System.nanoTime() - start);
+    }
+
+    /** The flusher thread: forces the log for each batch of waiting commits. */
+    public void run() {
+        while (true) {
+            synchronized (this) {
+                try {
+                    if (!awaitBatch()) {
+                        flusher = null;
+                        return;
+                    }
+                } catch (InterruptedException e) {
+                    flusher = null;
+                    return;
+                }
+                pending = 0;
+            }
+
+            long target = 0;
+            IOException error = null;
+            try {
+                target = log.forceCommits();
+            } catch (IOException e) {
+                error = e;
+            }
+
+            synchronized (this) {
+                if (error != null) {
+                    failure = error;
+                    failedThrough = log.getCommitSequence();
+                } else if (target > durable) {
+                    // commit sequence numbers have no gaps
+                    batchSizes.record(target - durable);
+                    durable = target;
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits until a batch is due.
+     *
+     * @return false if there were no commits to force for a while
+     */
+    private boolean awaitBatch() throws InterruptedException {
+        long idleSince = System.currentTimeMillis();
+        while (pending == 0) {
+            long left = IDLE_MILLIS - (System.currentTimeMillis() - idleSince);
+            if (left <= 0)
+                return false;
+            wait(left);
+        }
+        // committing transactions are no longer active; wait while others are
+        long deadline = batchStart + WINDOW_MICROS * 1000;
+        while (pending < MAX_BATCH && log.getActiveTransactions() > 0) {
+            long left = deadline - System.nanoTime();
+            if (left <= 0)
+                break;
+            wait(left / 1000000, (int) (left % 1000000));
+        }
+        return true;
+    }
+
+    /** @return the time from the start of each commit until its record was forced */
+    LatencyHistogram getCommitLatency() {
+        return commitLatency;
+    }
+
+    /** @return the number of commits made durable by each force */
+    Histogram getBatchSizes() {
+        return batchSizes;
+    }
+}
@@ -1,6 +1,8 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
@@ -13,11 +15,27 @@ import java.util.*;
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
  */
-public class HeapFile implements DbFile {
+public class HeapFile implements DbFile, PageDecoder, PageBatchWriter {
 
     private final File f;
     private final TupleDesc td;
     private final int tableid ;
+
+    // one long-lived channel per table; positional reads and writes on a
+    // FileChannel are safe to issue concurrently, so page I/O needs no lock.
+    // Guarded by this for open/close only.
+    private volatile RandomAccessFile raf = null;
+    private volatile FileChannel channel = null;
+
+    // non-null when the table is read through memory-mapped regions
+    private volatile MappedRegions mapped = null;
+
+    // pages that may have free slots; loaded on first use, saved on close
+    private FreeSpaceMap freeSpace = null; // guarded by this
+
+    // in-memory page count; new pages are handed out in preallocated chunks
+    private final PageAllocator allocator;
+
     /**
      * Constructs a heap file backed by the specified file.
      * 
@@ -29,6 +47,7 @@ public class HeapFile implements DbFile {
         this.f = f;
         this.tableid = f.getAbsoluteFile().hashCode();
         this.td = td;
+        this.allocator = new PageAllocator(f, 0);
     }
 
     /**
@@ -62,101 +81,233 @@ public class HeapFile implements DbFile {
         return td;
     }
 
+    /**
+     * Opens the channel backing this HeapFile. Called by the Catalog when the
+     * table is added; reopening an already open file is a no-op.
+     */
+    public synchronized void open() throws IOException {
+        if (mapped != null)
+            mapped.open();
+        if (channel != null && channel.isOpen())
+            return;
+        raf = new RandomAccessFile(f, "rw");
+        channel = raf.getChannel();
+    }
+
+    /**
+     * Closes the channel backing this HeapFile. Called by the Catalog when the
+     * table is removed. A closed HeapFile transparently reopens itself on the
+     * next page access.
+     */
+    public synchronized void close() throws IOException {
+        if (freeSpace != null) {
+            freeSpace.save();
+            freeSpace = null;
+        }
+        if (mapped != null)
+            mapped.close();
+        if (raf != null) {
+            if (channel.isOpen())
+                allocator.trim(channel);
+            raf.close();
+        }
+        raf = null;
+        channel = null;
+    }
+
+    /**
+     * Returns the open channel for this file, opening it if needed (e.g. if
+     * the HeapFile was never added to the Catalog, or the channel was closed
+     * by an interrupted reader).
+     */
+    FileChannel getChannel() throws IOException {
+        FileChannel fc = channel;
+        if (fc != null && fc.isOpen())
+            return fc;
+        synchronized (this) {
+            open();
+            return channel;
+        }
+    }
+
+    /**
+     * Enables or disables the memory-mapped scan mode.  When enabled, pages
+     * are built directly from read-only mappings of the data file, so large
+     * scans are served from the OS page cache without copying each page
+     * through a read() call.  Writes still go through the file channel.
+     * Intended for large, read-mostly tables.
+     */
+    public synchronized void setMemoryMapped(boolean on) throws IOException {
+        if (on && mapped == null) {
+            mapped = new MappedRegions(f, 0, BufferPool.getPageSize());
+        } else if (!on && mapped != null) {
+            mapped.close();
+            mapped = null;
+        }
+    }
+
+    /** @return true if this file is read through memory-mapped regions */
+    public boolean isMemoryMapped() {
+        return mapped != null;
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         HeapPageId id = (HeapPageId) pid;
-        BufferedInputStream bis = null;
+        int pageSize = BufferPool.getPageSize();
+        long pageOffset = (long) id.pageNumber() * pageSize;
+
+        // the file may extend past its last page with preallocated space
+        if (id.pageNumber() >= numPages())
+            throw new IllegalArgumentException("Read past end of table");
 
         try {
-            bis = new BufferedInputStream(new FileInputStream(f));
-            byte pageBuf[] = new byte[BufferPool.getPageSize()];
-            if (bis.skip(id.pageNumber() * BufferPool.getPageSize()) != id
-                    .pageNumber() * BufferPool.getPageSize()) {
-                throw new IllegalArgumentException(
-                        "Unable to seek to correct place in heapfile");
-            }
-            int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-            if (retval == -1) {
-                throw new IllegalArgumentException("Read past end of table");
-            }
-            if (retval < BufferPool.getPageSize()) {
-                throw new IllegalArgumentException("Unable to read "
-                        + BufferPool.getPageSize() + " bytes from heapfile");
+            MappedRegions m = mapped;
+            if (m != null && m.getPageSize() == pageSize) {
+                ByteBuffer view = m.page(id.pageNumber());
+                if (view != null) {
+                    Debug.log(1, "HeapFile.readPage: mapped page %d", id.pageNumber());
+                    return createPage(id, view);
+                }
             }
+
+            byte pageBuf[] = new byte[pageSize];
+            readFully(ByteBuffer.wrap(pageBuf), pageOffset);
             Debug.log(1, "HeapFile.readPage: read page %d", id.pageNumber());
-            HeapPage p = new HeapPage(id, pageBuf);
-            return p;
+            return createPage(id, ByteBuffer.wrap(pageBuf));
         } catch (IOException e) {
             throw new RuntimeException(e);
-        } finally {
-            // Close the file on success or error
-            try {
-                if (bis != null)
-                    bis.close();
-            } catch (IOException ioe) {
-                // Ignore failures closing the file
-            }
         }
     }
 
+    /**
+     * Builds a page of this file from the bytes read from disk.  Subclasses
+     * storing their tuples in another page format override this.
+     */
+    TuplePage createPage(HeapPageId id, ByteBuffer data) throws IOException {
+        return new HeapPage(id, data);
+    }
+
+    // see PageDecoder.java for javadocs
+    public Page decodePage(PageId pid, ByteBuffer data) throws IOException {
+        return createPage((HeapPageId) pid, data);
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2
-    	PageId pid = page.getId();
-    	long pageOffset = pid.pageNumber() * BufferPool.getPageSize();
-        RandomAccessFile rf = new RandomAccessFile(this.f, "rw");
-        rf.seek(pageOffset);
-        rf.write(page.getPageData());
-        rf.close();
-    	
+        PageId pid = page.getId();
+        long pageOffset = (long) pid.pageNumber() * BufferPool.getPageSize();
+        writeFully(ByteBuffer.wrap(page.getPageData()), pageOffset);
+        allocator.written(pid.pageNumber());
+    }
+
+    // see PageBatchWriter.java for javadocs
+    public void writePages(List<Page> pages, boolean force) throws IOException {
+        FileChannel fc = getChannel();
+        int pageSize = BufferPool.getPageSize();
+        int i = 0;
+        while (i < pages.size()) {
+            int end = PageBatchWriter.runEnd(pages, i);
+            ByteBuffer[] run = new ByteBuffer[end - i];
+            for (int j = i; j < end; j++)
+                run[j - i] = ByteBuffer.wrap(pages.get(j).getPageData());
+            int first = pages.get(i).getId().pageNumber();
+            PageBatchWriter.writeRun(fc, run, (long) first * pageSize);
+            allocator.written(first + run.length - 1);
+            i = end;
+        }
+        if (force)
+            fc.force(false);
+    }
+
+    /**
+     * Positional read filling the whole buffer from the given file offset.
+     *
+     * @throws IllegalArgumentException if the file ends first
+     */
+    void readFully(ByteBuffer bb, long offset) throws IOException {
+        FileChannel fc = getChannel();
+        int len = bb.remaining();
+        while (bb.hasRemaining()) {
+            int retval = fc.read(bb, offset + bb.position());
+            if (retval == -1) {
+                if (bb.position() == 0)
+                    throw new IllegalArgumentException("Read past end of table");
+                throw new IllegalArgumentException("Unable to read "
+                        + len + " bytes from heapfile");
+            }
+        }
+    }
+
+    /** Positional write of the whole buffer at the given file offset. */
+    void writeFully(ByteBuffer bb, long offset) throws IOException {
+        FileChannel fc = getChannel();
+        while (bb.hasRemaining()) {
+            fc.write(bb, offset + bb.position());
+        }
     }
 
     /**
      * Returns the number of pages in this HeapFile.
      */
     public int numPages() {
-        // XXX: this seems to be rounding it down. isn't that wrong?
-        // XXX: (marcua) no - we only ever write full pages
-        return (int) (f.length() / BufferPool.getPageSize());
+        return allocator.numPages();
+    }
+
+    // see DbFile.java for javadocs
+    public int allocatePage() throws IOException {
+        return allocator.allocate(getChannel());
+    }
+
+    /**
+     * Returns the map of pages that may have free slots, loading it from its
+     * side file if needed.
+     */
+    synchronized FreeSpaceMap getFreeSpaceMap() {
+        if (freeSpace == null)
+            freeSpace = new FreeSpaceMap(f, numPages());
+        return freeSpace;
+    }
+
+    /**
+     * Notes that a page may have free slots again because its changes were
+     * dropped, e.g. when the transaction that filled it aborted.
+     */
+    synchronized void pageRestored(int pgno) {
+        if (freeSpace != null)
+            freeSpace.update(pgno, true);
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
-        // some code goes here
     	ArrayList<Page> modifiedPages = new ArrayList<Page>();
-    	
-    	// iterate through pages of file to find one with empty space 
-    	for (int pgno = 0; pgno < numPages(); pgno++) {
+    	FreeSpaceMap fsm = getFreeSpaceMap();
+
+    	// ask the free space map for a page with room; it is only a hint, so
+    	// a page that turns out to be full is recorded as such and skipped
+    	int pgno;
+    	while ((pgno = fsm.nextFreePage()) != -1 && pgno < numPages()) {
     		HeapPageId pid = new HeapPageId(this.tableid, pgno);
-    		HeapPage currPage  = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
-    		if (currPage.getNumEmptySlots() > 0) {
-//    			availPage = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+    		boolean wasLocked = Database.getBufferPool().holdsLock(tid, pid);
+    		TuplePage currPage  = (TuplePage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+    		if (currPage.hasRoomFor(t)) {
     			currPage.insertTuple(t);
     			modifiedPages.add(currPage);
     			return modifiedPages;
     		}
+    		fsm.update(pgno, false);
+    		// the page was only looked at, so its lock need not be held to commit
+    		if (!wasLocked)
+    			Database.getBufferPool().releasePage(tid, pid);
     	}
     	
-    	synchronized(this) {
-    		BufferedOutputStream bw = new BufferedOutputStream(new FileOutputStream(f, true));
-    		byte[] emptyData = HeapPage.createEmptyPageData();
-    		bw.write(emptyData);
-    		bw.close();
-    	}
-    	
-    	HeapPageId newPageId = new HeapPageId(this.getId(), this.numPages()-1);
-//            HeapPage newPage = (HeapPage)Database.getBufferPool().getPage(tid, newPageId, Permissions.READ_WRITE);
-//            newPage.insertTuple(t);
-//            modifiedPages.add(newPage);
-        HeapPage newHeapPage = (HeapPage) Database.getBufferPool().getPage(tid, newPageId, Permissions.READ_WRITE);
+    	HeapPageId newPageId = new HeapPageId(this.getId(), allocatePage());
+        TuplePage newHeapPage = (TuplePage) Database.getBufferPool().getPage(tid, newPageId, Permissions.READ_WRITE);
         newHeapPage.insertTuple(t);
         modifiedPages.add(newHeapPage);
   
-    
         return modifiedPages;
-        // not necessary for lab1|lab2
     }
 
     // see DbFile.java for javadocs
@@ -167,7 +318,7 @@ public class HeapFile implements DbFile {
     	BufferPool bp = Database.getBufferPool();
     	RecordId rid = t.getRecordId();
     	PageId pid = rid.getPageId();
-    	HeapPage page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+    	TuplePage page = (TuplePage) bp.getPage(tid, pid, Permissions.READ_WRITE);
     	page.deleteTuple(t);
     	modifiedPages.add(page);
 
@@ -177,7 +328,19 @@ public class HeapFile implements DbFile {
 
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
-        return new HeapFileIterator(this, tid);
+        return new HeapFileIterator(this, tid, null);
+    }
+
+    /**
+     * Returns an iterator over the given fields of all tuples in this file.
+     * The returned tuples keep their RecordIds, and fields that are not
+     * requested are not decoded.
+     *
+     * @param columns indices of the fields to return, in output order
+     * @see Tuple#project
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns) {
+        return new HeapFileIterator(this, tid, columns);
     }
 
 }
@@ -192,14 +355,27 @@ class HeapFileIterator extends AbstractDbFileIterator {
 
     TransactionId tid;
     HeapFile hf;
+    ReadAhead readAhead;
+    ScanRing ring; // null if the table is small enough for the pool
+
+    // fields to return, or null for whole tuples
+    int[] columns;
+    TupleDesc projectedTd;
 
-    public HeapFileIterator(HeapFile hf, TransactionId tid) {
+    public HeapFileIterator(HeapFile hf, TransactionId tid, int[] columns) {
         this.hf = hf;
         this.tid = tid;
+        this.readAhead = new ReadAhead(hf.getId());
+        this.columns = columns;
+        if (columns != null)
+            this.projectedTd = hf.getTupleDesc().project(columns);
     }
 
     public void open() throws DbException, TransactionAbortedException {
         curpgno = -1;
+        if (ring != null)
+            Database.getBufferPool().releaseScanRing(ring);
+        ring = Database.getBufferPool().getScanRing(hf.numPages());
     }
 
     @Override
@@ -209,10 +385,18 @@ class HeapFileIterator extends AbstractDbFileIterator {
 
         while (it == null && curpgno < hf.numPages() - 1) {
             curpgno++;
+            readAhead.access(curpgno, hf.numPages());
             HeapPageId curpid = new HeapPageId(hf.getId(), curpgno);
-            HeapPage curp = (HeapPage) Database.getBufferPool().getPage(tid,
-                    curpid, Permissions.READ_ONLY);
-            it = curp.iterator();
+            TuplePage curp;
+            try {
+                curp = (TuplePage) Database.getBufferPool().getPage(tid,
+                        curpid, Permissions.READ_ONLY, ring);
+            } catch (TransactionAbortedException e) {
+                // the scan will not get to the pages read ahead
+                readAhead.cancel();
+                throw e;
+            }
+            it = columns == null ? curp.iterator() : curp.iterator(columns, projectedTd);
             if (!it.hasNext())
                 it = null;
         }
@@ -230,6 +414,10 @@ class HeapFileIterator extends AbstractDbFileIterator {
     public void close() {
         super.close();
         it = null;
+        readAhead.cancel();
+        if (ring != null)
+            Database.getBufferPool().releaseScanRing(ring);
+        ring = null;
         curpgno = Integer.MAX_VALUE;
     }
 }
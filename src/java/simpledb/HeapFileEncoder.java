@@ -1,7 +1,16 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.regex.Pattern;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -223,4 +232,440 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /** Convert the specified tuple list (with only integer fields) into a
+   * binary page file in the SlottedHeapPage format.
+   *
+   * @see #convert(ArrayList, File, int, int)
+   * @see SlottedHeapPage
+   */
+  public static void convertSlotted(ArrayList<ArrayList<Integer>> tuples, File outFile,
+                 int npagebytes, int numFields) throws IOException {
+      convertSlotted(toTextFile(tuples), outFile, npagebytes, numFields,
+                     intTypes(numFields), ',');
+  }
+
+  /** Writes integer tuples to a temporary comma delimited text file. */
+  private static File toTextFile(ArrayList<ArrayList<Integer>> tuples) throws IOException {
+      File tempInput = File.createTempFile("tempTable", ".txt");
+      tempInput.deleteOnExit();
+      BufferedWriter bw = new BufferedWriter(new FileWriter(tempInput));
+      for (ArrayList<Integer> tuple : tuples) {
+          bw.write(Utility.listToString(tuple).replace('\t', ','));
+          bw.write('\n');
+      }
+      bw.close();
+      return tempInput;
+  }
+
+  private static Type[] intTypes(int numFields) {
+      Type[] ts = new Type[numFields];
+      Arrays.fill(ts, Type.INT_TYPE);
+      return ts;
+  }
+
+  /** Parses one line of a text input file into a tuple.
+   *
+   * @return the tuple, or null (after printing a warning) if an int field
+   *   can't be parsed
+   * @throws IOException if the line has too few fields
+   */
+  private static Tuple parseLine(String line, TupleDesc td, String separator)
+      throws IOException {
+      String[] els = line.split(separator, -1);
+      if (els.length < td.numFields())
+          throw new IOException("malformed input line: " + line);
+      Tuple t = new Tuple(td);
+      for (int i = 0; i < td.numFields(); i++) {
+          String s = els[i].trim();
+          if (td.getFieldType(i) == Type.INT_TYPE) {
+              try {
+                  t.setField(i, new IntField(Integer.parseInt(s)));
+              } catch (NumberFormatException e) {
+                  System.out.println ("BAD LINE : " + s);
+                  return null;
+              }
+          } else {
+              t.setField(i, new StringField(s, Type.STRING_LEN));
+          }
+      }
+      return t;
+  }
+
+  /** Convert the specified input text file into a binary page file in the
+   * variable-length SlottedHeapPage format, for use with SlottedHeapFile.
+   * The input format is the same as for
+   * {@link #convert(File, File, int, int, Type[], char)}; records are
+   * packed onto a page until the next one does not fit.
+   *
+   * @see SlottedHeapPage
+   * @see SlottedHeapFile
+   * @param inFile The input file to read data from
+   * @param outFile The output file to write data to
+   * @param npagebytes The number of bytes per page in the output file
+   * @param numFields the number of fields in each input line/output tuple
+   * @param typeAr the types of the fields
+   * @param fieldSeparator the character between fields on a line
+   * @throws IOException if the input/output file can't be opened or a
+   *   malformed input line is encountered
+   */
+  public static void convertSlotted(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      TupleDesc td = new TupleDesc(Arrays.copyOf(typeAr, numFields));
+      String separator = Pattern.quote(String.valueOf(fieldSeparator));
+
+      BufferedReader br = new BufferedReader(new FileReader(inFile));
+      FileOutputStream os = new FileOutputStream(outFile);
+      byte[] page = new byte[npagebytes];
+      boolean pageEmpty = true;
+      int npages = 0;
+
+      try {
+          String line;
+          while ((line = br.readLine()) != null) {
+              if (line.trim().length() == 0)
+                  continue;
+              Tuple t = parseLine(line, td, separator);
+              if (t == null)
+                  continue;
+
+              // start a new page once the current one is full
+              byte[] rec = SlottedHeapPage.encodeRecord(t);
+              if (SlottedHeapPage.addRecord(page, rec) == -1) {
+                  os.write(page);
+                  npages++;
+                  page = new byte[npagebytes];
+                  if (SlottedHeapPage.addRecord(page, rec) == -1)
+                      throw new IOException("record does not fit on a page: " + line);
+              }
+              pageEmpty = false;
+          }
+
+          // flush the last page, or an empty page if the file has no records
+          if (!pageEmpty || npages == 0)
+              os.write(page);
+      } finally {
+          br.close();
+          os.close();
+      }
+  }
+
+  /** Convert the specified tuple list (with only integer fields) into a
+   * binary page file in the columnar PaxHeapPage format.
+   *
+   * @see #convert(ArrayList, File, int, int)
+   * @see PaxHeapPage
+   */
+  public static void convertPax(ArrayList<ArrayList<Integer>> tuples, File outFile,
+                 int npagebytes, int numFields) throws IOException {
+      convertPax(toTextFile(tuples), outFile, npagebytes, numFields,
+                 intTypes(numFields), ',');
+  }
+
+  /** Convert the specified input text file into a binary page file in the
+   * columnar PaxHeapPage format, for use with PaxHeapFile.  The input
+   * format is the same as for
+   * {@link #convert(File, File, int, int, Type[], char)}, and pages hold
+   * as many tuples as the equivalent HeapPages.
+   *
+   * @see PaxHeapPage
+   * @see PaxHeapFile
+   * @param inFile The input file to read data from
+   * @param outFile The output file to write data to
+   * @param npagebytes The number of bytes per page in the output file
+   * @param numFields the number of fields in each input line/output tuple
+   * @param typeAr the types of the fields
+   * @param fieldSeparator the character between fields on a line
+   * @throws IOException if the input/output file can't be opened or a
+   *   malformed input line is encountered
+   */
+  public static void convertPax(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      TupleDesc td = new TupleDesc(Arrays.copyOf(typeAr, numFields));
+      String separator = Pattern.quote(String.valueOf(fieldSeparator));
+      int nslots = PaxHeapPage.getNumSlots(td, npagebytes);
+
+      BufferedReader br = new BufferedReader(new FileReader(inFile));
+      FileOutputStream os = new FileOutputStream(outFile);
+      byte[] page = new byte[npagebytes];
+      int slot = 0;
+      int npages = 0;
+
+      try {
+          String line;
+          while ((line = br.readLine()) != null) {
+              if (line.trim().length() == 0)
+                  continue;
+              Tuple t = parseLine(line, td, separator);
+              if (t == null)
+                  continue;
+
+              if (slot == nslots) {
+                  os.write(page);
+                  npages++;
+                  page = new byte[npagebytes];
+                  slot = 0;
+              }
+              PaxHeapPage.putTuple(page, td, nslots, slot++, t);
+          }
+
+          // flush the last page, or an empty page if the file has no records
+          if (slot > 0 || npages == 0)
+              os.write(page);
+      } finally {
+          br.close();
+          os.close();
+      }
+  }
+
+  /** Size of the input ranges parsed by each task of convertParallel(). */
+  static final int BULK_RANGE_BYTES = 8 << 20;
+
+  /** Convert the specified input text file into a binary HeapPage file,
+   * parsing and encoding it in parallel.  The input format is the same as for
+   * {@link #convert(File, File, int, int, Type[], char)}.
+   * <p>
+   * The input is split into ranges of about {@link #BULK_RANGE_BYTES} bytes
+   * that end on a line boundary.  Each range is parsed into whole pages by a
+   * task on a ForkJoinPool, and the pages of each range are written to the
+   * output file in input order with one large FileChannel write.  At most
+   * two ranges per thread are in flight at a time, so memory use does not
+   * depend on the size of the input.  Since each range starts a new page,
+   * the last page of every range may be partly empty; the output is
+   * otherwise the same as that of convert().
+   *
+   * @see #bulkLoad
+   * @param inFile The input file to read data from
+   * @param outFile The output file to write data to
+   * @param npagebytes The number of bytes per page in the output file
+   * @param typeAr the types of the fields of each input line/output tuple
+   * @param fieldSeparator the character between fields on a line
+   * @param parallelism the number of threads parsing the input
+   * @throws IOException if the input/output file can't be opened or a
+   *   malformed input line is encountered
+   */
+  public static void convertParallel(File inFile, File outFile, int npagebytes,
+                 Type[] typeAr, char fieldSeparator, int parallelism)
+      throws IOException {
+      convertParallel(inFile, outFile, npagebytes, typeAr, fieldSeparator,
+                      parallelism, BULK_RANGE_BYTES);
+  }
+
+  static void convertParallel(File inFile, File outFile, int npagebytes,
+                 Type[] typeAr, char fieldSeparator, int parallelism, int rangeBytes)
+      throws IOException {
+      TupleDesc td = new TupleDesc(typeAr);
+      int window = 2 * parallelism;
+      ForkJoinPool pool = new ForkJoinPool(parallelism);
+      RandomAccessFile in = new RandomAccessFile(inFile, "r");
+      RandomAccessFile out = new RandomAccessFile(outFile, "rw");
+      try {
+          FileChannel inChannel = in.getChannel();
+          FileChannel outChannel = out.getChannel();
+          outChannel.truncate(0);
+          long size = inChannel.size();
+          long pos = 0;
+          long outPos = 0;
+          ArrayDeque<ForkJoinTask<byte[]>> inFlight = new ArrayDeque<ForkJoinTask<byte[]>>();
+
+          while (pos < size || !inFlight.isEmpty()) {
+              while (pos < size && inFlight.size() < window) {
+                  long end = nextLineStart(inChannel, pos + rangeBytes);
+                  inFlight.add(pool.submit(new EncodeRange(inChannel, pos, end,
+                                                           td, npagebytes, fieldSeparator)));
+                  pos = end;
+              }
+              ByteBuffer pages = ByteBuffer.wrap(waitFor(inFlight.poll()));
+              while (pages.hasRemaining())
+                  outPos += outChannel.write(pages, outPos);
+          }
+
+          // if this file is empty, do write an empty page
+          if (outPos == 0) {
+              ByteBuffer page = ByteBuffer.allocate(npagebytes);
+              while (page.hasRemaining())
+                  outChannel.write(page, page.position());
+          }
+      } finally {
+          pool.shutdownNow();
+          in.close();
+          out.close();
+      }
+  }
+
+  /** Converts the specified input text file into a HeapFile with
+   * {@link #convertParallel} on all available processors, and adds the new
+   * table to the Catalog.  The tuples are written straight to the data
+   * file; nothing goes through the BufferPool.
+   *
+   * @param inFile The input file to read data from
+   * @param outFile The data file of the new table
+   * @param td the TupleDesc of the new table
+   * @param fieldSeparator the character between fields on a line
+   * @param name the name of the new table
+   * @return the new table
+   * @throws IOException if the input/output file can't be opened or a
+   *   malformed input line is encountered
+   */
+  public static HeapFile bulkLoad(File inFile, File outFile, TupleDesc td,
+                 char fieldSeparator, String name) throws IOException {
+      Type[] typeAr = new Type[td.numFields()];
+      for (int i = 0; i < typeAr.length; i++)
+          typeAr[i] = td.getFieldType(i);
+      convertParallel(inFile, outFile, BufferPool.getPageSize(), typeAr, fieldSeparator,
+                      Runtime.getRuntime().availableProcessors());
+      // a free-space map left over from an earlier table is stale
+      new File(outFile.getPath() + ".fsm").delete();
+      HeapFile hf = new HeapFile(outFile, td);
+      Database.getCatalog().addTable(hf, name);
+      return hf;
+  }
+
+  private static byte[] waitFor(ForkJoinTask<byte[]> task) throws IOException {
+      try {
+          return task.get();
+      } catch (InterruptedException e) {
+          throw new InterruptedIOException("bulk load interrupted");
+      } catch (ExecutionException e) {
+          if (e.getCause() instanceof UncheckedIOException)
+              throw ((UncheckedIOException) e.getCause()).getCause();
+          throw new RuntimeException(e.getCause());
+      }
+  }
+
+  /** @return the offset just past the first newline at or after pos, or the
+   *   end of the file */
+  private static long nextLineStart(FileChannel fc, long pos) throws IOException {
+      long size = fc.size();
+      ByteBuffer buf = ByteBuffer.allocate(4096);
+      while (pos < size) {
+          buf.clear();
+          int n = fc.read(buf, pos);
+          if (n <= 0)
+              break;
+          for (int i = 0; i < n; i++) {
+              if (buf.get(i) == '\n')
+                  return pos + i + 1;
+          }
+          pos += n;
+      }
+      return size;
+  }
+
+  /**
+   * Parses the lines in one range of a text input file into HeapPages.
+   */
+  private static class EncodeRange extends RecursiveTask<byte[]> {
+      private static final long serialVersionUID = 1L;
+
+      private final FileChannel in;
+      private final long start, end;
+      private final TupleDesc td;
+      private final int npagebytes;
+      private final char separator;
+
+      EncodeRange(FileChannel in, long start, long end, TupleDesc td,
+                  int npagebytes, char separator) {
+          this.in = in;
+          this.start = start;
+          this.end = end;
+          this.td = td;
+          this.npagebytes = npagebytes;
+          this.separator = separator;
+      }
+
+      @Override
+      protected byte[] compute() {
+          try {
+              return encode(read());
+          } catch (IOException e) {
+              throw new UncheckedIOException(e);
+          }
+      }
+
+      private byte[] read() throws IOException {
+          ByteBuffer buf = ByteBuffer.allocate((int) (end - start));
+          while (buf.hasRemaining()) {
+              if (in.read(buf, start + buf.position()) == -1)
+                  throw new EOFException("input file changed during bulk load");
+          }
+          return buf.array();
+      }
+
+      private byte[] encode(byte[] text) throws IOException {
+          int nrecbytes = td.getSize();
+          int nrecords = (npagebytes * 8) / (nrecbytes * 8 + 1);
+          int nheaderbytes = (nrecords + 7) / 8;
+
+          ByteArrayOutputStream pages = new ByteArrayOutputStream(text.length);
+          ByteBuffer page = ByteBuffer.allocate(npagebytes);
+          int recordcount = 0;
+          int lineStart = 0;
+          while (lineStart < text.length) {
+              int lineEnd = lineStart;
+              while (lineEnd < text.length && text[lineEnd] != '\n')
+                  lineEnd++;
+              int len = lineEnd - lineStart;
+              // Ignore Windows/Notepad special line endings
+              if (len > 0 && text[lineEnd - 1] == '\r')
+                  len--;
+              String line = new String(text, lineStart, len);
+              lineStart = lineEnd + 1;
+              if (line.trim().length() == 0)
+                  continue;
+
+              int slotStart = nheaderbytes + recordcount * nrecbytes;
+              page.position(slotStart);
+              if (!encodeLine(line, page)) {
+                  Arrays.fill(page.array(), slotStart, slotStart + nrecbytes, (byte) 0);
+                  continue;
+              }
+              page.put(recordcount / 8, (byte) (page.get(recordcount / 8) | (1 << (recordcount % 8))));
+              if (++recordcount == nrecords) {
+                  pages.write(page.array(), 0, npagebytes);
+                  page = ByteBuffer.allocate(npagebytes);
+                  recordcount = 0;
+              }
+          }
+          if (recordcount > 0)
+              pages.write(page.array(), 0, npagebytes);
+          return pages.toByteArray();
+      }
+
+      /** Writes the fields of one line at the position of page.
+       * @return false (after printing a warning) if an int field can't be
+       *   parsed */
+      private boolean encodeLine(String line, ByteBuffer page) throws IOException {
+          int fieldStart = 0;
+          for (int i = 0; i < td.numFields(); i++) {
+              if (fieldStart > line.length())
+                  throw new IOException("malformed input line: " + line);
+              int fieldEnd = line.indexOf(separator, fieldStart);
+              if (fieldEnd == -1)
+                  fieldEnd = line.length();
+              String s = line.substring(fieldStart, fieldEnd).trim();
+              fieldStart = fieldEnd + 1;
+
+              if (td.getFieldType(i) == Type.INT_TYPE) {
+                  try {
+                      page.putInt(Integer.parseInt(s));
+                  } catch (NumberFormatException e) {
+                      System.out.println ("BAD LINE : " + s);
+                      return false;
+                  }
+              } else {
+                  if (s.length() > Type.STRING_LEN)
+                      s = s.substring(0, Type.STRING_LEN);
+                  page.putInt(s.length());
+                  // as DataOutputStream.writeBytes, followed by zero padding
+                  for (int j = 0; j < s.length(); j++)
+                      page.put((byte) s.charAt(j));
+                  page.position(page.position() + Type.STRING_LEN - s.length());
+              }
+          }
+          return true;
+      }
+  }
 }
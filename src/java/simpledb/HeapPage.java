@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and
@@ -11,18 +12,19 @@ import java.io.*;
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements TuplePage {
 
     final HeapPageId pid;
     final TupleDesc td;
     final byte header[];
     final Tuple tuples[];
+    final byte data[];
     final int numSlots;
     protected volatile boolean dirty = false;
     protected volatile TransactionId dirtier = null;
 
     byte[] oldData;
-    private final Byte oldDataLock = new Byte((byte) 0);
+    private final Object oldDataLock = new Object();
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -44,27 +46,51 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage directly from a buffer holding the page's bytes, such
+     * as a view of a memory-mapped data file.  The buffer is read from its
+     * current position.  A buffer wrapping a whole page-sized array keeps
+     * that array; any other buffer is copied once and not retained.
+     * <p>
+     * Records are not decoded here.  The page keeps its raw bytes, which
+     * also serve as the before-image, and a tuple (and each of its fields)
+     * is only built from them when it is first accessed.  The bytes must
+     * not be modified while the page is in use.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i = 0; i < header.length; i++)
-            header[i] = dis.readByte();
+        this.data = rawBytes(data);
 
+        // the header is modified in place, so it gets its own copy
+        header = Arrays.copyOf(this.data, getHeaderSize());
         tuples = new Tuple[numSlots];
-        try {
-            // allocate and read the actual records of this page
-            for (int i = 0; i < tuples.length; i++)
-                tuples[i] = readNextTuple(dis, i);
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
+
+        synchronized (oldDataLock) {
+            oldData = this.data;
         }
-        dis.close();
+    }
 
-        setBeforeImage();
+    /**
+     * Returns the page-sized array behind data, or a copy of its bytes if it
+     * is not simply a wrapped array.
+     */
+    static byte[] rawBytes(ByteBuffer data) throws IOException {
+        int len = BufferPool.getPageSize();
+        if (data.hasArray() && data.arrayOffset() == 0 && data.position() == 0
+                && data.array().length == len)
+            return data.array();
+        if (data.remaining() < len)
+            throw new EOFException("page data is shorter than the page size");
+        byte[] copy = new byte[len];
+        data.duplicate().get(copy);
+        return copy;
     }
 
     /**
@@ -97,6 +123,13 @@ public class HeapPage implements Page {
 
     }
 
+    /**
+     * @return the offset of the given slot's record within the page data
+     */
+    private int getSlotOffset(int slot) {
+        return header.length + slot * td.getSize();
+    }
+
     /**
      * Return a view of this page before it was modified
      * -- used by recovery
@@ -117,8 +150,9 @@ public class HeapPage implements Page {
     }
 
     public void setBeforeImage() {
+        byte[] newData = getPageData();
         synchronized (oldDataLock) {
-            oldData = getPageData().clone();
+            oldData = newData;
         }
     }
 
@@ -129,40 +163,6 @@ public class HeapPage implements Page {
         return pid;
     }
 
-    /**
-     * Suck up tuples from the source file.
-     */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i = 0; i < td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
-
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
-        }
-
-        return t;
-    }
-
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -174,7 +174,7 @@ public class HeapPage implements Page {
      * @see #HeapPage
      * @return A byte array correspond to the bytes of this page.
      */
-    public byte[] getPageData() {
+    public synchronized byte[] getPageData() {
         int len = BufferPool.getPageSize();
         ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
         DataOutputStream dos = new DataOutputStream(baos);
@@ -205,6 +205,16 @@ public class HeapPage implements Page {
                 continue;
             }
 
+            // non-empty slot that was never touched: copy its raw bytes
+            if (tuples[i] == null) {
+                try {
+                    dos.write(data, getSlotOffset(i), td.getSize());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
+
             // non-empty slot
             for (int j = 0; j < td.numFields(); j++) {
                 Field f = tuples[i].getField(j);
@@ -259,7 +269,7 @@ public class HeapPage implements Page {
      *                     already empty.
      * @param t The tuple to delete
      */
-    public void deleteTuple(Tuple t) throws DbException {
+    public synchronized void deleteTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1|lab2
         RecordId rid = t.getRecordId();
@@ -270,6 +280,7 @@ public class HeapPage implements Page {
         if (!isSlotUsed(rid.tupleno()))
             throw new DbException("tried to delete null tuple.");
         markSlotUsed(rid.tupleno(), false);
+        updateFreeSpaceMap(true);
     }
 
     /**
@@ -280,7 +291,7 @@ public class HeapPage implements Page {
      *                     is mismatch.
      * @param t The tuple to add.
      */
-    public void insertTuple(Tuple t) throws DbException {
+    public synchronized void insertTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1|lab2
         if (!t.getTupleDesc().equals(td))
@@ -301,6 +312,22 @@ public class HeapPage implements Page {
         RecordId rid = new RecordId(pid, emptySlot);
         t.setRecordId(rid);
         tuples[emptySlot] = t;
+
+        // emptySlot was the first free slot, so look only past it
+        boolean hasFreeSlot = false;
+        for (int i = emptySlot + 1; i < numSlots && !hasFreeSlot; i++)
+            hasFreeSlot = !isSlotUsed(i);
+        updateFreeSpaceMap(hasFreeSlot);
+    }
+
+    /**
+     * Tells the free space map of the HeapFile this page belongs to whether
+     * the page has a free slot.
+     */
+    private void updateFreeSpaceMap(boolean hasFreeSlot) {
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        if (file instanceof HeapFile)
+            ((HeapFile) file).getFreeSpaceMap().update(pid.pageNumber(), hasFreeSlot);
     }
 
     /**
@@ -328,6 +355,17 @@ public class HeapPage implements Page {
             return null;
     }
 
+    /**
+     * Returns true if this page has an empty slot; all tuples are the same
+     * size.
+     */
+    public boolean hasRoomFor(Tuple t) {
+        for (int i = 0; i < numSlots; i++)
+            if (!isSlotUsed(i))
+                return true;
+        return false;
+    }
+
     /**
      * Returns the number of empty slots on this page.
      */
@@ -372,6 +410,14 @@ public class HeapPage implements Page {
         return new HeapPageIterator(this);
     }
 
+    /**
+     * @return an iterator over the given fields of the tuples on this page;
+     *         the other fields are never decoded
+     */
+    public Iterator<Tuple> iterator(int[] columns, TupleDesc td) {
+        return new ProjectingIterator(iterator(), columns, td);
+    }
+
     // protected method used by the iterator to get the ith tuple
     // out of this page
     Tuple getTuple(int i) throws NoSuchElementException {
@@ -386,7 +432,14 @@ public class HeapPage implements Page {
             }
 
             Debug.log(1, "HeapPage.getTuple: returning tuple %d", i);
-            return tuples[i];
+            Tuple t = tuples[i];
+            if (t == null) {
+                // first access: wrap the slot's bytes, decoding nothing yet
+                t = new Tuple(td, data, getSlotOffset(i));
+                t.setRecordId(new RecordId(pid, i));
+                tuples[i] = t;
+            }
+            return t;
 
         } catch (ArrayIndexOutOfBoundsException e) {
             throw new NoSuchElementException();
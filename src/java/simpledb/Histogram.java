@@ -0,0 +1,90 @@
+package simpledb;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram counts non-negative values in buckets whose bounds grow by
+ * powers of two: bucket i counts the values below 2^i.  Recording a value is
+ * an increment of two striped counters, so it can be done on hot paths
+ * without contention; percentiles are only as precise as the bucket bounds.
+ *
+ * @see LatencyHistogram
+ * @Threadsafe
+ */
+public class Histogram {
+
+    /** Number of buckets; bucket i counts values below 2^i. */
+    static final int BUCKETS = 32;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder total = new LongAdder();
+
+    public Histogram() {
+        for (int i = 0; i < BUCKETS; i++)
+            buckets[i] = new LongAdder();
+    }
+
+    /** Records a value. */
+    public void record(long value) {
+        record(value, value);
+    }
+
+    /**
+     * Counts a value in its bucket, adding amount to the total the mean is
+     * computed from.
+     */
+    protected void record(long value, long amount) {
+        int b = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(Math.max(0, value)));
+        buckets[b].increment();
+        total.add(amount);
+    }
+
+    /** @return the number of values recorded */
+    public long getCount() {
+        long n = 0;
+        for (LongAdder b : buckets)
+            n += b.sum();
+        return n;
+    }
+
+    /** @return the mean of the totals of the values recorded */
+    public double getMean() {
+        long n = getCount();
+        return n == 0 ? 0 : (double) total.sum() / n;
+    }
+
+    /**
+     * @param p the percentile, between 0 and 100
+     * @return an upper bound of the p-th percentile value
+     */
+    public long getPercentile(double p) {
+        long[] counts = new long[BUCKETS];
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            n += counts[i];
+        }
+        if (n == 0)
+            return 0;
+        long rank = (long) Math.ceil(p / 100 * n);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return 1L << i;
+        }
+        return 1L << (BUCKETS - 1);
+    }
+
+    /** Clears the histogram. */
+    public void reset() {
+        for (LongAdder b : buckets)
+            b.reset();
+        total.reset();
+    }
+
+    public String toString() {
+        return String.format("n=%d mean=%.1f p50<=%d p99<=%d", getCount(), getMean(),
+                getPercentile(50), getPercentile(99));
+    }
+}
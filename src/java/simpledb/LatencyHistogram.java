@@ -0,0 +1,34 @@
+package simpledb;
+
+/**
+ * LatencyHistogram is a {@link Histogram} of durations, bucketed by the
+ * microsecond from under 1 us up to about 35 minutes.  The mean is kept at
+ * nanosecond precision.
+ *
+ * @Threadsafe
+ */
+public class LatencyHistogram extends Histogram {
+
+    /** Records a duration, in ns. */
+    public void record(long nanos) {
+        record(nanos / 1000, nanos);
+    }
+
+    /** @return the mean duration, in us */
+    public double getMeanMicros() {
+        return getMean() / 1000;
+    }
+
+    /**
+     * @param p the percentile, between 0 and 100
+     * @return an upper bound of the p-th percentile duration, in us
+     */
+    public long getPercentileMicros(double p) {
+        return getPercentile(p);
+    }
+
+    public String toString() {
+        return String.format("n=%d mean=%.1fus p50<=%dus p99<=%dus", getCount(), getMeanMicros(),
+                getPercentileMicros(50), getPercentileMicros(99));
+    }
+}
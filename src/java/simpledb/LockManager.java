@@ -0,0 +1,273 @@
+package simpledb;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LockManager implements the page-level shared/exclusive locks of strict
+ * two-phase locking for the BufferPool.  A transaction may hold a shared
+ * lock on a page together with other transactions, or an exclusive lock on
+ * its own; a transaction that is the only holder of a shared lock can
+ * upgrade it to an exclusive one.  Locks are held until the BufferPool
+ * releases them, normally all at once in transactionComplete().
+ * <p>
+ * There is no global lock: the lock table is a concurrent hash map with one
+ * lock object per page, and each request only synchronizes on the lock
+ * object of its own page.  Requests that have to wait are reported to a
+ * {@link DeadlockDetector}, which aborts one transaction of each waits-for
+ * cycle.  Waiters report their edges again whenever they wake up, which
+ * includes every time a lock they wait for gets another holder, so a cycle
+ * through a holder that came after them is found too.  A transaction
+ * otherwise waits as long as it takes; an optional lock timeout can still
+ * be set as a safety net.
+ *
+ * @Threadsafe
+ */
+class LockManager {
+
+    /**
+     * Default time a transaction waits for a lock before aborting, in ms;
+     * 0 waits until the lock is granted or a deadlock is found.  Can be
+     * overridden with the simpledb.lock.timeout system property.
+     */
+    static final long DEFAULT_TIMEOUT = Long.getLong("simpledb.lock.timeout", 0);
+
+    /** The lock on one page; guarded by itself. */
+    private static class PageLock {
+        final Set<TransactionId> shared = new HashSet<TransactionId>();
+        TransactionId exclusive = null;
+        int waiters = 0;
+        boolean retired = false; // removed from the lock table
+
+        boolean isFree() {
+            return exclusive == null && shared.isEmpty();
+        }
+
+        boolean canGrant(TransactionId tid, boolean wantExclusive) {
+            if (exclusive != null)
+                return exclusive.equals(tid);
+            if (!wantExclusive)
+                return true;
+            return shared.isEmpty() || (shared.size() == 1 && shared.contains(tid));
+        }
+
+        /** @return the holders tid waits for if it cannot be granted */
+        Set<TransactionId> blockers(TransactionId tid) {
+            Set<TransactionId> b = new HashSet<TransactionId>();
+            if (exclusive != null)
+                b.add(exclusive);
+            else
+                b.addAll(shared);
+            b.remove(tid);
+            return b;
+        }
+    }
+
+    private final ConcurrentHashMap<PageId, PageLock> locks = new ConcurrentHashMap<PageId, PageLock>();
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> held =
+            new ConcurrentHashMap<TransactionId, Set<PageId>>();
+    private final DeadlockDetector detector = new DeadlockDetector();
+    private volatile long timeout = DEFAULT_TIMEOUT;
+
+    private final AtomicLong waits = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+
+    /**
+     * Sets the time a transaction waits for a lock before aborting, in ms;
+     * 0 disables the timeout.
+     */
+    public void setTimeout(long ms) {
+        this.timeout = ms;
+    }
+
+    /**
+     * Acquires a lock on a page, blocking until it can be granted.  Asking
+     * for a lock the transaction already holds (or a shared lock while it
+     * holds an exclusive one) returns immediately.
+     *
+     * @param exclusive true for an exclusive lock, false for a shared one
+     * @throws TransactionAbortedException if the transaction was chosen as
+     *   the victim of a deadlock, or the lock was not granted within the lock
+     *   timeout
+     */
+    public void acquire(TransactionId tid, PageId pid, boolean exclusive)
+            throws TransactionAbortedException {
+        long start = 0;
+        boolean granted = false;
+        try {
+            while (true) {
+                PageLock lock = locks.get(pid);
+                if (lock == null) {
+                    PageLock created = new PageLock();
+                    lock = locks.putIfAbsent(pid, created);
+                    if (lock == null)
+                        lock = created;
+                }
+                Object wake = null;
+                synchronized (lock) {
+                    if (lock.retired)
+                        continue; // released and dropped meanwhile; look it up again
+                    if (lock.canGrant(tid, exclusive)) {
+                        boolean newHolder;
+                        if (exclusive) {
+                            newHolder = !lock.shared.remove(tid) && !tid.equals(lock.exclusive);
+                            lock.exclusive = tid;
+                        } else {
+                            newHolder = lock.exclusive == null && lock.shared.add(tid);
+                        }
+                        if (newHolder && lock.waiters > 0) {
+                            // the waiters now also wait for tid; wake them so
+                            // they report the new edge to the detector
+                            lock.notifyAll();
+                        }
+                        granted = true;
+                        break;
+                    }
+
+                    if (start == 0) {
+                        start = System.nanoTime();
+                        waits.incrementAndGet();
+                    }
+                    TransactionId victim = detector.waitFor(tid, lock.blockers(tid), lock);
+                    if (tid.equals(victim))
+                        throw new TransactionAbortedException();
+                    if (victim != null) {
+                        // wake the victim up once this monitor is released
+                        wake = detector.getMonitor(victim);
+                    } else {
+                        waitForRelease(lock, start);
+                    }
+                }
+                if (wake != null) {
+                    synchronized (wake) {
+                        wake.notifyAll();
+                    }
+                }
+            }
+        } finally {
+            if (start != 0) {
+                // stop waiting, whether granted, a victim or timed out
+                if (granted)
+                    detector.granted(tid);
+                else
+                    detector.aborted(tid);
+                waitNanos.addAndGet(System.nanoTime() - start);
+            }
+        }
+        lockedPages(tid, true).add(pid);
+    }
+
+    /**
+     * Waits on a lock's monitor until it is notified, i.e. until the lock is
+     * released or this transaction is chosen as a deadlock victim.
+     */
+    private void waitForRelease(PageLock lock, long start) throws TransactionAbortedException {
+        long t = timeout;
+        long remaining = 0;
+        if (t > 0) {
+            remaining = t - (System.nanoTime() - start) / 1000000;
+            if (remaining <= 0)
+                throw new TransactionAbortedException();
+        }
+        lock.waiters++;
+        try {
+            lock.wait(remaining);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TransactionAbortedException();
+        } finally {
+            lock.waiters--;
+        }
+    }
+
+    private Set<PageId> lockedPages(TransactionId tid, boolean create) {
+        Set<PageId> pids = held.get(tid);
+        if (pids == null && create) {
+            Set<PageId> created = Collections.newSetFromMap(new ConcurrentHashMap<PageId, Boolean>());
+            pids = held.putIfAbsent(tid, created);
+            if (pids == null)
+                pids = created;
+        }
+        return pids;
+    }
+
+    /** @return true if the transaction holds a lock of any mode on the page */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        Set<PageId> pids = held.get(tid);
+        return pids != null && pids.contains(pid);
+    }
+
+    /** @return true if the transaction holds an exclusive lock on the page */
+    public boolean holdsExclusive(TransactionId tid, PageId pid) {
+        PageLock lock = locks.get(pid);
+        if (lock == null)
+            return false;
+        synchronized (lock) {
+            return tid.equals(lock.exclusive);
+        }
+    }
+
+    /**
+     * @return the pages the transaction holds locks on; the set is live and
+     *   must not be modified
+     */
+    public Set<PageId> getLockedPages(TransactionId tid) {
+        Set<PageId> pids = held.get(tid);
+        return pids == null ? Collections.<PageId>emptySet() : Collections.unmodifiableSet(pids);
+    }
+
+    /** Releases the lock the transaction holds on the page, if any. */
+    public void release(TransactionId tid, PageId pid) {
+        Set<PageId> pids = held.get(tid);
+        if (pids != null)
+            pids.remove(pid);
+        unlock(tid, pid);
+    }
+
+    /** Releases all locks held by the transaction. */
+    public void releaseAll(TransactionId tid) {
+        detector.forget(tid);
+        Set<PageId> pids = held.remove(tid);
+        if (pids == null)
+            return;
+        for (PageId pid : pids)
+            unlock(tid, pid);
+    }
+
+    /** @return the number of deadlocks found */
+    public long getDeadlockCount() {
+        return detector.getDeadlockCount();
+    }
+
+    /** @return the number of transactions aborted to break deadlocks */
+    public long getVictimCount() {
+        return detector.getVictimCount();
+    }
+
+    /** @return the average time lock requests that had to wait waited, in ns */
+    public long getAverageWaitNanos() {
+        long n = waits.get();
+        return n == 0 ? 0 : waitNanos.get() / n;
+    }
+
+    private void unlock(TransactionId tid, PageId pid) {
+        PageLock lock = locks.get(pid);
+        if (lock == null)
+            return;
+        synchronized (lock) {
+            if (tid.equals(lock.exclusive))
+                lock.exclusive = null;
+            lock.shared.remove(tid);
+            if (lock.waiters > 0) {
+                lock.notifyAll();
+            } else if (lock.isFree()) {
+                // keep the lock table from growing with every page ever locked
+                lock.retired = true;
+                locks.remove(pid, lock);
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LogBuffer is the in-memory tail of a LogFile: a preallocated direct
+ * ByteBuffer used as a ring, addressed by log sequence number (LSN), the
+ * byte offset of a record in the log.
+ * <p>
+ * Appending a record takes no lock.  A writer reserves the bytes of its
+ * record by advancing the reserved LSN with a compare-and-set, copies the
+ * record into its slot in parallel with the other writers, and then
+ * publishes it once all records before it are published.  The published
+ * prefix of the log is written to the file in large sequential writes,
+ * by whoever flushes the log; a writer that finds the ring full flushes it
+ * itself.
+ *
+ * @Threadsafe
+ */
+class LogBuffer {
+
+    /**
+     * Default size of the buffer, in bytes.  Can be overridden with the
+     * simpledb.logbuffer.bytes system property.
+     */
+    static final int DEFAULT_CAPACITY = Integer.getInteger("simpledb.logbuffer.bytes", 1 << 20);
+
+    private final ByteBuffer buf;
+    private final int capacity;
+
+    private final AtomicLong reserved; // the LSN of the next record
+    private final AtomicLong filled; // the bytes below are published
+    private volatile long written; // the bytes below are in the file; written under this
+
+    /**
+     * @param capacity the size of the buffer, in bytes
+     * @param start the LSN of the first record to append
+     */
+    LogBuffer(int capacity, long start) {
+        this.capacity = capacity;
+        this.buf = ByteBuffer.allocateDirect(capacity);
+        this.reserved = new AtomicLong(start);
+        this.filled = new AtomicLong(start);
+        this.written = start;
+    }
+
+    /**
+     * Reserves space for a record, flushing the log while the buffer is
+     * full.
+     *
+     * @return the LSN of the record
+     * @throws IOException if the record is larger than the buffer, or
+     *   flushing the log failed
+     */
+    long reserve(int len, LogFile log) throws IOException {
+        if (len > capacity)
+            throw new IOException("log record of " + len + " bytes does not fit in the "
+                    + capacity + " byte log buffer");
+        while (true) {
+            long lsn = reserved.get();
+            if (lsn + len - written > capacity) {
+                log.flushBuffer();
+                Thread.yield();
+            } else if (reserved.compareAndSet(lsn, lsn + len)) {
+                return lsn;
+            }
+        }
+    }
+
+    /**
+     * Copies a record into the space reserved for it and publishes it, after
+     * the records before it are published.
+     *
+     * @param lsn the LSN returned by {@link #reserve}
+     * @param record the record, between its position and limit
+     */
+    void fill(long lsn, ByteBuffer record) {
+        int len = record.remaining();
+        int pos = (int) (lsn % capacity);
+        ByteBuffer view = buf.duplicate();
+        view.position(pos);
+        if (len <= capacity - pos) {
+            view.put(record);
+        } else {
+            ByteBuffer head = record.duplicate();
+            head.limit(head.position() + capacity - pos);
+            view.put(head);
+            record.position(head.limit());
+            view.position(0);
+            view.put(record);
+        }
+        while (filled.get() != lsn)
+            Thread.yield();
+        filled.set(lsn + len);
+    }
+
+    /**
+     * Writes the published records that are not in the file yet.
+     *
+     * @param channel the log file
+     * @param delta the file offset of the byte at LSN 0
+     * @return the LSN up to which the log is now in the file
+     */
+    synchronized long writeTo(FileChannel channel, long delta) throws IOException {
+        long end = filled.get();
+        while (written < end) {
+            int pos = (int) (written % capacity);
+            int len = (int) Math.min(end - written, capacity - pos);
+            ByteBuffer slice = buf.duplicate();
+            slice.position(pos);
+            slice.limit(pos + len);
+            long at = written + delta;
+            while (slice.hasRemaining())
+                at += channel.write(slice, at);
+            written += len;
+        }
+        return end;
+    }
+
+    /** @return the LSN of the next record to be appended */
+    long getReserved() {
+        return reserved.get();
+    }
+
+    /** @return the LSN up to which the log is written to the file */
+    long getWritten() {
+        return written;
+    }
+}
@@ -2,7 +2,12 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.lang.reflect.*;
 
 /**
@@ -11,16 +16,23 @@ able to write different log records as needed, but it is the
 responsibility of the caller to ensure that write ahead logging and
 two-phase locking discipline are followed.  <p>
 
+Log records are appended to an in-memory {@link LogBuffer} without
+taking any lock, and the buffer is written to the file in large
+sequential writes when the log is forced, or when the buffer is full.
+A COMMIT record is forced together with the other commits of its group
+by a {@link GroupCommit} flusher thread. <p>
+
 <u> Locking note: </u>
 <p>
 
-Many of the methods here are synchronized (to prevent concurrent log
-writes from happening); many of the methods in BufferPool are also
-synchronized (for similar reasons.)  Problem is that BufferPool writes
-log records (on page flushed) and the log file flushes BufferPool
-pages (on checkpoints and recovery.)  This can lead to deadlock.  For
-that reason, any LogFile operation that needs to access the BufferPool
-must not be declared synchronized and must begin with a block like:
+Many of the methods here are synchronized (to prevent checkpoints,
+truncation and rollback from running concurrently); many of the methods
+in BufferPool are also synchronized (for similar reasons.)  Problem is
+that BufferPool writes log records (on page flushed) and the log file
+flushes BufferPool pages (on checkpoints and recovery.)  This can lead to
+deadlock.  For that reason, any LogFile operation that needs to access
+the BufferPool must not be declared synchronized and must begin with a
+block like:
 
 <p>
 <pre>
@@ -32,6 +44,8 @@ must not be declared synchronized and must begin with a block like:
        }
     }
 </pre>
+Appending a record does not synchronize on the LogFile.  Writes to the
+file are serialized by a private lock, which is always the last one taken.
 */
 
 /**
@@ -39,32 +53,52 @@ must not be declared synchronized and must begin with a block like:
 
 <ul>
 
-<li> The first long integer of the file represents the offset of the
+<li> Each log record is identified by its log sequence number (LSN),
+the byte offset of the record in the log.  LSNs keep growing when the
+start of the log is truncated.
+
+<li> The first long integer of the file represents the LSN of the
 last written checkpoint, or -1 if there are no checkpoints
 
+<li> The second long integer of the file is the LSN of the first log
+record in the file, which follows this header.  Until the log is first
+truncated, the LSN of a record is its offset in the file.
+
 <li> All additional data in the log consists of log records.  Log
 records are variable length.
 
 <li> Each log record begins with an integer type and a long integer
 transaction id.
 
-<li> Each log record ends with a long integer file offset representing
-the position in the log file where the record began.
+<li> Each log record ends with a long integer, the LSN of the record.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are seven record types: ABORT, COMMIT, UPDATE, DELTA, BEGIN,
+CHECKPOINT and CLR
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
 <li>UPDATE RECORDS consist of two entries, a before image and an
-after image.  These images are serialized Page objects, and can be
-accessed with the LogFile.readPageData() and LogFile.writePageData()
-methods.  See LogFile.print() for an example.
+after image.  These images are serialized Page objects, written with
+LogFile.writePageData() and read back as the bytes of the page by
+{@link LogRecord}.  See LogFile.print() for an example.  The first
+update of a page after a checkpoint is logged as an UPDATE record.
+
+<li>DELTA RECORDS log the later updates of a page.  They consist of the
+id of the page (see LogFile.writePageId()), an integer length and a
+{@link PageDelta} of that many bytes, which both redoes and undoes the
+update on the bytes of the page.
+
+<li>CLR (compensation log) RECORDS are written by rollback and recovery
+for each UPDATE or DELTA record they undo.  They consist of the LSN of
+the record undone, the id of the page and the bytes of the page as
+restored (an integer length and that many bytes).  A transaction's
+records from the LSN of its oldest CLR on are already undone, so undo
+is not repeated after another crash.
 
 <li> CHECKPOINT records consist of active transactions at the time
 the checkpoint was taken and their first log record on disk.  The format
 of the record is an integer count of the number of transactions, as well
-as a long integer transaction id and a long integer first record offset
+as a long integer transaction id and a long integer first record LSN
 for each active transaction.
 
 </ul>
@@ -74,24 +108,46 @@ for each active transaction.
 public class LogFile {
 
     final File logFile;
-    private RandomAccessFile raf;
-    Boolean recoveryUndecided; // no call to recover() and no append to log
+    private RandomAccessFile raf; // guarded by fileLock
+    volatile Boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
     static final int COMMIT_RECORD = 2;
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int DELTA_RECORD = 6;
+    static final int CLR_RECORD = 7;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
 
-    long currentOffset = -1;//protected by this
+    /** Size of the file header: the checkpoint LSN and the LSN of the first record. */
+    final static int HEADER_SIZE = 2 * LONG_SIZE;
+
+    // serializes the writes to the file and the swap of the file on
+    // truncation; no other lock is taken while holding it
+    private final Object fileLock = new Object();
+    private volatile long base = HEADER_SIZE; // LSN of the first record in the file
+    private volatile LogBuffer buffer = null; // created once recovery is decided
+
 //    int pageSize;
-    int totalRecords = 0; // for PatchTest //protected by this
+    final AtomicInteger totalRecords = new AtomicInteger(); // for PatchTest
+
+    Map<Long,Long> tidToFirstLogRecord = new ConcurrentHashMap<Long,Long>();
 
-    HashMap<Long,Long> tidToFirstLogRecord = new HashMap<Long,Long>();
+    // pages logged as full images since the last checkpoint
+    private final Set<PageId> imaged = Collections.newSetFromMap(new ConcurrentHashMap<PageId,Boolean>());
+    volatile int activeTransactions = 0; // size of tidToFirstLogRecord
+
+    // COMMIT records appended so far
+    private final AtomicLong commitSeq = new AtomicLong();
+    private final GroupCommit groupCommit = new GroupCommit(this);
+
+    private volatile RecoveryStats lastRecovery = null;
+    int recoveryThreads = ParallelRedo.THREADS; // workers of the redo pass
+    int recoveryPages = ParallelRedo.MAX_PAGES; // pages each redo worker holds
 
     /** Constructor.
         Initialize and back the log file with the specified file.
@@ -124,21 +180,87 @@ public class LogFile {
     // DB wants to do recovery, we're sure now -- it didn't. So truncate
     // the log.
     void preAppend() throws IOException {
-        totalRecords++;
-        if(recoveryUndecided){
-            recoveryUndecided = false;
-            raf.seek(0);
-            raf.setLength(0);
-            raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+        totalRecords.incrementAndGet();
+        if (recoveryUndecided) {
+            synchronized (this) {
+                if (recoveryUndecided) {
+                    synchronized (fileLock) {
+                        raf.setLength(0);
+                        base = HEADER_SIZE;
+                        writeHeader(NO_CHECKPOINT_ID);
+                    }
+                    buffer = new LogBuffer(LogBuffer.DEFAULT_CAPACITY, HEADER_SIZE);
+                    recoveryUndecided = false;
+                }
+            }
         }
     }
 
-    public synchronized int getTotalRecords() {
-        return totalRecords;
+    /** Writes the header of the file; the caller holds fileLock. */
+    private void writeHeader(long checkpoint) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putLong(checkpoint);
+        header.putLong(base);
+        header.flip();
+        FileChannel channel = raf.getChannel();
+        long at = 0;
+        while (header.hasRemaining())
+            at += channel.write(header, at);
+    }
+
+    public int getTotalRecords() {
+        return totalRecords.get();
+    }
+
+    /** @return the LSN the next log record will get */
+    public long getEndLsn() {
+        LogBuffer b = buffer;
+        return b == null ? base : b.getReserved();
     }
-    
+
+    /** @return the file offset of the record with the given LSN */
+    long offsetOf(long lsn) {
+        return lsn - base + HEADER_SIZE;
+    }
+
+    /** Starts a record of the given type.  The record is completed by
+        {@link #append}, which also writes the LSN that ends it.
+    */
+    private static DataOutputStream startRecord(ByteArrayOutputStream bytes, int type, long tid)
+        throws IOException {
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(type);
+        out.writeLong(tid);
+        return out;
+    }
+
+    /** Reserves space in the log buffer for a record that was started
+        with startRecord and has all its data.
+
+        @return the LSN of the record
+    */
+    private long reserve(ByteArrayOutputStream bytes) throws IOException {
+        new DataOutputStream(bytes).writeLong(0); // the LSN, once known
+        return buffer.reserve(bytes.size(), this);
+    }
+
+    /** Copies a record into the space reserved for it */
+    private void fill(long lsn, ByteArrayOutputStream bytes) {
+        ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+        record.putLong(record.limit() - LONG_SIZE, lsn);
+        buffer.fill(lsn, record);
+    }
+
+    /** Appends a record to the log buffer.
+
+        @return the LSN of the record
+    */
+    private long append(ByteArrayOutputStream bytes) throws IOException {
+        long lsn = reserve(bytes);
+        fill(lsn, bytes);
+        return lsn;
+    }
+
     /** Write an abort record to the log for the specified tid, force
         the log to disk, and perform a rollback
         @param tid The aborting transaction.
@@ -157,68 +279,176 @@ public class LogFile {
                 // must do this here, since rollback only works for
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
+                // the pages restored by the abort no longer match the
+                // images their deltas were logged against
+                imaged.clear();
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                startRecord(bytes, ABORT_RECORD, tid.getId());
+                append(bytes);
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
+                activeTransactions = tidToFirstLogRecord.size();
             }
         }
     }
 
     /** Write a commit record to disk for the specified tid,
-        and force the log to disk.
+        and force the log to disk.  The record is forced together with
+        the other commits of its group (see {@link GroupCommit}); this
+        returns once it is durable.
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
+    public void logCommit(TransactionId tid) throws IOException {
+        long start = System.nanoTime();
         preAppend();
         Debug.log("COMMIT " + tid.getId());
         //should we verify that this is a live transaction?
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        startRecord(bytes, COMMIT_RECORD, tid.getId());
+        append(bytes);
         tidToFirstLogRecord.remove(tid.getId());
+        activeTransactions = tidToFirstLogRecord.size();
+        groupCommit.await(commitSeq.incrementAndGet(), start);
+    }
+
+    /** Force the log for the group commit flusher.
+
+        @return the sequence number of the last COMMIT record forced
+    */
+    long forceCommits() throws IOException {
+        // the commits counted so far are all in the buffer
+        long seq = commitSeq.get();
+        force();
+        return seq;
+    }
+
+    /** @return the number of COMMIT records appended so far */
+    long getCommitSequence() {
+        return commitSeq.get();
+    }
+
+    /** @return the number of transactions that began and did not complete yet */
+    int getActiveTransactions() {
+        return activeTransactions;
+    }
+
+    /** @return the time from the start of each logCommit until its record was forced */
+    public LatencyHistogram getCommitLatency() {
+        return groupCommit.getCommitLatency();
+    }
+
+    /** @return the number of commits made durable by each force of the log */
+    public Histogram getCommitBatchSizes() {
+        return groupCommit.getBatchSizes();
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
-        (with provided         before and after images.)
+        (with provided         before and after images.)  Unless this is
+        the first update of the page since the last checkpoint, and if
+        the page supports it, a DELTA record of the changes is written
+        instead.  A transaction that did not log a BEGIN record, e.g.
+        one run on the BufferPool alone, is running from this record on,
+        so that it can still be rolled back.
         @param tid The transaction performing the write
-        @param before The before image of the page
+        @param before The before image of the page; that is, the page as
+          it was when it was last logged
         @param after The after image of the page
 
         @see simpledb.Page#getBeforeImage
     */
-    public  synchronized void logWrite(TransactionId tid, Page before,
-                                       Page after)
+    public void logWrite(TransactionId tid, Page before, Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
         preAppend();
-        /* update record conists of
+        byte[] delta = null;
+        if (!imaged.add(after.getId()))
+            delta = PageDelta.diff(before, after);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        if (delta != null) {
+            /* delta record consists of
+
+               record type
+               transaction id
+               page id (see writePageId)
+               delta length
+               delta
+               start offset
+            */
+            DataOutputStream out = startRecord(bytes, DELTA_RECORD, tid.getId());
+            writePageId(out, after.getId());
+            out.writeInt(delta.length);
+            out.write(delta);
+        } else {
+            /* update record conists of
+
+               record type
+               transaction id
+               before page data (see writePageData)
+               after page data
+               start offset
+            */
+            DataOutputStream out = startRecord(bytes, UPDATE_RECORD, tid.getId());
+            writePageData(out,before);
+            writePageData(out,after);
+        }
+        long lsn = append(bytes);
+        if (tidToFirstLogRecord.putIfAbsent(tid.getId(), lsn) == null)
+            activeTransactions = tidToFirstLogRecord.size();
+
+        Debug.log("WRITE LSN = " + lsn);
+    }
+
+    static void writePageId(DataOutput out, PageId pid) throws IOException {
+        int pageInfo[] = pid.serialize();
+        out.writeUTF(pid.getClass().getName());
+        out.writeInt(pageInfo.length);
+        for (int i = 0; i < pageInfo.length; i++)
+            out.writeInt(pageInfo[i]);
+    }
 
-           record type
-           transaction id
-           before page data (see writePageData)
-           after page data
-           start offset
-        */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
+    static PageId readPageId(DataInput in) throws IOException {
+        String idClassName = in.readUTF();
+        try {
+            Constructor<?>[] idConsts = Class.forName(idClassName).getDeclaredConstructors();
+            int numIdArgs = in.readInt();
+            if (numIdArgs < 0 || numIdArgs > idConsts[0].getParameterTypes().length)
+                throw new IOException("invalid page id of " + numIdArgs + " ints");
+            Object idArgs[] = new Object[numIdArgs];
+            for (int i = 0; i < numIdArgs; i++)
+                idArgs[i] = Integer.valueOf(in.readInt());
+            return (PageId)idConsts[0].newInstance(idArgs);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("unknown page id class " + idClassName, e);
+        } catch (InstantiationException e) {
+            throw new IOException(e);
+        } catch (IllegalAccessException e) {
+            throw new IOException(e);
+        } catch (InvocationTargetException e) {
+            throw new IOException(e);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e);
+        }
+    }
 
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+    /** Write a CLR record for the specified tid, which restored a page
+        while undoing the record at undoNext.
 
-        Debug.log("WRITE OFFSET = " + currentOffset);
+        @return the LSN of the record
+    */
+    private long logClr(long tid, long undoNext, PageId pid, byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = startRecord(bytes, CLR_RECORD, tid);
+        out.writeLong(undoNext);
+        writePageId(out, pid);
+        out.writeInt(data.length);
+        out.write(data);
+        return append(bytes);
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
+    void writePageData(DataOutput raf, Page p) throws IOException{
         PageId pid = p.getId();
         int pageInfo[] = pid.serialize();
 
@@ -246,60 +476,11 @@ public class LogFile {
         //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage = null;
-
-        String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
-
-        try {
-            Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
-
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
-            Object idArgs[] = new Object[numIdArgs];
-            for (int i = 0; i<numIdArgs;i++) {
-                idArgs[i] = new Integer(raf.readInt());
-            }
-            pid = (PageId)idConsts[0].newInstance(idArgs);
-
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
-
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
-
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
-
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
-
-            //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException e){
-            e.printStackTrace();
-            throw new IOException();
-        } catch (InstantiationException e) {
-            e.printStackTrace();
-            throw new IOException();
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
-            throw new IOException();
-        } catch (InvocationTargetException e) {
-            e.printStackTrace();
-            throw new IOException();
-        }
-        return newPage;
-
-    }
-
     /** Write a BEGIN record for the specified transaction
         @param tid The transaction that is beginning
 
     */
-    public synchronized  void logXactionBegin(TransactionId tid)
+    public void logXactionBegin(TransactionId tid)
         throws IOException {
         Debug.log("BEGIN");
         if(tidToFirstLogRecord.get(tid.getId()) != null){
@@ -307,13 +488,15 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
-
-        Debug.log("BEGIN OFFSET = " + currentOffset);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        startRecord(bytes, BEGIN_RECORD, tid.getId());
+        // known to checkpoints from the moment it has an LSN
+        long lsn = reserve(bytes);
+        tidToFirstLogRecord.put(tid.getId(), lsn);
+        activeTransactions = tidToFirstLogRecord.size();
+        fill(lsn, bytes);
+
+        Debug.log("BEGIN LSN = " + lsn);
     }
 
     /** Checkpoint the log and write a checkpoint record. */
@@ -321,138 +504,132 @@ public class LogFile {
         //make sure we have buffer pool lock before proceeding
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
                 preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
                 force();
                 Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
+                // the next update of each page starts from a full image
+                imaged.clear();
+
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = startRecord(bytes, CHECKPOINT_RECORD, -1); //no tid , but leave space for convenience
 
                 //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
+                Map<Long,Long> active = new HashMap<Long,Long>(tidToFirstLogRecord);
+                out.writeInt(active.size());
+                for (Map.Entry<Long,Long> e : active.entrySet()) {
+                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + e.getKey());
+                    out.writeLong(e.getKey());
+                    out.writeLong(e.getValue());
                 }
+                long cpLsn = append(bytes);
 
-                //once the CP is written, make sure the CP location at the
+                //once the CP is on disk, make sure the CP location at the
                 // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
+                force();
+                synchronized (fileLock) {
+                    writeHeader(cpLsn);
+                }
+                //Debug.log("CP LSN = " + cpLsn);
             }
         }
 
         logTruncate();
     }
 
+    /** @return the LSN of the last checkpoint, or NO_CHECKPOINT_ID */
+    long readCheckpointLsn() throws IOException {
+        synchronized (fileLock) {
+            if (raf.length() < HEADER_SIZE)
+                return NO_CHECKPOINT_ID;
+            ByteBuffer cp = ByteBuffer.allocate(LONG_SIZE);
+            raf.getChannel().read(cp, 0);
+            cp.flip();
+            return cp.getLong();
+        }
+    }
+
+    /** Opens the log file for reading records; the records in the log
+        buffer are written to it first.  Callers hold the monitor of this
+        LogFile, so the file is not truncated while they read it.
+    */
+    RandomAccessFile openReader() throws IOException {
+        flushBuffer();
+        return new RandomAccessFile(logFile, "r");
+    }
+
     /** Truncate any unneeded portion of the log to reduce its space
         consumption */
     public synchronized void logTruncate() throws IOException {
         preAppend();
-        raf.seek(0);
-        long cpLoc = raf.readLong();
+        long cpLoc = readCheckpointLsn();
+        if (cpLoc == NO_CHECKPOINT_ID)
+            return;
 
         long minLogRecord = cpLoc;
-
-        if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
+        RandomAccessFile in = openReader();
+        try {
+            in.seek(offsetOf(cpLoc));
+            int cpType = in.readInt();
             @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
+            long cpTid = in.readLong();
 
             if (cpType != CHECKPOINT_RECORD) {
                 throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
             }
 
-            int numOutstanding = raf.readInt();
+            int numOutstanding = in.readInt();
 
             for (int i = 0; i < numOutstanding; i++) {
                 @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
+                long tid = in.readLong();
+                long firstLogRecord = in.readLong();
                 if (firstLogRecord < minLogRecord) {
                     minLogRecord = firstLogRecord;
                 }
             }
+        } finally {
+            in.close();
         }
+        if (minLogRecord <= base)
+            return;
+
+        // we can truncate everything before minLogRecord; since LSNs stay
+        // the same, the records are copied as they are
+        synchronized (fileLock) {
+            flushBuffer();
+            File newFile = new File(logFile.getAbsoluteFile().getParentFile(),
+                    "logtmp" + System.currentTimeMillis());
+            RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
+            FileChannel from = raf.getChannel();
+            FileChannel to = logNew.getChannel();
+            long start = offsetOf(minLogRecord);
+            long length = from.size() - start;
+            logNew.writeLong(cpLoc);
+            logNew.writeLong(minLogRecord);
+            long copied = 0;
+            while (copied < length)
+                copied += from.transferTo(start + copied, length - copied, to);
+            to.force(false);
+
+            Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (length + HEADER_SIZE));
 
-        // we can truncate everything before minLogRecord
-        File newFile = new File("logtmp" + System.currentTimeMillis());
-        RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
-
-        raf.seek(minLogRecord);
-
-        //have to rewrite log records since offsets are different after truncation
-        while (true) {
-            try {
-                int type = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
-
-                Debug.log("NEW START = " + newStart);
-
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
-
-                switch (type) {
-                case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
-
-                    writePageData(logNew, before);
-                    writePageData(logNew, after);
-                    break;
-                case CHECKPOINT_RECORD:
-                    int numXactions = raf.readInt();
-                    logNew.writeInt(numXactions);
-                    while (numXactions-- > 0) {
-                        long xid = raf.readLong();
-                        long xoffset = raf.readLong();
-                        logNew.writeLong(xid);
-                        logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
-                    }
-                    break;
-                case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
-                    break;
-                }
-
-                //all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
-
-            } catch (EOFException e) {
-                break;
-            }
+            raf.close();
+            logNew.close();
+            logFile.delete();
+            newFile.renameTo(logFile);
+            raf = new RandomAccessFile(logFile, "rw");
+            newFile.delete();
+            base = minLogRecord;
         }
-
-        Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
-
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
-
-        currentOffset = raf.getFilePointer();
         //print();
     }
 
+    /** @return true if the transaction has log records and has not
+        committed or aborted yet */
+    public boolean isRunning(TransactionId tid) {
+        return tidToFirstLogRecord.containsKey(tid.getId());
+    }
+
     /** Rollback the specified transaction, setting the state of any
         of pages it updated to their pre-updated state.  To preserve
         transaction semantics, this should not be called on
@@ -466,11 +643,95 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized(this) {
                 preAppend();
-                // some code goes here
+                Long first = tidToFirstLogRecord.get(tid.getId());
+                if (first == null)
+                    throw new NoSuchElementException("transaction " + tid.getId() + " is not running");
+                undo(Collections.singletonMap(tid.getId(), first), new RecoveryStats());
+            }
+        }
+    }
+
+    /** Undo the page updates of the given transactions that are not
+        undone yet, newest first, logging a CLR for each one.  The pages
+        are restored on disk once the CLRs are forced.  Callers hold the
+        monitors of the buffer pool and of this LogFile.
+
+        @param txns The transactions, and the LSN of the first record of each
+        @param stats Counts the records undone
+    */
+    private void undo(Map<Long,Long> txns, RecoveryStats stats) throws IOException {
+        if (txns.isEmpty())
+            return;
+        long from = Collections.min(txns.values());
+        ArrayList<LogRecord> updates = new ArrayList<LogRecord>();
+        Map<Long,Long> undoneFrom = new HashMap<Long,Long>(); // lowest LSN undone per tid
+        LogRecord.Scanner scanner = new LogRecord.Scanner(openReader(), offsetOf(from), from);
+        try {
+            LogRecord rec;
+            while ((rec = scanner.next()) != null) {
+                if (!txns.containsKey(rec.tid))
+                    continue;
+                if (rec.type == UPDATE_RECORD || rec.type == DELTA_RECORD) {
+                    updates.add(rec);
+                } else if (rec.type == CLR_RECORD) {
+                    Long u = undoneFrom.get(rec.tid);
+                    if (u == null || rec.undoNext < u)
+                        undoneFrom.put(rec.tid, rec.undoNext);
+                }
+            }
+        } finally {
+            scanner.close();
+        }
+
+        Map<PageId,byte[]> restored = new HashMap<PageId,byte[]>();
+        for (int i = updates.size() - 1; i >= 0; i--) {
+            LogRecord rec = updates.get(i);
+            Long u = undoneFrom.get(rec.tid);
+            if (u != null && rec.lsn >= u)
+                continue;
+            byte[] data;
+            if (rec.type == UPDATE_RECORD) {
+                data = rec.before;
+            } else {
+                data = restored.get(rec.pid);
+                if (data == null)
+                    data = readImage(rec.pid);
+                PageDelta.undo(data, rec.delta);
             }
+            restored.put(rec.pid, data);
+            logClr(rec.tid, rec.lsn, rec.pid, data);
+            stats.recordsUndone++;
+        }
+        if (restored.isEmpty())
+            return;
+        // write ahead: the CLRs are durable before the pages they restore
+        force();
+        for (Map.Entry<PageId,byte[]> e : restored.entrySet()) {
+            PageId pid = e.getKey();
+            Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(decodeImage(pid, e.getValue()));
+            Database.getBufferPool().discardPage(pid);
         }
     }
 
+    /** @return the bytes of a page as they are on disk */
+    static byte[] readImage(PageId pid) {
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        try {
+            return file.readPage(pid).getPageData();
+        } catch (IllegalArgumentException e) {
+            // past the end of the file; the page was never written
+            return new byte[BufferPool.getPageSize()];
+        }
+    }
+
+    /** @return the page with the given bytes, as its file builds it */
+    static Page decodeImage(PageId pid, byte[] data) throws IOException {
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        if (!(file instanceof PageDecoder))
+            throw new IOException("cannot recover pages of table " + pid.getTableId());
+        return ((PageDecoder) file).decodePage(pid, ByteBuffer.wrap(data));
+    }
+
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
@@ -478,7 +739,9 @@ public class LogFile {
     public synchronized void shutdown() {
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
+            synchronized (fileLock) {
+                raf.close();
+            }
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
@@ -492,19 +755,201 @@ public class LogFile {
     public void recover() throws IOException {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
-                recoveryUndecided = false;
-                // some code goes here
+                RecoveryStats stats = new RecoveryStats();
+                long start = System.nanoTime();
+                boolean opening = recoveryUndecided;
+                openExisting();
+
+                // analysis: the transactions that did not complete, and
+                // where the log ends
+                long cp = readCheckpointLsn();
+                stats.checkpointLsn = cp;
+                stats.redoStartLsn = cp == NO_CHECKPOINT_ID ? base : cp;
+                Map<Long,Long> losers = new HashMap<Long,Long>();
+                Set<Long> completed = new HashSet<Long>();
+                LogRecord.Scanner scanner = new LogRecord.Scanner(openReader(),
+                        offsetOf(stats.redoStartLsn), stats.redoStartLsn);
+                try {
+                    LogRecord rec;
+                    while ((rec = scanner.next()) != null) {
+                        switch (rec.type) {
+                        case CHECKPOINT_RECORD:
+                            if (rec.lsn == cp)
+                                losers.putAll(rec.active);
+                            break;
+                        case BEGIN_RECORD:
+                            losers.put(rec.tid, rec.lsn);
+                            break;
+                        case COMMIT_RECORD:
+                        case ABORT_RECORD:
+                            losers.remove(rec.tid);
+                            completed.add(rec.tid);
+                            break;
+                        default:
+                            // a transaction without a BEGIN record starts
+                            // with its first page update (see logWrite)
+                            if (rec.isPageUpdate() && !completed.contains(rec.tid)
+                                    && !losers.containsKey(rec.tid))
+                                losers.put(rec.tid, rec.lsn);
+                            break;
+                        }
+                    }
+                } finally {
+                    scanner.close();
+                }
+                stats.endLsn = scanner.getEnd();
+                if (opening)
+                    openBuffer(stats.endLsn);
+                stats.losers = losers.size();
+                long analyzed = System.nanoTime();
+                stats.analysisNanos = analyzed - start;
+
+                // redo: repeat history from the checkpoint, which flushed
+                // all pages updated before it
+                redo(stats);
+                long redone = System.nanoTime();
+                stats.redoNanos = redone - analyzed;
+
+                // undo: roll back the losers and log that they aborted
+                undo(losers, stats);
+                for (Long tid : losers.keySet()) {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    startRecord(bytes, ABORT_RECORD, tid);
+                    append(bytes);
+                }
+                force();
+                tidToFirstLogRecord.clear();
+                activeTransactions = 0;
+                imaged.clear();
+                stats.undoNanos = System.nanoTime() - redone;
+
+                lastRecovery = stats;
+                Debug.log("%s", stats);
             }
          }
     }
 
+    /** Redo the page updates from the start of the redo pass to the end
+        of the log, partitioned by page over the workers of a
+        {@link ParallelRedo}.  Each page touched gets its records applied
+        in LSN order, and the workers hold a bounded number of pages in
+        memory, writing them out as they need room.
+    */
+    private void redo(RecoveryStats stats) throws IOException {
+        LogRecord.Scanner scanner = new LogRecord.Scanner(openReader(),
+                offsetOf(stats.redoStartLsn), stats.redoStartLsn);
+        ParallelRedo workers = new ParallelRedo(recoveryThreads, recoveryPages);
+        stats.redoThreads = workers.getThreads();
+        Set<PageId> pages;
+        try {
+            LogRecord rec;
+            while ((rec = scanner.next()) != null && rec.lsn < stats.endLsn) {
+                if (rec.isPageUpdate()) {
+                    workers.add(rec);
+                    stats.recordsRedone++;
+                }
+            }
+        } finally {
+            scanner.close();
+            pages = workers.finish();
+        }
+        // the pool may cache versions of the pages from before redo
+        for (PageId pid : pages)
+            Database.getBufferPool().discardPage(pid);
+        stats.pagesRedone = pages.size();
+        stats.peakRedoPages = workers.getPeakPages();
+    }
+
+    /** @return what the last call to recover() did and how long it took,
+        or null if recover() was not called */
+    public RecoveryStats getLastRecovery() {
+        return lastRecovery;
+    }
+
+    /** @return the bytes of log that recovery would redo if the system
+        crashed now; recovery time grows with it until the next checkpoint */
+    public long getBytesSinceCheckpoint() throws IOException {
+        long cp = readCheckpointLsn();
+        return getEndLsn() - (cp == NO_CHECKPOINT_ID ? base : cp);
+    }
+
+    /** Decides to keep the log that is in the file.  Callers hold the
+        monitor of this LogFile, and call openBuffer() once they know where
+        the records in the file end.
+    */
+    private void openExisting() throws IOException {
+        if (!recoveryUndecided)
+            return;
+        synchronized (fileLock) {
+            if (raf.length() < HEADER_SIZE) {
+                raf.setLength(0);
+                base = HEADER_SIZE;
+                writeHeader(NO_CHECKPOINT_ID);
+            } else {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                raf.getChannel().read(header, 0);
+                header.flip();
+                header.getLong();
+                base = header.getLong();
+            }
+        }
+    }
+
+    /** Appends the records to come after the given LSN, dropping what a
+        crash left of a record being written there.
+    */
+    private void openBuffer(long end) throws IOException {
+        synchronized (fileLock) {
+            raf.setLength(offsetOf(end));
+            buffer = new LogBuffer(LogBuffer.DEFAULT_CAPACITY, end);
+        }
+        recoveryUndecided = false;
+    }
+
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
-        // some code goes here
+        long start = recoveryUndecided ? readBase() : base;
+        RandomAccessFile in = recoveryUndecided ? new RandomAccessFile(logFile, "r") : openReader();
+        System.out.println("CHECKPOINT LSN: " + readCheckpointLsn());
+        LogRecord.Scanner scanner = new LogRecord.Scanner(in, HEADER_SIZE, start);
+        try {
+            LogRecord rec;
+            while ((rec = scanner.next()) != null)
+                System.out.println(rec);
+        } finally {
+            scanner.close();
+        }
+    }
+
+    /** @return the LSN of the first record in the file, as in its header */
+    private long readBase() throws IOException {
+        synchronized (fileLock) {
+            if (raf.length() < HEADER_SIZE)
+                return HEADER_SIZE;
+            ByteBuffer b = ByteBuffer.allocate(LONG_SIZE);
+            raf.getChannel().read(b, LONG_SIZE);
+            b.flip();
+            return b.getLong();
+        }
     }
 
-    public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+    /** Write the records in the log buffer to the file, without forcing
+        it to disk.
+    */
+    void flushBuffer() throws IOException {
+        LogBuffer b = buffer;
+        if (b == null)
+            return;
+        synchronized (fileLock) {
+            b.writeTo(raf.getChannel(), HEADER_SIZE - base);
+        }
+    }
+
+    public void force() throws IOException {
+        synchronized (fileLock) {
+            flushBuffer();
+            raf.getChannel().force(false);
+        }
     }
 
 }
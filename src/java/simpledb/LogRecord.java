@@ -0,0 +1,196 @@
+package simpledb;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * LogRecord is a record of a LogFile as read back by recovery and rollback.
+ * Page images are kept as the bytes of the page, so that records of any
+ * kind of page can be read without building the page.
+ * <p>
+ * See LogFile for the format of the records.
+ */
+class LogRecord {
+
+    final long lsn;
+    final int type;
+    final long tid;
+
+    PageId pid; // UPDATE, DELTA and CLR records
+    byte[] before; // UPDATE records
+    byte[] after; // UPDATE records; the restored page of CLR records
+    byte[] delta; // DELTA records
+    long undoNext; // CLR records: the LSN of the record compensated
+    Map<Long,Long> active; // CHECKPOINT records: tid to LSN of its first record
+
+    private LogRecord(long lsn, int type, long tid) {
+        this.lsn = lsn;
+        this.type = type;
+        this.tid = tid;
+    }
+
+    /** @return true if the record changes a page */
+    boolean isPageUpdate() {
+        return type == LogFile.UPDATE_RECORD || type == LogFile.DELTA_RECORD
+                || type == LogFile.CLR_RECORD;
+    }
+
+    /**
+     * Reads the record that starts at the current position of the input.
+     *
+     * @param lsn the LSN of the record
+     * @throws IOException if the record is cut short or does not end with
+     *   its LSN
+     */
+    static LogRecord read(DataInputStream in, long lsn) throws IOException {
+        LogRecord r = new LogRecord(lsn, in.readInt(), in.readLong());
+        switch (r.type) {
+        case LogFile.ABORT_RECORD:
+        case LogFile.COMMIT_RECORD:
+        case LogFile.BEGIN_RECORD:
+            break;
+        case LogFile.UPDATE_RECORD:
+            in.readUTF(); // page class
+            r.pid = LogFile.readPageId(in);
+            r.before = readBytes(in);
+            in.readUTF();
+            LogFile.readPageId(in);
+            r.after = readBytes(in);
+            break;
+        case LogFile.DELTA_RECORD:
+            r.pid = LogFile.readPageId(in);
+            r.delta = readBytes(in);
+            break;
+        case LogFile.CLR_RECORD:
+            r.undoNext = in.readLong();
+            r.pid = LogFile.readPageId(in);
+            r.after = readBytes(in);
+            break;
+        case LogFile.CHECKPOINT_RECORD:
+            int n = in.readInt();
+            r.active = new HashMap<Long,Long>();
+            for (int i = 0; i < n; i++)
+                r.active.put(in.readLong(), in.readLong());
+            break;
+        default:
+            throw new IOException("unknown log record type " + r.type + " at LSN " + lsn);
+        }
+        if (in.readLong() != lsn)
+            throw new IOException("log record at LSN " + lsn + " is incomplete");
+        return r;
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int len = in.readInt();
+        if (len < 0 || len > LogBuffer.DEFAULT_CAPACITY)
+            throw new IOException("invalid log record length " + len);
+        byte[] data = new byte[len];
+        in.readFully(data);
+        return data;
+    }
+
+    public String toString() {
+        String[] names = { "?", "ABORT", "COMMIT", "UPDATE", "BEGIN", "CHECKPOINT", "DELTA", "CLR" };
+        String s = lsn + ": " + (type > 0 && type < names.length ? names[type] : "?") + " tid " + tid;
+        if (pid != null)
+            s += " table " + pid.getTableId() + " page " + pid.pageNumber();
+        if (type == LogFile.CLR_RECORD)
+            s += " undo next " + undoNext;
+        if (active != null)
+            s += " active " + active;
+        return s;
+    }
+
+    /**
+     * Scanner reads the records of a log file in LSN order.  It stops at
+     * the end of the file, or at a record that was only partly written
+     * before a crash.  Records are only ever appended, so a record that is
+     * cut short runs into the physical end of the file; any other record
+     * that cannot be read means the log is damaged, and is an error.
+     */
+    static class Scanner {
+        private final CountingInputStream counter;
+        private final DataInputStream in;
+        private final long start;
+        private long end; // LSN after the last complete record
+
+        /**
+         * @param raf the log file, which the scanner closes
+         * @param offset the file offset of the first record to read
+         * @param lsn the LSN of that record
+         */
+        Scanner(RandomAccessFile raf, long offset, long lsn) throws IOException {
+            raf.seek(offset);
+            counter = new CountingInputStream(
+                    new BufferedInputStream(Channels.newInputStream(raf.getChannel()), 1 << 16));
+            in = new DataInputStream(counter);
+            start = lsn;
+            end = lsn;
+        }
+
+        /**
+         * @return the next record, or null at the end of the log
+         * @throws IOException if a record before the end of the file
+         *   cannot be read
+         */
+        LogRecord next() throws IOException {
+            try {
+                LogRecord r = read(in, end);
+                end = start + counter.count;
+                return r;
+            } catch (EOFException e) {
+                if (start + counter.count > end)
+                    Debug.log("LOG ENDS AT " + end + ": torn record");
+                return null;
+            } catch (IOException e) {
+                throw new IOException("log is damaged at LSN " + end + ": " + e.getMessage(), e);
+            }
+        }
+
+        /** @return the LSN after the last record returned by next() */
+        long getEnd() {
+            return end;
+        }
+
+        void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /** Counts the bytes read from a stream. */
+    private static class CountingInputStream extends FilterInputStream {
+        long count = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0)
+                count++;
+            return b;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0)
+                count += n;
+            return n;
+        }
+
+        public long skip(long n) throws IOException {
+            long s = super.skip(n);
+            count += s;
+            return s;
+        }
+    }
+}
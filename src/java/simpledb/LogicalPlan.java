@@ -5,7 +5,9 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.NoSuchElementException;
+import java.util.Set;
 
 /**
  * LogicalPlan represents a logical query plan that has been through
@@ -271,6 +273,58 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** Return the quantified names (alias.field) of all fields the query
+     *  reads: the select list, aggregate, group by, order by, filter and
+     *  join fields.  Returns null if the select list contains a "*", in
+     *  which case every field of every table is needed.
+     */
+    private Set<String> getReferencedFields() {
+        Set<String> used = new HashSet<String>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.endsWith(".*"))
+                return null;
+            used.add(si.fname);
+        }
+        if (aggField != null)
+            used.add(aggField);
+        if (groupByField != null)
+            used.add(groupByField);
+        if (oByField != null)
+            used.add(oByField);
+        for (LogicalFilterNode lf : filters)
+            used.add(lf.fieldQuantifiedName);
+        for (LogicalJoinNode lj : joins) {
+            used.add(lj.f1QuantifiedName);
+            if (!(lj instanceof LogicalSubplanJoinNode))
+                used.add(lj.f2QuantifiedName);
+        }
+        return used;
+    }
+
+    /** Return the fields of the table scanned by the given node that are
+     *  among usedFields, so the scan can skip the rest; null if the scan
+     *  needs all of them.
+     */
+    private int[] getProjection(LogicalScanNode table, Set<String> usedFields) {
+        if (usedFields == null)
+            return null;
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        ArrayList<Integer> cols = new ArrayList<Integer>();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (usedFields.contains(table.alias + "." + td.getFieldName(i)))
+                cols.add(i);
+        }
+        if (cols.size() == td.numFields())
+            return null;
+        // a scan has to return something, even if no field is read
+        if (cols.isEmpty())
+            cols.add(0);
+        int[] columns = new int[cols.size()];
+        for (int i = 0; i < columns.length; i++)
+            columns[i] = cols.get(i);
+        return columns;
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned DbIterator will run as a part of
@@ -289,12 +343,14 @@ public class LogicalPlan {
         HashMap<String,String> equivMap = new HashMap<String,String>();
         HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String,TableStats> statsMap = new HashMap<String,TableStats>();
+        Set<String> usedFields = getReferencedFields();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
             SeqScan ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias,
+                                  getProjection(table, usedFields));
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
@@ -336,9 +392,12 @@ public class LogicalPlan {
             }
             subplanMap.put(lf.tableAlias, new Filter(p, subplan));
 
-            TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
-            
-            double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+            int tableId = this.getTableId(lf.tableAlias);
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(tableId));
+
+            // the stats are of the whole table, while the scan may be projected
+            int statsField = Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(lf.fieldPureName);
+            double sel= s.estimateSelectivity(statsField, lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
@@ -0,0 +1,126 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * MappedRegions maps a paged data file into memory in fixed-size, read-only
+ * regions and hands out page-sized views of the mapping.  It backs the
+ * memory-mapped scan mode of HeapFile and BTreeFile: pages are built
+ * directly from the mapped bytes, so reads are served by the OS page cache
+ * without a read() system call or a copy into a fresh byte array.
+ * <p>
+ * Pages are addressed by number relative to a base offset (the B+ tree root
+ * pointer page, for instance, lives before the first regular page).  Regions
+ * are mapped lazily on first access and remapped when the file has grown
+ * past the end of a partially mapped region.  Writes to the file must go
+ * through its FileChannel; they are visible through the mapping on platforms
+ * with a unified page cache (Linux, Windows), so this mode is intended for
+ * read-mostly tables.
+ *
+ * @Threadsafe
+ */
+class MappedRegions {
+
+    /** Number of pages covered by each mapped region. */
+    static final int PAGES_PER_REGION = 16384;
+
+    private final File f;
+    private final long baseOffset;
+    private final int pageSize;
+    private final long regionBytes;
+
+    private RandomAccessFile raf = null;        // guarded by this
+    private FileChannel channel = null;         // guarded by this
+    private volatile MappedByteBuffer[] regions = new MappedByteBuffer[0];
+
+    /**
+     * @param f the file to map
+     * @param baseOffset file offset of page number 0
+     * @param pageSize number of bytes per page
+     */
+    public MappedRegions(File f, long baseOffset, int pageSize) {
+        this.f = f;
+        this.baseOffset = baseOffset;
+        this.pageSize = pageSize;
+        this.regionBytes = (long) pageSize * PAGES_PER_REGION;
+    }
+
+    /** @return the page size this mapping was created for */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public synchronized void open() throws IOException {
+        if (channel != null && channel.isOpen())
+            return;
+        raf = new RandomAccessFile(f, "r");
+        channel = raf.getChannel();
+    }
+
+    /**
+     * Drops all mappings and closes the file.  The mapped memory itself is
+     * released by the JVM once the buffers are no longer referenced.
+     */
+    public synchronized void close() throws IOException {
+        regions = new MappedByteBuffer[0];
+        if (raf != null)
+            raf.close();
+        raf = null;
+        channel = null;
+    }
+
+    /**
+     * Returns a read-only view of the specified page, or null if the page
+     * lies beyond the end of the file.
+     *
+     * @param pgNo the page number, relative to the base offset
+     */
+    public ByteBuffer page(int pgNo) throws IOException {
+        int r = pgNo / PAGES_PER_REGION;
+        int off = (int) ((long) (pgNo % PAGES_PER_REGION) * pageSize);
+
+        MappedByteBuffer[] rs = regions;
+        MappedByteBuffer region = r < rs.length ? rs[r] : null;
+        if (region == null || region.capacity() < off + pageSize) {
+            region = map(r, off + pageSize);
+            if (region == null)
+                return null;
+        }
+
+        ByteBuffer view = region.duplicate();
+        view.position(off);
+        view.limit(off + pageSize);
+        return view.slice();
+    }
+
+    /**
+     * Maps (or remaps) region r so that it covers at least minBytes bytes.
+     * @return the region, or null if the file is too short
+     */
+    private synchronized MappedByteBuffer map(int r, int minBytes) throws IOException {
+        MappedByteBuffer[] rs = regions;
+        if (r < rs.length && rs[r] != null && rs[r].capacity() >= minBytes)
+            return rs[r];
+
+        open();
+        long start = baseOffset + r * regionBytes;
+        long len = Math.min(regionBytes, channel.size() - start);
+        if (len < minBytes)
+            return null;
+
+        MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, start, len);
+        if (r >= rs.length) {
+            MappedByteBuffer[] grown = new MappedByteBuffer[r + 1];
+            System.arraycopy(rs, 0, grown, 0, rs.length);
+            rs = grown;
+        } else {
+            rs = rs.clone();
+        }
+        rs[r] = region;
+        regions = rs;
+        return region;
+    }
+}
@@ -6,6 +6,10 @@ package simpledb;
  * <p>
  * Pages may be "dirty", indicating that they have been modified since they
  * were last written out to disk.
+ * <p>
+ * The monitor of a page is its latch: methods that change a page, and
+ * getPageData(), synchronize on the page, so that the BufferPool can take
+ * a consistent image of a page that a transaction is changing.
  *
  * For recovery purposes, pages MUST have a single constructor of the form:
  *     Page(PageId id, byte[] data)
@@ -0,0 +1,125 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * PageAllocator keeps the page count of a paged data file in memory and hands
+ * out new page numbers at its end.  It backs numPages() and allocatePage() of
+ * HeapFile and BTreeFile, so neither has to stat the file on every call.
+ * <p>
+ * The count is read from the file length the first time it is needed and
+ * after that only changes through {@link #allocate} and {@link #written}.
+ * Rather than growing the file one page at a time, allocate() extends it by
+ * a chunk of zero-filled pages (at least {@link #MIN_EXTEND_PAGES}, or an
+ * eighth of the current size for large files), so the physical file may run
+ * ahead of the logical page count.  {@link #trim} cuts the unused tail off
+ * again when the file is closed; a file that was not trimmed (after a crash,
+ * say) simply comes back with some extra empty pages.
+ *
+ * @Threadsafe
+ */
+class PageAllocator {
+
+    /** Minimum number of pages the file is extended by at a time. */
+    static final int MIN_EXTEND_PAGES = 16;
+
+    private final File f;
+    private final long baseOffset;
+
+    // logical number of pages; -1 until read from the file length
+    private final AtomicInteger numPages = new AtomicInteger(-1);
+
+    // true once allocate() has grown the file past its logical end
+    private boolean extended = false; // guarded by this
+
+    /**
+     * @param f the file whose pages are counted
+     * @param baseOffset file offset of page index 0
+     */
+    public PageAllocator(File f, long baseOffset) {
+        this.f = f;
+        this.baseOffset = baseOffset;
+    }
+
+    /** @return the number of pages in the file */
+    public int numPages() {
+        int n = numPages.get();
+        if (n >= 0)
+            return n;
+        synchronized (this) {
+            return init();
+        }
+    }
+
+    private int init() {
+        int n = numPages.get();
+        if (n < 0) {
+            // we only ever write full pages
+            long len = f.length() - baseOffset;
+            n = len > 0 ? (int) (len / BufferPool.getPageSize()) : 0;
+            numPages.set(n);
+        }
+        return n;
+    }
+
+    /**
+     * Appends a page to the file and returns its index.  The new page reads
+     * back as all zeroes; the file is extended by a whole chunk of pages when
+     * it has no preallocated room left.
+     *
+     * @param fc an open, writable channel on the file
+     */
+    public synchronized int allocate(FileChannel fc) throws IOException {
+        int index = init();
+        int pageSize = BufferPool.getPageSize();
+        long end = baseOffset + (long) (index + 1) * pageSize;
+        if (fc.size() < end) {
+            int chunk = Math.max(MIN_EXTEND_PAGES, index / 8);
+            long newSize = baseOffset + (long) (index + chunk) * pageSize;
+            // writing the last byte leaves a zero-filled gap before it
+            ByteBuffer last = ByteBuffer.allocate(1);
+            while (last.hasRemaining())
+                fc.write(last, newSize - 1);
+            extended = true;
+        }
+        written(index);
+        return index;
+    }
+
+    /**
+     * Records that the page at the given index has been written, growing the
+     * page count if it lies past the current end of the file.
+     */
+    public void written(int index) {
+        if (numPages.get() < 0) {
+            synchronized (this) {
+                init();
+            }
+        }
+        int n;
+        while ((n = numPages.get()) <= index) {
+            if (numPages.compareAndSet(n, index + 1))
+                break;
+        }
+    }
+
+    /**
+     * Truncates the file to its logical length, dropping preallocated pages
+     * that were never handed out.  Files this allocator never extended are
+     * left alone.
+     *
+     * @param fc an open, writable channel on the file
+     */
+    public synchronized void trim(FileChannel fc) throws IOException {
+        int n = numPages.get();
+        if (!extended || n < 0)
+            return;
+        extended = false;
+        long end = baseOffset + (long) n * BufferPool.getPageSize();
+        if (fc.size() > end)
+            fc.truncate(end);
+    }
+}
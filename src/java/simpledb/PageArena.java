@@ -0,0 +1,154 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+/**
+ * PageArena keeps clean pages as raw bytes in preallocated, off-heap frames
+ * of direct ByteBuffer slabs.  It is the second tier of a BufferPool sized in
+ * bytes: pages evicted from the pool (where they are decoded Java objects)
+ * are copied into a frame, and a later miss on the page decodes it from the
+ * frame instead of reading it from disk.  Since the arena is a handful of
+ * large direct buffers, it can hold gigabytes of pages without adding to
+ * the work of the garbage collector.
+ * <p>
+ * The arena is exclusive: a page taken back into the pool leaves its frame,
+ * so the arena never holds a copy of a page that may be modified.  When all
+ * frames are in use, new pages replace old ones in frame order, like a FIFO
+ * queue.
+ *
+ * @Threadsafe
+ */
+class PageArena {
+
+    /** Largest slab allocated at once; a direct buffer is indexed by int. */
+    static final int MAX_SLAB_BYTES = 1 << 30;
+
+    private final int frameSize;
+    private final int framesPerSlab;
+    private final ByteBuffer[] slabs;
+    private final int numFrames;
+
+    // all guarded by this
+    private final PageId[] owner;
+    private final HashMap<PageId, Integer> frameOf = new HashMap<PageId, Integer>();
+    private final int[] freeFrames; // a stack of the unused frames
+    private int numFree;
+    private int hand = 0;
+
+    /**
+     * @param bytes the size of the arena; rounded down to whole frames
+     * @param frameSize the size of a page
+     */
+    public PageArena(long bytes, int frameSize) {
+        this.frameSize = frameSize;
+        this.numFrames = (int) Math.min(Integer.MAX_VALUE, bytes / frameSize);
+        this.framesPerSlab = Math.max(1, MAX_SLAB_BYTES / frameSize);
+        int nslabs = (numFrames + framesPerSlab - 1) / framesPerSlab;
+        this.slabs = new ByteBuffer[nslabs];
+        for (int i = 0; i < nslabs; i++) {
+            int frames = Math.min(framesPerSlab, numFrames - i * framesPerSlab);
+            slabs[i] = ByteBuffer.allocateDirect(frames * frameSize);
+        }
+        this.owner = new PageId[numFrames];
+        this.freeFrames = new int[numFrames];
+        for (int i = 0; i < numFrames; i++)
+            freeFrames[i] = numFrames - 1 - i;
+        this.numFree = numFrames;
+    }
+
+    /**
+     * Parses a size in bytes with an optional k, m or g suffix, e.g. "8g".
+     *
+     * @throws NumberFormatException if the size is malformed
+     */
+    public static long parseBytes(String s) {
+        s = s.trim().toLowerCase();
+        long unit = 1;
+        switch (s.isEmpty() ? ' ' : s.charAt(s.length() - 1)) {
+        case 'k': unit = 1L << 10; break;
+        case 'm': unit = 1L << 20; break;
+        case 'g': unit = 1L << 30; break;
+        default: break;
+        }
+        if (unit != 1)
+            s = s.substring(0, s.length() - 1);
+        return Long.parseLong(s) * unit;
+    }
+
+    /** @return the number of frames in the arena */
+    public int getNumFrames() {
+        return numFrames;
+    }
+
+    /** @return the number of pages in the arena */
+    public synchronized int size() {
+        return frameOf.size();
+    }
+
+    /** @return true if the arena holds the page */
+    public synchronized boolean contains(PageId pid) {
+        return frameOf.containsKey(pid);
+    }
+
+    /** @return a view of the given frame */
+    private ByteBuffer frame(int f) {
+        ByteBuffer view = slabs[f / framesPerSlab].duplicate();
+        int start = (f % framesPerSlab) * frameSize;
+        view.limit(start + frameSize);
+        view.position(start);
+        return view;
+    }
+
+    /**
+     * Copies a clean page into a frame, replacing another page if the arena
+     * is full.  Pages of another size are not kept.
+     */
+    public synchronized void put(PageId pid, byte[] data) {
+        if (numFrames == 0 || data.length != frameSize)
+            return;
+        Integer f = frameOf.get(pid);
+        if (f == null) {
+            if (numFree == 0) {
+                while (owner[hand] == null)
+                    hand = (hand + 1) % numFrames;
+                f = hand;
+                frameOf.remove(owner[f]);
+                hand = (hand + 1) % numFrames;
+            } else {
+                f = freeFrames[--numFree];
+            }
+            owner[f] = pid;
+            frameOf.put(pid, f);
+        }
+        frame(f).put(data);
+    }
+
+    /**
+     * Takes a page out of the arena.
+     *
+     * @return a copy of the page's bytes, or null if the arena does not
+     *   hold it
+     */
+    public synchronized byte[] take(PageId pid) {
+        Integer f = frameOf.remove(pid);
+        if (f == null)
+            return null;
+        byte[] data = new byte[frameSize];
+        frame(f).get(data);
+        release(f);
+        return data;
+    }
+
+    /** Drops a page from the arena, e.g. because it is about to change on disk. */
+    public synchronized void remove(PageId pid) {
+        Integer f = frameOf.remove(pid);
+        if (f != null)
+            release(f);
+    }
+
+    private void release(int f) {
+        owner[f] = null;
+        freeFrames[numFree++] = f;
+    }
+}
@@ -0,0 +1,50 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * PageBatchWriter is implemented by the DbFiles that can write many pages in
+ * one go.  When the BufferPool flushes, it hands each such file all of its
+ * pages at once, so runs of adjacent pages go out in one vectored write each
+ * and the file is forced to disk once rather than after every page.
+ */
+interface PageBatchWriter {
+
+    /**
+     * Writes pages of this file.
+     *
+     * @param pages the pages to write, sorted by page number
+     * @param force whether to force the file to disk after the writes
+     */
+    public void writePages(List<Page> pages, boolean force) throws IOException;
+
+    /**
+     * @return the index one past the end of the run of consecutive page
+     *   numbers that starts at index start of the sorted pages
+     */
+    static int runEnd(List<Page> pages, int start) {
+        int first = pages.get(start).getId().pageNumber();
+        int end = start + 1;
+        while (end < pages.size() && pages.get(end).getId().pageNumber() == first + (end - start))
+            end++;
+        return end;
+    }
+
+    /**
+     * Gathering write of the given buffers to consecutive bytes of the
+     * channel, starting at the given file offset.  FileChannel has no
+     * positional gathering write, so this moves the channel's position;
+     * callers sharing a channel are serialized on it.
+     */
+    static void writeRun(FileChannel fc, ByteBuffer[] run, long offset) throws IOException {
+        synchronized (fc) {
+            fc.position(offset);
+            ByteBuffer last = run[run.length - 1];
+            while (last.hasRemaining())
+                fc.write(run);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * PageCodec compresses the bytes of a page before a CompressedHeapFile writes
+ * them to disk, and restores them when the page is read back into the
+ * BufferPool.  Codecs must be stateless (or thread safe), since pages of the
+ * same table are read and written concurrently.
+ *
+ * @see CompressedHeapFile
+ */
+public interface PageCodec {
+
+    /**
+     * @return the name of this codec, as used in the <code>compress=</code>
+     *   catalog option
+     */
+    public String getName();
+
+    /**
+     * Compresses a page.
+     *
+     * @param page the page bytes, BufferPool.getPageSize() long
+     * @return the compressed bytes (may be longer than the page for
+     *   incompressible data)
+     */
+    public byte[] compress(byte[] page);
+
+    /**
+     * Restores a page compressed by {@link #compress}.
+     *
+     * @param data the compressed bytes
+     * @param pageSize the size of the original page
+     * @return the page bytes
+     * @throws IOException if data is not a valid compressed page
+     */
+    public byte[] decompress(byte[] data, int pageSize) throws IOException;
+}
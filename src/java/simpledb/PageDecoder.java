@@ -0,0 +1,19 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * PageDecoder is implemented by the DbFiles whose pages can be rebuilt from
+ * their raw bytes alone.  The BufferPool uses it to decode pages kept as
+ * bytes in its off-heap {@link PageArena}; pages of other files never enter
+ * the arena.
+ */
+interface PageDecoder {
+
+    /**
+     * Builds a page of this file from its bytes, as written by writePage.
+     * The buffer is read from its current position and not retained.
+     */
+    public Page decodePage(PageId pid, ByteBuffer data) throws IOException;
+}
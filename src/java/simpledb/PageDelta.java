@@ -0,0 +1,276 @@
+package simpledb;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * PageDelta computes and applies physiological changes between two images
+ * of a page, so that the log can record what an update did to a page rather
+ * than the whole page before and after it.
+ * <p>
+ * A delta is a list of operations.  A slot operation describes one slot of
+ * a page with a header bitmap, e.g. "insert slot k with bytes X" or "delete
+ * slot k (which held X)": the slot's bit before and after, and the bytes of
+ * the slot before and after wherever they are not zero.  The bytes of a slot
+ * may be spread over several arrays, as the key and child pointer of a B+
+ * tree entry are.  A range operation replaces a run of bytes outside of the
+ * slots, e.g. the parent and sibling pointers of a B+ tree page.
+ * <p>
+ * Operations carry the offsets they apply to, so applying a delta needs
+ * nothing but the bytes of the page.  Each operation keeps both its before
+ * and after bytes, so a delta can be redone on the before image and undone
+ * on the after image.
+ * <p>
+ * Deltas are computed for HeapPages and for B+ tree leaf, internal and
+ * header pages; other pages are logged as full images.
+ */
+class PageDelta {
+
+    static final byte SLOT = 1;
+    static final byte RANGE = 2;
+
+    private static final byte BEFORE_USED = 1;
+    private static final byte AFTER_USED = 2;
+    private static final byte BEFORE_BYTES = 4;
+    private static final byte AFTER_BYTES = 8;
+
+    /** Runs of changed bytes this close together are logged as one range. */
+    private static final int RANGE_GAP = 8;
+
+    /**
+     * Where the header bitmap and the slots are in the bytes of a page.
+     * Slot k has bit k of the bitmap, and a field of stride bytes in each
+     * array that covers it.
+     */
+    private static final class Layout {
+        final int headerOffset;
+        final int numSlots;
+        final int[][] arrays; // {offset, stride, first slot, number of slots}
+
+        Layout(int headerOffset, int numSlots, int[]... arrays) {
+            this.headerOffset = headerOffset;
+            this.numSlots = numSlots;
+            this.arrays = arrays;
+        }
+
+        int headerSize() {
+            return PageDelta.headerSize(numSlots);
+        }
+    }
+
+    private static int headerSize(int slots) {
+        return (slots + 7) / 8;
+    }
+
+    /** @return the layout of the page, or null if deltas are not supported for it */
+    private static Layout layout(Page p) {
+        if (p instanceof HeapPage) {
+            HeapPage hp = (HeapPage) p;
+            int h = headerSize(hp.numSlots);
+            return new Layout(0, hp.numSlots, new int[] { h, hp.td.getSize(), 0, hp.numSlots });
+        }
+        if (p instanceof BTreeLeafPage) {
+            BTreeLeafPage lp = (BTreeLeafPage) p;
+            int n = lp.getMaxTuples();
+            int pointers = 3 * BTreePage.INDEX_SIZE; // parent and siblings
+            return new Layout(pointers, n,
+                    new int[] { pointers + headerSize(n), lp.td.getSize(), 0, n });
+        }
+        if (p instanceof BTreeInternalPage) {
+            BTreeInternalPage ip = (BTreeInternalPage) p;
+            int m = ip.getMaxEntries();
+            int keySize = ip.td.getFieldType(ip.keyField).getLen();
+            int pointers = BTreePage.INDEX_SIZE + 1; // parent and child category
+            int keys = pointers + headerSize(m + 1);
+            // entry k is key k and child k; child 0 has no key
+            return new Layout(pointers, m + 1,
+                    new int[] { keys, keySize, 1, m },
+                    new int[] { keys + m * keySize, BTreePage.INDEX_SIZE, 0, m + 1 });
+        }
+        if (p instanceof BTreeHeaderPage) {
+            int pointers = 2 * BTreePage.INDEX_SIZE; // next and previous
+            return new Layout(pointers, BTreeHeaderPage.getNumSlots());
+        }
+        return null;
+    }
+
+    private static boolean bit(byte[] data, Layout l, int slot) {
+        return (data[l.headerOffset + slot / 8] & (1 << (slot % 8))) != 0;
+    }
+
+    /** @return the bytes of a slot, in array order */
+    private static byte[] slotBytes(byte[] data, Layout l, int slot) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int[] a : l.arrays) {
+            if (slot >= a[2] && slot < a[2] + a[3])
+                out.write(data, a[0] + (slot - a[2]) * a[1], a[1]);
+        }
+        return out.toByteArray();
+    }
+
+    private static boolean isZero(byte[] b) {
+        for (byte x : b) {
+            if (x != 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Computes the delta that turns the before image of a page into the
+     * after image.
+     *
+     * @return the delta, or null if the page is logged as full images
+     */
+    static byte[] diff(Page before, Page after) throws IOException {
+        Layout l = layout(after);
+        if (l == null)
+            return null;
+        byte[] b = before.getPageData();
+        byte[] a = after.getPageData();
+        if (b.length != a.length)
+            return null;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        int ops = 0;
+
+        boolean[] covered = new boolean[a.length];
+        Arrays.fill(covered, l.headerOffset, l.headerOffset + l.headerSize(), true);
+        for (int[] arr : l.arrays)
+            Arrays.fill(covered, arr[0], arr[0] + arr[1] * arr[3], true);
+
+        for (int k = 0; k < l.numSlots; k++) {
+            // skip unchanged header bytes without looking at their slots
+            if (k % 8 == 0 && l.arrays.length == 0
+                    && b[l.headerOffset + k / 8] == a[l.headerOffset + k / 8]) {
+                k += 7;
+                continue;
+            }
+            boolean bu = bit(b, l, k);
+            boolean au = bit(a, l, k);
+            byte[] bb = slotBytes(b, l, k);
+            byte[] ab = slotBytes(a, l, k);
+            if (bu == au && Arrays.equals(bb, ab))
+                continue;
+            boolean bz = isZero(bb);
+            boolean az = isZero(ab);
+            out.writeByte(SLOT);
+            out.writeInt(l.headerOffset);
+            out.writeInt(k);
+            out.writeByte((bu ? BEFORE_USED : 0) | (au ? AFTER_USED : 0)
+                    | (bz ? 0 : BEFORE_BYTES) | (az ? 0 : AFTER_BYTES));
+            int pieces = 0;
+            for (int[] arr : l.arrays) {
+                if (k >= arr[2] && k < arr[2] + arr[3])
+                    pieces++;
+            }
+            out.writeByte(pieces);
+            for (int[] arr : l.arrays) {
+                if (k >= arr[2] && k < arr[2] + arr[3]) {
+                    out.writeInt(arr[0] + (k - arr[2]) * arr[1]);
+                    out.writeShort(arr[1]);
+                }
+            }
+            if (!bz)
+                out.write(bb);
+            if (!az)
+                out.write(ab);
+            ops++;
+        }
+
+        // bytes outside of the header and the slots
+        int i = 0;
+        while (i < a.length) {
+            if (covered[i] || a[i] == b[i]) {
+                i++;
+                continue;
+            }
+            int start = i;
+            int end = i + 1;
+            for (int j = end; j < a.length && j < end + RANGE_GAP; j++) {
+                if (!covered[j] && a[j] != b[j])
+                    end = j + 1;
+                else if (covered[j])
+                    break;
+            }
+            out.writeByte(RANGE);
+            out.writeInt(start);
+            out.writeShort(end - start);
+            out.write(b, start, end - start);
+            out.write(a, start, end - start);
+            ops++;
+            i = end;
+        }
+
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        DataOutputStream d = new DataOutputStream(delta);
+        d.writeInt(ops);
+        d.write(bytes.toByteArray());
+        return delta.toByteArray();
+    }
+
+    /** Applies a delta to the before image of a page, turning it into the after image. */
+    static void redo(byte[] data, byte[] delta) throws IOException {
+        apply(data, delta, true);
+    }
+
+    /** Reverts a delta on the after image of a page, turning it into the before image. */
+    static void undo(byte[] data, byte[] delta) throws IOException {
+        apply(data, delta, false);
+    }
+
+    private static void apply(byte[] data, byte[] delta, boolean redo) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(delta));
+        int ops = in.readInt();
+        for (int op = 0; op < ops; op++) {
+            byte kind = in.readByte();
+            if (kind == SLOT) {
+                int headerOffset = in.readInt();
+                int k = in.readInt();
+                int flags = in.readByte();
+                int pieces = in.readByte();
+                int[] offsets = new int[pieces];
+                int[] lens = new int[pieces];
+                int len = 0;
+                for (int i = 0; i < pieces; i++) {
+                    offsets[i] = in.readInt();
+                    lens[i] = in.readUnsignedShort();
+                    len += lens[i];
+                }
+                byte[] before = new byte[len];
+                byte[] after = new byte[len];
+                if ((flags & BEFORE_BYTES) != 0)
+                    in.readFully(before);
+                if ((flags & AFTER_BYTES) != 0)
+                    in.readFully(after);
+                boolean used = (flags & (redo ? AFTER_USED : BEFORE_USED)) != 0;
+                byte[] src = redo ? after : before;
+                int mask = 1 << (k % 8);
+                if (used)
+                    data[headerOffset + k / 8] |= mask;
+                else
+                    data[headerOffset + k / 8] &= ~mask;
+                int at = 0;
+                for (int i = 0; i < pieces; i++) {
+                    System.arraycopy(src, at, data, offsets[i], lens[i]);
+                    at += lens[i];
+                }
+            } else if (kind == RANGE) {
+                int offset = in.readInt();
+                int len = in.readUnsignedShort();
+                byte[] before = new byte[len];
+                byte[] after = new byte[len];
+                in.readFully(before);
+                in.readFully(after);
+                System.arraycopy(redo ? after : before, 0, data, offset, len);
+            } else {
+                throw new IOException("unknown page delta operation " + kind);
+            }
+        }
+    }
+}
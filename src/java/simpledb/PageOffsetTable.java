@@ -0,0 +1,273 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * PageOffsetTable maps the logical page numbers of a CompressedHeapFile to
+ * the extents of its data file that hold the compressed pages.
+ * <p>
+ * The table is stored next to the data file as <code>&lt;file&gt;.pgt</code>:
+ * <pre>
+ *     int magic, int page size, 8 bytes codec name (zero padded)
+ *     one 16 byte entry per page: long offset, int capacity, int length
+ * </pre>
+ * An extent of <code>capacity</code> bytes starting at <code>offset</code>
+ * holds the <code>length</code> bytes of the compressed page.  A length of 0
+ * means the page has never been written and is all zeroes; a length equal to
+ * the page size means the page is stored uncompressed.  Unlike the
+ * FreeSpaceMap, the table is not a hint: every change to an entry is written
+ * through to the side file, after the extent it points to has been written.
+ * <p>
+ * A page is never rewritten in place: each new image goes to an extent no
+ * page points to, and the entry is changed afterwards, so a crash leaves the
+ * page at either its old or its new extent.  The extent a page leaves can
+ * be reused once the table has been forced, i.e. once no entry on disk can
+ * point to it any more; a free extent larger than needed is split.  When
+ * the table is loaded, the space of the data file no entry points to is
+ * free, so the extents left before a close or crash are reused as well.
+ *
+ * @Threadsafe
+ */
+class PageOffsetTable {
+
+    private static final int MAGIC = 0x50475431; // "PGT1"
+    static final int HEADER_SIZE = 16;
+    static final int ENTRY_SIZE = 16;
+
+    private final File tableFile;
+    private final String codecName;
+    private final int pageSize;
+
+    private long[] offsets = new long[16];
+    private int[] capacities = new int[16];
+    private int[] lengths = new int[16];
+    private int numPages = 0;
+    private long dataEnd = 0; // end of the last extent in the data file
+
+    // extents no page points to, by capacity
+    private final TreeMap<Integer,ArrayDeque<Long>> free = new TreeMap<Integer,ArrayDeque<Long>>();
+    // extents left since the last force, which entries on disk may still
+    // point to: offset and capacity
+    private final ArrayList<long[]> left = new ArrayList<long[]>();
+
+    private RandomAccessFile raf = null;
+    private FileChannel channel = null;
+
+    /**
+     * Loads the page table of a data file.  A data file without a table is
+     * taken to be an uncompressed heap file, and each of its pages is mapped
+     * to its original location.
+     *
+     * @param dataFile the data file of the CompressedHeapFile
+     * @param codecName the name of the codec the pages are compressed with
+     * @throws IOException if the table was written with another page size or
+     *   codec, or cannot be read
+     */
+    public PageOffsetTable(File dataFile, String codecName) throws IOException {
+        this.tableFile = new File(dataFile.getPath() + ".pgt");
+        this.codecName = codecName;
+        this.pageSize = BufferPool.getPageSize();
+        open();
+        if (channel.size() >= HEADER_SIZE) {
+            load();
+        } else {
+            writeHeader();
+            long len = dataFile.length();
+            for (int i = 0; i < len / pageSize; i++)
+                set(i, (long) i * pageSize, pageSize, pageSize);
+            dataEnd = len;
+        }
+    }
+
+    private synchronized void open() throws IOException {
+        if (channel != null && channel.isOpen())
+            return;
+        raf = new RandomAccessFile(tableFile, "rw");
+        channel = raf.getChannel();
+    }
+
+    /** Forces the table to disk, making the extents pages left reusable. */
+    public synchronized void force() throws IOException {
+        open();
+        channel.force(false);
+        for (long[] extent : left)
+            freeExtents((int) extent[1]).add(extent[0]);
+        left.clear();
+    }
+
+    private ArrayDeque<Long> freeExtents(int capacity) {
+        ArrayDeque<Long> q = free.get(capacity);
+        if (q == null) {
+            q = new ArrayDeque<Long>();
+            free.put(capacity, q);
+        }
+        return q;
+    }
+
+    /** Closes the side file; it is reopened when the table next changes. */
+    public synchronized void close() throws IOException {
+        if (raf != null)
+            raf.close();
+        raf = null;
+        channel = null;
+    }
+
+    private byte[] header() {
+        ByteBuffer bb = ByteBuffer.allocate(HEADER_SIZE);
+        bb.putInt(MAGIC);
+        bb.putInt(pageSize);
+        byte[] name = codecName.getBytes(StandardCharsets.US_ASCII);
+        bb.put(name, 0, Math.min(name.length, HEADER_SIZE - 8));
+        return bb.array();
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(header());
+        while (bb.hasRemaining())
+            channel.write(bb, bb.position());
+    }
+
+    private void load() throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate((int) channel.size());
+        while (bb.hasRemaining()) {
+            if (channel.read(bb, bb.position()) == -1)
+                break;
+        }
+        byte[] expected = header();
+        if (!Arrays.equals(expected, Arrays.copyOf(bb.array(), HEADER_SIZE)))
+            throw new IOException("page table " + tableFile
+                    + " does not match page size " + pageSize + " and codec " + codecName);
+
+        bb.flip();
+        bb.position(HEADER_SIZE);
+        int n = bb.remaining() / ENTRY_SIZE;
+        grow(n);
+        for (int i = 0; i < n; i++) {
+            offsets[i] = bb.getLong();
+            capacities[i] = bb.getInt();
+            lengths[i] = bb.getInt();
+            dataEnd = Math.max(dataEnd, offsets[i] + capacities[i]);
+        }
+        numPages = n;
+        findFree();
+    }
+
+    /** Frees the gaps between the extents the pages point to. */
+    private void findFree() {
+        ArrayList<long[]> extents = new ArrayList<long[]>();
+        for (int i = 0; i < numPages; i++) {
+            if (capacities[i] > 0)
+                extents.add(new long[] { offsets[i], capacities[i] });
+        }
+        Collections.sort(extents, new Comparator<long[]>() {
+            public int compare(long[] a, long[] b) {
+                return Long.compare(a[0], b[0]);
+            }
+        });
+        long end = 0;
+        for (long[] extent : extents) {
+            if (extent[0] > end)
+                freeExtents((int) (extent[0] - end)).add(end);
+            end = Math.max(end, extent[0] + extent[1]);
+        }
+    }
+
+    private void grow(int n) {
+        if (n <= offsets.length)
+            return;
+        int size = Math.max(n, offsets.length * 2);
+        offsets = Arrays.copyOf(offsets, size);
+        capacities = Arrays.copyOf(capacities, size);
+        lengths = Arrays.copyOf(lengths, size);
+    }
+
+    /** @return the number of pages in the table */
+    public synchronized int numPages() {
+        return numPages;
+    }
+
+    /** @return the data file offset of the extent of the given page */
+    public synchronized long getOffset(int pgno) {
+        return offsets[pgno];
+    }
+
+    /** @return the size of the extent of the given page */
+    public synchronized int getCapacity(int pgno) {
+        return capacities[pgno];
+    }
+
+    /** @return the length of the stored page, 0 if it was never written */
+    public synchronized int getLength(int pgno) {
+        return lengths[pgno];
+    }
+
+    /**
+     * Reserves an extent of the given size that no page points to: the
+     * smallest free one that is large enough, whose rest stays free, or a
+     * new one at the end of the data file.  The caller writes the page there
+     * and then points the page at it with {@link #set}.
+     *
+     * @return the offset of the extent
+     */
+    public synchronized long reserve(int capacity) {
+        Map.Entry<Integer,ArrayDeque<Long>> e = free.ceilingEntry(capacity);
+        if (e != null) {
+            long offset = e.getValue().poll();
+            if (e.getValue().isEmpty())
+                free.remove(e.getKey());
+            if (e.getKey() > capacity)
+                freeExtents(e.getKey() - capacity).add(offset + capacity);
+            return offset;
+        }
+        long offset = dataEnd;
+        dataEnd += capacity;
+        return offset;
+    }
+
+    /**
+     * Adds an empty page to the end of the table.
+     *
+     * @return the number of the new page
+     */
+    public synchronized int append() throws IOException {
+        int pgno = numPages;
+        set(pgno, 0, 0, 0);
+        return pgno;
+    }
+
+    /**
+     * Points the given page at an extent of the data file and writes the
+     * entry through to the side file.  Pages past the end of the table extend
+     * it with empty pages.  The extent the page pointed to before can be
+     * reserved again after the next {@link #force}.
+     */
+    public synchronized void set(int pgno, long offset, int capacity, int length) throws IOException {
+        grow(pgno + 1);
+        for (int i = numPages; i < pgno; i++)
+            set(i, 0, 0, 0);
+        if (pgno < numPages && capacities[pgno] > 0 && offsets[pgno] != offset)
+            left.add(new long[] { offsets[pgno], capacities[pgno] });
+        offsets[pgno] = offset;
+        capacities[pgno] = capacity;
+        lengths[pgno] = length;
+        numPages = Math.max(numPages, pgno + 1);
+
+        open();
+        ByteBuffer bb = ByteBuffer.allocate(ENTRY_SIZE);
+        bb.putLong(offset).putInt(capacity).putInt(length);
+        bb.flip();
+        long pos = HEADER_SIZE + (long) pgno * ENTRY_SIZE;
+        while (bb.hasRemaining())
+            channel.write(bb, pos + bb.position());
+    }
+}
@@ -0,0 +1,91 @@
+package simpledb;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PageWriter is the background writer of a BufferPool.  Every
+ * {@link #DELAY} ms it checks how many pages of the pool are dirty, and if
+ * that is more than the pool's dirty ratio allows, writes some of them out
+ * (see {@link BufferPool#writeDirtyPages}), so that evictions find clean
+ * pages instead of having to write one first.  Optionally it also takes a
+ * checkpoint of the log every {@link #CHECKPOINT_INTERVAL} ms.  Only the
+ * pool of the running Database is written by its PageWriter.
+ * <p>
+ * All pools share one writer thread.  A PageWriter only keeps a weak
+ * reference to its pool and stops once the pool is garbage collected, since
+ * tests create a new pool per test and never shut the old one down.
+ */
+class PageWriter implements Runnable {
+
+    /** Interval between two rounds of the writer, in ms. */
+    static final long DELAY = Long.getLong("simpledb.bgwriter.delay", 200);
+
+    /**
+     * Interval between two checkpoints, in ms; 0 (the default) takes no
+     * checkpoints.
+     */
+    static final long CHECKPOINT_INTERVAL = Long.getLong("simpledb.checkpoint.interval", 0);
+
+    private static ScheduledExecutorService writerPool = null;
+
+    private final WeakReference<BufferPool> pool;
+    private volatile ScheduledFuture<?> task;
+    private long lastCheckpoint = System.currentTimeMillis();
+
+    private PageWriter(BufferPool bp) {
+        this.pool = new WeakReference<BufferPool>(bp);
+    }
+
+    /** Starts a background writer for the given pool. */
+    static void start(BufferPool bp) {
+        PageWriter w = new PageWriter(bp);
+        w.task = getWriterPool().scheduleWithFixedDelay(w, DELAY, DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    public void run() {
+        BufferPool bp = pool.get();
+        if (bp == null) {
+            ScheduledFuture<?> t = task;
+            if (t != null)
+                t.cancel(false);
+            return;
+        }
+        // a pool replaced by Database.reset() or resetBufferPool() caches
+        // pages of tables the current catalog may no longer know
+        if (Database.getBufferPool() != bp)
+            return;
+        try {
+            bp.writeDirtyPages();
+            long now = System.currentTimeMillis();
+            if (CHECKPOINT_INTERVAL > 0 && now - lastCheckpoint >= CHECKPOINT_INTERVAL) {
+                lastCheckpoint = now;
+                Database.getLogFile().logCheckpoint();
+            }
+        } catch (IOException e) {
+            // try again next round
+            e.printStackTrace();
+        } catch (RuntimeException e) {
+            // e.g. a table dropped from the catalog; must not kill the task
+            e.printStackTrace();
+        }
+    }
+
+    private static synchronized ScheduledExecutorService getWriterPool() {
+        if (writerPool == null) {
+            writerPool = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "simpledb-pagewriter");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return writerPool;
+    }
+}
@@ -0,0 +1,230 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * ParallelRedo applies the page updates of the redo pass of recovery on a
+ * pool of worker threads.  The records are partitioned by page: all the
+ * records of a page go to the same worker, in the order they were added,
+ * so each page sees its records in LSN order while different pages are
+ * redone in parallel.  A worker applies the records of its pages to their
+ * images in memory (only a page whose first record is a delta needs its
+ * bytes from disk), and writes them in file order.  It holds at most a
+ * given number of pages: when a record needs one more, all the pages it
+ * holds are written first.  A page written early has all its records up to
+ * that point applied, so its later records start from the written bytes.
+ * <p>
+ * The records are handed over in batches, and a worker holds only a few
+ * batches at a time, so the thread reading the log does not run ahead of
+ * the workers by more than that.
+ */
+class ParallelRedo {
+
+    /**
+     * Number of worker threads.  Can be overridden with the
+     * simpledb.recovery.threads system property.
+     */
+    static final int THREADS = Integer.getInteger("simpledb.recovery.threads",
+            Runtime.getRuntime().availableProcessors());
+
+    /** Number of records handed to a worker at once. */
+    static final int BATCH = 256;
+
+    /** Number of batches a worker may have waiting. */
+    static final int QUEUED_BATCHES = 8;
+
+    /**
+     * Number of pages a worker holds in memory.  Can be overridden with the
+     * simpledb.recovery.pages system property.
+     */
+    static final int MAX_PAGES = Integer.getInteger("simpledb.recovery.pages", 1024);
+
+    private static final List<LogRecord> END = Collections.emptyList();
+
+    private final Worker[] workers;
+    private final ArrayList<ArrayList<LogRecord>> batches = new ArrayList<ArrayList<LogRecord>>();
+
+    /**
+     * Starts the given number of workers.
+     *
+     * @param maxPages the number of pages each worker holds in memory
+     */
+    ParallelRedo(int threads, int maxPages) {
+        workers = new Worker[Math.max(1, threads)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(Math.max(1, maxPages));
+            batches.add(new ArrayList<LogRecord>(BATCH));
+            Thread t = new Thread(workers[i], "simpledb-redo-" + i);
+            t.setDaemon(true);
+            workers[i].thread = t;
+            t.start();
+        }
+    }
+
+    /** @return the number of workers */
+    int getThreads() {
+        return workers.length;
+    }
+
+    /** @return the most pages a worker held in memory at once */
+    int getPeakPages() {
+        int peak = 0;
+        for (Worker w : workers)
+            peak = Math.max(peak, w.peak);
+        return peak;
+    }
+
+    /** Queues a page update for the worker of its page. */
+    void add(LogRecord rec) throws IOException {
+        int w = (rec.pid.hashCode() & Integer.MAX_VALUE) % workers.length;
+        ArrayList<LogRecord> batch = batches.get(w);
+        batch.add(rec);
+        if (batch.size() == BATCH) {
+            workers[w].put(batch);
+            batches.set(w, new ArrayList<LogRecord>(BATCH));
+        }
+    }
+
+    /**
+     * Waits until the workers applied all records and wrote their pages.
+     *
+     * @return the pages written
+     * @throws IOException if a worker failed
+     */
+    Set<PageId> finish() throws IOException {
+        for (int i = 0; i < workers.length; i++) {
+            if (!batches.get(i).isEmpty())
+                workers[i].put(batches.get(i));
+            workers[i].put(END);
+        }
+        Set<PageId> pages = new HashSet<PageId>();
+        Throwable failure = null;
+        for (Worker w : workers) {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    w.thread.join();
+                    break;
+                } catch (InterruptedException e) {
+                    // the workers write to the database files; wait for them
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+            if (w.failure != null && failure == null)
+                failure = w.failure;
+            pages.addAll(w.written);
+        }
+        if (failure instanceof IOException)
+            throw (IOException) failure;
+        if (failure != null)
+            throw new IOException("redo failed", failure);
+        return pages;
+    }
+
+    private static final Comparator<PageId> PAGE_ORDER = new Comparator<PageId>() {
+        public int compare(PageId a, PageId b) {
+            if (a.getTableId() != b.getTableId())
+                return a.getTableId() < b.getTableId() ? -1 : 1;
+            return a.pageNumber() - b.pageNumber();
+        }
+    };
+
+    private static class Worker implements Runnable {
+        private final BlockingQueue<List<LogRecord>> queue =
+                new ArrayBlockingQueue<List<LogRecord>>(QUEUED_BATCHES);
+        private final int maxPages;
+        private final Map<PageId, byte[]> pages = new HashMap<PageId, byte[]>();
+        final Set<PageId> written = new HashSet<PageId>();
+        volatile int peak = 0;
+        volatile Throwable failure = null;
+        Thread thread;
+
+        Worker(int maxPages) {
+            this.maxPages = maxPages;
+        }
+
+        void put(List<LogRecord> batch) throws IOException {
+            try {
+                queue.put(batch);
+            } catch (InterruptedException e) {
+                throw new IOException("interrupted while redoing the log", e);
+            }
+        }
+
+        public void run() {
+            try {
+                while (true) {
+                    List<LogRecord> batch = queue.take();
+                    if (batch == END)
+                        break;
+                    // after a failure, keep taking batches so the reader
+                    // does not block
+                    if (failure != null)
+                        continue;
+                    try {
+                        for (LogRecord rec : batch)
+                            apply(rec);
+                    } catch (Throwable e) {
+                        failure = e;
+                    }
+                }
+                if (failure == null)
+                    write();
+            } catch (Throwable e) {
+                failure = e;
+            }
+        }
+
+        private void apply(LogRecord rec) throws IOException {
+            byte[] data = pages.get(rec.pid);
+            if (data == null && pages.size() >= maxPages)
+                write();
+            if (rec.type == LogFile.DELTA_RECORD) {
+                if (data == null)
+                    data = LogFile.readImage(rec.pid);
+                PageDelta.redo(data, rec.delta);
+                pages.put(rec.pid, data);
+            } else {
+                pages.put(rec.pid, rec.after);
+            }
+            peak = Math.max(peak, pages.size());
+        }
+
+        /**
+         * Writes the pages this worker holds, each table's in one batch,
+         * and drops them.
+         */
+        private void write() throws IOException {
+            ArrayList<PageId> ids = new ArrayList<PageId>(pages.keySet());
+            Collections.sort(ids, PAGE_ORDER);
+            int i = 0;
+            while (i < ids.size()) {
+                int tableId = ids.get(i).getTableId();
+                DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+                ArrayList<Page> run = new ArrayList<Page>();
+                for (; i < ids.size() && ids.get(i).getTableId() == tableId; i++)
+                    run.add(LogFile.decodeImage(ids.get(i), pages.get(ids.get(i))));
+                if (file instanceof PageBatchWriter) {
+                    ((PageBatchWriter) file).writePages(run, true);
+                } else {
+                    for (Page p : run)
+                        file.writePage(p);
+                }
+            }
+            written.addAll(ids);
+            pages.clear();
+        }
+    }
+}
@@ -492,7 +492,28 @@ public class Parser {
         return curtrans;
     }
 
+    static final String SHOW_BUFFERPOOL = "show bufferpool";
+
+    /**
+     * Handles the statements of the shell that are not SQL.
+     *
+     * @param cmd a statement, with or without its trailing ';'
+     * @return true if the statement was handled
+     */
+    protected boolean processShellCommand(String cmd) {
+        cmd = cmd.trim();
+        if (cmd.endsWith(";"))
+            cmd = cmd.substring(0, cmd.length() - 1);
+        if (cmd.trim().replaceAll("\\s+", " ").equalsIgnoreCase(SHOW_BUFFERPOOL)) {
+            System.out.print(Database.getBufferPool().report());
+            return true;
+        }
+        return false;
+    }
+
     public void processNextStatement(String s) {
+        if (processShellCommand(s))
+            return;
         try {
             processNextStatement(new ByteArrayInputStream(s.getBytes("UTF-8")));
         } catch (UnsupportedEncodingException e) {
@@ -581,7 +602,7 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "show bufferpool" };
 
     public static void main(String argv[]) throws IOException {
 
@@ -681,6 +702,11 @@ public class Parser {
                         quit = true;
                         break;
                     }
+                    if (processShellCommand(cmd)) {
+                        line = line.substring(split + 1);
+                        buffer = new StringBuilder();
+                        continue;
+                    }
 
                     long startTime = System.currentTimeMillis();
                     processNextStatement(new ByteArrayInputStream(
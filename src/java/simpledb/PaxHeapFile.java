@@ -0,0 +1,36 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * PaxHeapFile is a HeapFile whose pages are stored in the columnar
+ * PaxHeapPage layout.  Scans that ask for a subset of the fields (see
+ * {@link HeapFile#iterator(TransactionId, int[])} and the projecting
+ * {@link SeqScan} constructor) only decode the minipages of those fields,
+ * which makes it a good fit for wide tables queried a few columns at a time.
+ * <p>
+ * Use {@link HeapFileEncoder#convertPax} to build a data file in this format,
+ * and the <code>format=pax</code> table option to load it through the
+ * Catalog.
+ *
+ * @see PaxHeapPage
+ */
+public class PaxHeapFile extends HeapFile {
+
+    /**
+     * Constructs a PAX heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     */
+    public PaxHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    @Override
+    TuplePage createPage(HeapPageId id, ByteBuffer data) throws IOException {
+        return new PaxHeapPage(id, data);
+    }
+}
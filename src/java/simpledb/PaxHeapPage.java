@@ -0,0 +1,347 @@
+package simpledb;
+
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * PaxHeapPage is a heap page in the PAX (Partition Attributes Across) layout:
+ * it holds the same tuples as a HeapPage of the same TupleDesc, but stores
+ * the values of each field together in a per-column "minipage" instead of
+ * storing whole records one after the other.  A scan that only needs a few
+ * fields reads and decodes just those minipages.  It is the page format of
+ * {@link PaxHeapFile}.
+ * <p>
+ * The page starts with the same slot bitmap as a HeapPage, followed by one
+ * minipage per field, in TupleDesc order:
+ * <pre>
+ *     header: ceiling(no. tuple slots / 8) bytes, one bit per slot
+ *     field 0 of slots 0 .. n-1
+ *     field 1 of slots 0 .. n-1
+ *     ...
+ *     zero padding
+ * </pre>
+ * where n is the number of tuple slots computed as in {@link HeapPage}, and
+ * each value is serialized as by {@link Field#serialize}.  Empty slots hold
+ * zeroes.  A page of all zeroes is a valid empty page.
+ *
+ * @see PaxHeapFile
+ * @see HeapPage
+ */
+public class PaxHeapPage implements TuplePage {
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    final int numSlots;
+
+    // the page bytes; shared with oldData until the page is first modified
+    private byte[] data;
+    private boolean copied = false;
+    private final Tuple[] tuples;
+
+    protected volatile boolean dirty = false;
+    protected volatile TransactionId dirtier = null;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a PaxHeapPage from a set of bytes of data read from disk, in
+     * the format described in the class comment.
+     */
+    public PaxHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a PaxHeapPage from a buffer holding the page's bytes.
+     *
+     * @see HeapPage#HeapPage(HeapPageId, ByteBuffer)
+     */
+    PaxHeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.data = HeapPage.rawBytes(data);
+        this.numSlots = getNumSlots(td, this.data.length);
+        this.tuples = new Tuple[numSlots];
+        synchronized (oldDataLock) {
+            oldData = this.data;
+        }
+    }
+
+    /**
+     * @return the number of tuple slots on a page of the given size
+     */
+    static int getNumSlots(TupleDesc td, int pageSize) {
+        return (pageSize * 8) / (td.getSize() * 8 + 1);
+    }
+
+    /**
+     * @return the offset of the given field of the given slot on a page
+     *   with numSlots slots
+     */
+    static int getValueOffset(TupleDesc td, int numSlots, int field, int slot) {
+        int headerSize = (numSlots + 7) / 8;
+        return headerSize + numSlots * td.getFieldOffset(field)
+                + slot * td.getFieldType(field).getLen();
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Return a view of this page before it was modified
+     * -- used by recovery
+     */
+    public PaxHeapPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new PaxHeapPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            // should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        byte[] newData = getPageData();
+        synchronized (oldDataLock) {
+            oldData = newData;
+        }
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Passing it to the PaxHeapPage constructor produces an identical page.
+     */
+    public synchronized byte[] getPageData() {
+        return data.clone();
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        if (dirty)
+            this.dirtier = tid;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if
+     * the page is not dirty
+     */
+    public TransactionId isDirty() {
+        if (this.dirty)
+            return this.dirtier;
+        else
+            return null;
+    }
+
+    /**
+     * Returns true if this page has an empty slot.
+     */
+    public boolean hasRoomFor(Tuple t) {
+        return getNumEmptySlots() > 0;
+    }
+
+    /**
+     * Adds the specified tuple to the first empty slot of the page; the tuple
+     * is updated to reflect that it is now stored on this page.
+     *
+     * @throws DbException if the page is full (no empty slots) or tupledesc
+     *                     is mismatch.
+     * @param t The tuple to add.
+     */
+    public synchronized void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("type mismatch, in insertTuple");
+
+        int emptySlot = -1;
+        for (int i = 0; i < numSlots && emptySlot == -1; i++)
+            if (!isSlotUsed(i))
+                emptySlot = i;
+        if (emptySlot == -1)
+            throw new DbException("called insertTuple on page with no empty slots.");
+
+        modify();
+        putTuple(data, td, numSlots, emptySlot, t);
+        t.setRecordId(new RecordId(pid, emptySlot));
+        tuples[emptySlot] = t;
+        updateFreeSpaceMap(getNumEmptySlots() > 0);
+    }
+
+    /**
+     * Delete the specified tuple from the page.
+     *
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *                     already empty.
+     * @param t The tuple to delete
+     */
+    public synchronized void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null)
+            throw new DbException("tried to delete tuple with null rid");
+        if (!rid.getPageId().equals(pid))
+            throw new DbException("tried to delete tuple on invalid page or table");
+        int slot = rid.tupleno();
+        if (slot < 0 || slot >= numSlots || !isSlotUsed(slot))
+            throw new DbException("tried to delete null tuple.");
+
+        modify();
+        data[slot / 8] &= ~(1 << (slot % 8));
+        for (int j = 0; j < td.numFields(); j++) {
+            int off = getValueOffset(td, numSlots, j, slot);
+            Arrays.fill(data, off, off + td.getFieldType(j).getLen(), (byte) 0);
+        }
+        tuples[slot] = null;
+        updateFreeSpaceMap(true);
+    }
+
+    /**
+     * Tells the free space map of the HeapFile this page belongs to whether
+     * the page has a free slot.
+     */
+    private void updateFreeSpaceMap(boolean hasFreeSlot) {
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        if (file instanceof HeapFile)
+            ((HeapFile) file).getFreeSpaceMap().update(pid.pageNumber(), hasFreeSlot);
+    }
+
+    /** Gives this page its own copy of the bytes before changing them. */
+    private void modify() {
+        if (!copied) {
+            data = data.clone();
+            copied = true;
+        }
+    }
+
+    /**
+     * Returns the number of empty slots on this page.
+     */
+    public int getNumEmptySlots() {
+        int cnt = 0;
+        for (int i = 0; i < numSlots; i++)
+            if (!isSlotUsed(i))
+                cnt++;
+        return cnt;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return (data[i / 8] & (1 << (i % 8))) != 0;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this
+     *         iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return new PaxPageIterator(null, null);
+    }
+
+    /**
+     * @return an iterator over the given fields of the tuples on this page;
+     *         only the minipages of those fields are read
+     */
+    public Iterator<Tuple> iterator(int[] columns, TupleDesc td) {
+        return new PaxPageIterator(columns, td);
+    }
+
+    // returns the whole tuple in slot i, decoding it on first access
+    Tuple getTuple(int i) {
+        Tuple t = tuples[i];
+        if (t == null) {
+            t = new Tuple(td);
+            for (int j = 0; j < td.numFields(); j++)
+                t.setField(j, getValue(j, i));
+            t.setRecordId(new RecordId(pid, i));
+            tuples[i] = t;
+        }
+        return t;
+    }
+
+    private Field getValue(int field, int slot) {
+        return td.getFieldType(field).parse(data, getValueOffset(td, numSlots, field, slot));
+    }
+
+    /**
+     * Iterates over the used slots, returning either the whole tuples or
+     * tuples of just the requested fields.
+     */
+    private class PaxPageIterator implements Iterator<Tuple> {
+        private final int[] columns;
+        private final TupleDesc outTd;
+        private int next;
+
+        PaxPageIterator(int[] columns, TupleDesc outTd) {
+            this.columns = columns;
+            this.outTd = outTd;
+            this.next = advance(0);
+        }
+
+        private int advance(int i) {
+            while (i < numSlots && !isSlotUsed(i))
+                i++;
+            return i;
+        }
+
+        public boolean hasNext() {
+            return next < numSlots;
+        }
+
+        public Tuple next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            int slot = next;
+            next = advance(next + 1);
+            if (columns == null)
+                return getTuple(slot);
+
+            Tuple t = new Tuple(outTd);
+            for (int j = 0; j < columns.length; j++)
+                t.setField(j, getValue(columns[j], slot));
+            t.setRecordId(new RecordId(pid, slot));
+            return t;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Stores the fields of t in the given slot of a page with numSlots slots
+     * and marks the slot used.
+     */
+    static void putTuple(byte[] page, TupleDesc td, int numSlots, int slot, Tuple t) {
+        page[slot / 8] |= 1 << (slot % 8);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(Type.STRING_TYPE.getLen());
+        DataOutputStream dos = new DataOutputStream(baos);
+        for (int j = 0; j < td.numFields(); j++) {
+            baos.reset();
+            try {
+                t.getField(j).serialize(dos);
+                dos.flush();
+            } catch (IOException e) {
+                // this really shouldn't happen
+                throw new RuntimeException(e);
+            }
+            byte[] value = baos.toByteArray();
+            System.arraycopy(value, 0, page, getValueOffset(td, numSlots, j, slot),
+                    td.getFieldType(j).getLen());
+        }
+    }
+}
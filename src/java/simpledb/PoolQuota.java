@@ -0,0 +1,67 @@
+package simpledb;
+
+/**
+ * PoolQuota is a partition of the BufferPool: the frames reserved for and
+ * the frames allowed to a table, or to all tables of a tablespace together.
+ * The pool does not evict pages of a partition that holds no more than its
+ * minimum, and a partition at its maximum makes room for a new page by
+ * evicting one of its own pages rather than someone else's.
+ * <p>
+ * Quotas are set through the Catalog, e.g. with the <code>minpages</code>
+ * and <code>maxpages</code> options of the schema file.  Changing the limits
+ * of a quota keeps the partition, so the pages it already holds stay
+ * accounted to it.
+ *
+ * @Threadsafe
+ */
+public class PoolQuota {
+
+    /** Maximum of a partition without one. */
+    public static final int UNLIMITED = Integer.MAX_VALUE;
+
+    private final String name;
+    private volatile int minPages;
+    private volatile int maxPages;
+
+    /**
+     * @param name the table or tablespace the quota is for
+     * @param minPages the number of frames reserved for the partition
+     * @param maxPages the most frames the partition may take up, or
+     *   {@link #UNLIMITED}
+     */
+    public PoolQuota(String name, int minPages, int maxPages) {
+        this.name = name;
+        setLimits(minPages, maxPages);
+    }
+
+    /**
+     * Changes the limits of this quota.
+     *
+     * @throws IllegalArgumentException if minPages is negative or larger
+     *   than maxPages
+     */
+    public void setLimits(int minPages, int maxPages) {
+        if (minPages < 0 || maxPages < minPages)
+            throw new IllegalArgumentException("invalid buffer pool quota for " + name + ": min "
+                    + minPages + ", max " + maxPages);
+        this.minPages = minPages;
+        this.maxPages = maxPages;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMinPages() {
+        return minPages;
+    }
+
+    public int getMaxPages() {
+        return maxPages;
+    }
+
+    public String toString() {
+        return name + " (min " + minPages + ", max "
+                + (maxPages == UNLIMITED ? "unlimited" : Integer.toString(maxPages)) + ")";
+    }
+}
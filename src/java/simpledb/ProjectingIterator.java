@@ -0,0 +1,34 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterator that projects the tuples of another iterator onto a subset of
+ * their fields.
+ */
+class ProjectingIterator implements Iterator<Tuple> {
+    private final Iterator<Tuple> it;
+    private final int[] columns;
+    private final TupleDesc td;
+
+    public ProjectingIterator(Iterator<Tuple> it, int[] columns, TupleDesc td) {
+        this.it = it;
+        this.columns = columns;
+        this.td = td;
+    }
+
+    public boolean hasNext() {
+        return it.hasNext();
+    }
+
+    public Tuple next() {
+        if (!it.hasNext())
+            throw new NoSuchElementException();
+        return it.next().project(columns, td);
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,113 @@
+package simpledb;
+
+/**
+ * ReadAhead detects sequential page access by a scan over a HeapFile and
+ * asks the BufferPool to asynchronously read the next pages, so that the
+ * disk reads overlap with the tuple processing done by the operators above
+ * the scan.
+ * <p>
+ * The read-ahead depth adapts to the speed of the scan: it is the number of
+ * pages the scan consumes while one page read is in flight (the pool's
+ * average read latency divided by the time the scan spends on each page),
+ * plus some slack, capped at {@link BufferPool#getMaxReadAhead}.  A fast scan
+ * feeding a cheap Filter reads further ahead than one feeding an expensive
+ * Join.  Read-ahead stops as soon as the scan jumps to a non-adjacent page.
+ * <p>
+ * Pages read ahead that the scan does not get to, because it jumps or is
+ * closed, rewound or aborted, are dropped from the pool's read-ahead area;
+ * otherwise they would fill it up for good.
+ */
+class ReadAhead {
+
+    private static final int INITIAL_WINDOW = 2;
+
+    private final int tableid;
+    private int lastPgno = -2;
+    private int prefetchedUpTo = -1;
+    private long lastAccess = 0;
+    private long avgIntervalNanos = 0; // moving average of time spent per page
+
+    /**
+     * @param tableid the id of the HeapFile being scanned
+     */
+    public ReadAhead(int tableid) {
+        this.tableid = tableid;
+    }
+
+    /**
+     * Notes that the scan is about to read page pgno, and reads ahead of it if
+     * access has been sequential.
+     *
+     * @param pgno the page the scan is about to read
+     * @param numPages the number of pages in the file
+     */
+    public void access(int pgno, int numPages) {
+        long now = System.nanoTime();
+        if (pgno != lastPgno + 1) {
+            // not sequential (or the first page); start over
+            drop(lastPgno + 1, prefetchedUpTo, pgno);
+            lastPgno = pgno;
+            lastAccess = now;
+            prefetchedUpTo = pgno;
+            avgIntervalNanos = 0;
+            return;
+        }
+
+        long interval = now - lastAccess;
+        avgIntervalNanos = avgIntervalNanos == 0 ? interval : (avgIntervalNanos * 3 + interval) / 4;
+        lastPgno = pgno;
+        lastAccess = now;
+
+        BufferPool bp = Database.getBufferPool();
+        int end = Math.min(pgno + window(bp), numPages - 1);
+        for (int p = Math.max(prefetchedUpTo, pgno) + 1; p <= end; p++) {
+            if (!bp.prefetchPage(new HeapPageId(tableid, p)))
+                break;
+            prefetchedUpTo = p;
+        }
+    }
+
+    /**
+     * Drops the pages read ahead that the scan did not read yet, and starts
+     * over.  Called when the scan is closed, rewound or aborted.
+     */
+    public void cancel() {
+        drop(lastPgno, prefetchedUpTo, -1);
+        lastPgno = -2;
+        prefetchedUpTo = -1;
+        lastAccess = 0;
+        avgIntervalNanos = 0;
+    }
+
+    /** Drops the pages from first to last read ahead, except page keep. */
+    private void drop(int first, int last, int keep) {
+        BufferPool bp = Database.getBufferPool();
+        for (int p = Math.max(first, 0); p <= last; p++) {
+            if (p != keep)
+                bp.cancelReadAhead(new HeapPageId(tableid, p));
+        }
+    }
+
+    /** @return the number of pages to keep in flight ahead of the scan */
+    private int window(BufferPool bp) {
+        return window(bp.getMaxReadAhead(), bp.getAverageReadNanos(), avgIntervalNanos);
+    }
+
+    /**
+     * @param max the most pages that may be read ahead
+     * @param readNanos the average time to read a page
+     * @param intervalNanos the average time the scan spends on a page
+     * @return the number of pages to keep in flight ahead of the scan
+     */
+    static int window(int max, long readNanos, long intervalNanos) {
+        if (readNanos == 0 || intervalNanos == 0)
+            return Math.min(INITIAL_WINDOW, max);
+        long w = readNanos / intervalNanos + INITIAL_WINDOW;
+        return (int) Math.min(max, w);
+    }
+
+    /** @return the last page read ahead of the scan */
+    int getPrefetchedUpTo() {
+        return prefetchedUpTo;
+    }
+}
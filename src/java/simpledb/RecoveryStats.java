@@ -0,0 +1,102 @@
+package simpledb;
+
+/**
+ * RecoveryStats is what a run of {@link LogFile#recover} did and how long
+ * each of its passes took.  Redo time grows with the log written since the
+ * last checkpoint, so the redo rate tells how often to take checkpoints
+ * (see {@link LogFile#getBytesSinceCheckpoint}) to keep restarts within a
+ * given time.
+ */
+public class RecoveryStats {
+
+    long checkpointLsn = LogFile.NO_CHECKPOINT_ID;
+    long redoStartLsn;
+    long endLsn;
+    int losers;
+    long recordsRedone;
+    int pagesRedone;
+    int redoThreads = 1;
+    int peakRedoPages;
+    long recordsUndone;
+    long analysisNanos;
+    long redoNanos;
+    long undoNanos;
+
+    /** @return the LSN of the checkpoint recovery started from, or -1 */
+    public long getCheckpointLsn() {
+        return checkpointLsn;
+    }
+
+    /** @return the bytes of log from the start of redo to the end of the log */
+    public long getRedoBytes() {
+        return endLsn - redoStartLsn;
+    }
+
+    /** @return the number of transactions rolled back */
+    public int getLosers() {
+        return losers;
+    }
+
+    /** @return the number of page updates redone */
+    public long getRecordsRedone() {
+        return recordsRedone;
+    }
+
+    /** @return the number of pages written by redo */
+    public int getPagesRedone() {
+        return pagesRedone;
+    }
+
+    /** @return the number of threads that redid the pages */
+    public int getRedoThreads() {
+        return redoThreads;
+    }
+
+    /** @return the most pages a redo thread held in memory at once */
+    public int getPeakRedoPages() {
+        return peakRedoPages;
+    }
+
+    /** @return the number of page updates of losers undone */
+    public long getRecordsUndone() {
+        return recordsUndone;
+    }
+
+    public long getAnalysisNanos() {
+        return analysisNanos;
+    }
+
+    public long getRedoNanos() {
+        return redoNanos;
+    }
+
+    public long getUndoNanos() {
+        return undoNanos;
+    }
+
+    public long getTotalNanos() {
+        return analysisNanos + redoNanos + undoNanos;
+    }
+
+    /** @return the bytes of log redone per second, or 0 if there was nothing to redo */
+    public long getRedoBytesPerSecond() {
+        long nanos = analysisNanos + redoNanos;
+        return nanos == 0 ? 0 : (long) (getRedoBytes() * 1e9 / nanos);
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.1f ms", nanos / 1e6);
+    }
+
+    public String toString() {
+        return "recovery took " + millis(getTotalNanos()) + " for " + getRedoBytes()
+                + " bytes of log since " + (checkpointLsn == LogFile.NO_CHECKPOINT_ID
+                        ? "the start of the log" : "the checkpoint at " + checkpointLsn)
+                + ": analysis " + millis(analysisNanos)
+                + ", redo " + millis(redoNanos) + " (" + recordsRedone + " records on "
+                + pagesRedone + " pages on " + redoThreads + " threads, "
+                + getRedoBytesPerSecond() / 1024 + " KB/s)"
+                + ", undo " + millis(undoNanos) + " (" + recordsUndone + " records of "
+                + losers + " transactions)";
+    }
+}
@@ -0,0 +1,88 @@
+package simpledb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * PageCodec using byte-level run-length encoding in the PackBits format:
+ * each run starts with a control byte n, followed either by n+1 literal
+ * bytes (0 &lt;= n &lt;= 127) or by one byte repeated 1-n times
+ * (-127 &lt;= n &lt;= -1).  It is much cheaper than {@link DeflatePageCodec}
+ * and compresses the zero-filled empty slots, slot bitmaps and string padding
+ * of sparsely filled pages nearly as well, but does little for dense pages.
+ */
+public class RlePageCodec implements PageCodec {
+
+    private static final int MAX_RUN = 128;
+
+    public String getName() {
+        return "rle";
+    }
+
+    public byte[] compress(byte[] page) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(page.length / 4);
+        int i = 0;
+        int literalStart = 0;
+        while (i < page.length) {
+            int run = 1;
+            while (i + run < page.length && run < MAX_RUN && page[i + run] == page[i])
+                run++;
+            // runs of two are cheaper as part of a literal
+            if (run < 3) {
+                i += run;
+                if (i - literalStart >= MAX_RUN) {
+                    writeLiteral(out, page, literalStart, MAX_RUN);
+                    literalStart += MAX_RUN;
+                }
+                continue;
+            }
+            writeLiteral(out, page, literalStart, i - literalStart);
+            out.write(1 - run);
+            out.write(page[i]);
+            i += run;
+            literalStart = i;
+        }
+        // a trailing two-byte run may leave a literal of up to MAX_RUN + 1
+        while (literalStart < page.length) {
+            int len = Math.min(MAX_RUN, page.length - literalStart);
+            writeLiteral(out, page, literalStart, len);
+            literalStart += len;
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeLiteral(ByteArrayOutputStream out, byte[] page, int start, int len) {
+        while (len > 0) {
+            int n = Math.min(MAX_RUN, len);
+            out.write(n - 1);
+            out.write(page, start, n);
+            start += n;
+            len -= n;
+        }
+    }
+
+    public byte[] decompress(byte[] data, int pageSize) throws IOException {
+        byte[] page = new byte[pageSize];
+        int in = 0;
+        int out = 0;
+        while (in < data.length) {
+            int n = data[in++];
+            if (n >= 0) {
+                if (in + n + 1 > data.length || out + n + 1 > pageSize)
+                    throw new IOException("corrupt run-length encoded page");
+                System.arraycopy(data, in, page, out, n + 1);
+                in += n + 1;
+                out += n + 1;
+            } else if (n != -128) {
+                if (in >= data.length || out + 1 - n > pageSize)
+                    throw new IOException("corrupt run-length encoded page");
+                byte b = data[in++];
+                for (int k = 0; k < 1 - n; k++)
+                    page[out++] = b;
+            }
+        }
+        if (out != pageSize)
+            throw new IOException("run-length encoded page is truncated");
+        return page;
+    }
+}
@@ -0,0 +1,60 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * ScanRing is the private set of frames a large sequential scan reads its
+ * pages into, like the "bulk read" buffer access strategy of PostgreSQL.
+ * Pages read through a ring are not given to the eviction policy of the
+ * BufferPool; once the ring is full, each new page takes the frame of the
+ * oldest page of the ring.  A scan over a table much larger than the pool
+ * thus only ever occupies a few frames and leaves the other cached pages
+ * alone.
+ * <p>
+ * A ring page that someone else requests without the ring, or that is
+ * dirtied, is handed over to the eviction policy instead of being recycled.
+ * Rings are obtained from {@link BufferPool#getScanRing}, and given back
+ * with {@link BufferPool#releaseScanRing} when their scan is closed or
+ * rewound.
+ *
+ * @Threadsafe
+ */
+class ScanRing {
+
+    private final PageId[] slots;
+    private int next = 0;
+
+    /**
+     * @param size the number of frames in the ring
+     */
+    ScanRing(int size) {
+        this.slots = new PageId[size];
+    }
+
+    /** @return the number of frames in the ring */
+    public int size() {
+        return slots.length;
+    }
+
+    /**
+     * @return the page in the frame the next page read through the ring
+     *   goes to, or null if that frame was never used
+     */
+    public synchronized PageId victim() {
+        return slots[next];
+    }
+
+    /** Puts a page in the frame returned by {@link #victim} and moves on. */
+    public synchronized void add(PageId pid) {
+        slots[next] = pid;
+        next = (next + 1) % slots.length;
+    }
+
+    /** Empties the ring, returning the pages that were in its frames. */
+    public synchronized PageId[] clear() {
+        PageId[] pids = slots.clone();
+        Arrays.fill(slots, null);
+        next = 0;
+        return pids;
+    }
+}
@@ -18,6 +18,11 @@ public class SeqScan implements DbIterator {
 	// private transient int tableid;
 	private String tablename;
 	private String alias;
+	// fields of the table to return, or null for all of them
+	private int[] columns = null;
+	// true if the DbFile can't project, so next() has to
+	private boolean projectTuples = false;
+	private TupleDesc projectedTd;
 
 	/**
 	 * Creates a sequential scan over the specified table as a part of the specified
@@ -40,6 +45,33 @@ public class SeqScan implements DbIterator {
 		reset(tableid, tableAlias);
 	}
 
+	/**
+	 * Creates a sequential scan that returns only some of the fields of the
+	 * specified table.  The returned tuples (and the TupleDesc) hold just
+	 * those fields, in the given order; HeapFiles skip decoding the others.
+	 *
+	 * @param tid
+	 *            The transaction this scan is running as a part of.
+	 * @param tableid
+	 *            the table to scan.
+	 * @param tableAlias
+	 *            the alias of this table
+	 * @param columns
+	 *            indices of the table's fields to return, or null for all
+	 */
+	public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns) {
+		this.tid = tid;
+		init(tableid, tableAlias, columns);
+	}
+
+	/**
+	 * @return the indices of the table's fields this scan returns, or null if
+	 *         it returns all of them
+	 */
+	public int[] getColumns() {
+		return columns;
+	}
+
 	/**
 	 * @return return the table name of the table the operator scans. This should be
 	 *         the actual name of the table in the catalog of the database
@@ -66,15 +98,36 @@ public class SeqScan implements DbIterator {
 	 *            this class is not responsible for handling a case where tableAlias
 	 *            or fieldName are null. It shouldn't crash if they are, but the
 	 *            resulting name can be null.fieldName, tableAlias.null, or
-	 *            null.null).
+	 *            null.null).  Any projection set in the constructor is
+	 *            dropped; the scan returns all fields of the new table.
 	 */
 	public void reset(int tableid, String tableAlias) {
+		init(tableid, tableAlias, null);
+	}
+
+	private void init(int tableid, String tableAlias, int[] columns) {
 		// this.tableid = tableid;
 		this.isOpen = false;
+		this.columns = columns;
 		this.alias = tableAlias;
 		this.tablename = Database.getCatalog().getTableName(tableid);
-		this.it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+		DbFile file = Database.getCatalog().getDatabaseFile(tableid);
 		myTd = Database.getCatalog().getTupleDesc(tableid);
+		if (columns == null) {
+			this.it = file.iterator(tid);
+			this.projectTuples = false;
+		}
+		else if (file instanceof HeapFile) {
+			this.it = ((HeapFile) file).iterator(tid, columns);
+			this.projectTuples = false;
+		}
+		else {
+			this.it = file.iterator(tid);
+			this.projectTuples = true;
+			this.projectedTd = myTd.project(columns);
+		}
+		if (columns != null)
+			myTd = myTd.project(columns);
 		String[] newNames = new String[myTd.numFields()];
 		Type[] newTypes = new Type[myTd.numFields()];
 		for (int i = 0; i < myTd.numFields(); i++) {
@@ -122,8 +175,10 @@ public class SeqScan implements DbIterator {
 		if (!isOpen)
 			throw new IllegalStateException("iterator is closed");
 
-		return it.next();
-
+		Tuple t = it.next();
+		if (projectTuples)
+			t = t.project(columns, projectedTd);
+		return t;
 	}
 
 	public void close() {
@@ -0,0 +1,36 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * SlottedHeapFile is a HeapFile whose pages are stored in the variable-length
+ * SlottedHeapPage format rather than as fixed-size HeapPage slots.  Short
+ * strings only take as much room as they need, so many more tuples fit on a
+ * page.  Everything else (page I/O, free space tracking, iteration, RecordId
+ * semantics) is inherited from HeapFile.
+ * <p>
+ * Use {@link HeapFileEncoder#convertSlotted} to build a data file in this
+ * format, and the <code>format=slotted</code> table option to load it
+ * through the Catalog.
+ *
+ * @see SlottedHeapPage
+ */
+public class SlottedHeapFile extends HeapFile {
+
+    /**
+     * Constructs a slotted heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     */
+    public SlottedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    @Override
+    TuplePage createPage(HeapPageId id, ByteBuffer data) throws IOException {
+        return new SlottedHeapPage(id, data);
+    }
+}
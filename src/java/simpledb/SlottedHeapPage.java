@@ -0,0 +1,465 @@
+package simpledb;
+
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * SlottedHeapPage is a heap page that stores variable-length records behind a
+ * slot directory, so a string only takes as many bytes as it has characters
+ * instead of a fixed {@link Type#STRING_LEN}.  It is the page format of
+ * {@link SlottedHeapFile}.
+ * <p>
+ * The page starts with a small header and the slot directory, which grows
+ * towards the end of the page, while records are packed from the end of the
+ * page backwards:
+ * <pre>
+ *     u16 number of slots in the directory
+ *     u16 offset of the first record byte (0 if there are no records)
+ *     per slot: u16 record offset (0 if the slot is empty), u16 record length
+ *     ... free space ...
+ *     records
+ * </pre>
+ * All values are big-endian.  A record holds its fields in TupleDesc order:
+ * an int field takes 4 bytes, a string field a u16 length followed by that
+ * many bytes.  A page of all zeroes is a valid empty page.
+ * <p>
+ * A tuple's slot number never changes while it is on the page, so RecordIds
+ * stay valid when the records are compacted to reclaim space left behind by
+ * deletes.  Tuples are decoded only when they are first accessed.
+ *
+ * @see SlottedHeapFile
+ * @see BufferPool
+ */
+public class SlottedHeapPage implements TuplePage {
+
+    static final int HEADER_SIZE = 4;
+    static final int SLOT_SIZE = 4;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+
+    // the page bytes; shared with oldData until the page is first modified
+    private byte[] data;
+    private boolean copied = false;
+    private Tuple[] tuples;
+
+    protected volatile boolean dirty = false;
+    protected volatile TransactionId dirtier = null;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a SlottedHeapPage from a set of bytes of data read from disk,
+     * in the format described in the class comment.
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a SlottedHeapPage from a buffer holding the page's bytes.
+     *
+     * @see HeapPage#HeapPage(HeapPageId, ByteBuffer)
+     */
+    SlottedHeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.data = HeapPage.rawBytes(data);
+        this.tuples = new Tuple[getNumSlots(this.data)];
+        synchronized (oldDataLock) {
+            oldData = this.data;
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Return a view of this page before it was modified
+     * -- used by recovery
+     */
+    public SlottedHeapPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new SlottedHeapPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            // should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        byte[] newData = getPageData();
+        synchronized (oldDataLock) {
+            oldData = newData;
+        }
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Passing it to the SlottedHeapPage constructor produces an identical
+     * page.
+     */
+    public synchronized byte[] getPageData() {
+        return data.clone();
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        if (dirty)
+            this.dirtier = tid;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if
+     * the page is not dirty
+     */
+    public TransactionId isDirty() {
+        if (this.dirty)
+            return this.dirtier;
+        else
+            return null;
+    }
+
+    /**
+     * Returns true if there is room on this page for t, once the space left
+     * behind by deleted records has been reclaimed.
+     */
+    public boolean hasRoomFor(Tuple t) {
+        return recordSize(t) + SLOT_SIZE <= getFreeSpace(data);
+    }
+
+    /**
+     * Adds the specified tuple to the page, in the first empty slot or a new
+     * one; the tuple is updated to reflect that it is now stored on this
+     * page.
+     *
+     * @throws DbException if the page is full or tupledesc is mismatch.
+     * @param t The tuple to add.
+     */
+    public synchronized void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("type mismatch, in insertTuple");
+
+        modify();
+        int slot = addRecord(data, encodeRecord(t));
+        if (slot == -1)
+            throw new DbException("called insertTuple on page without room for the tuple.");
+
+        if (slot >= tuples.length)
+            tuples = Arrays.copyOf(tuples, getNumSlots(data));
+        t.setRecordId(new RecordId(pid, slot));
+        tuples[slot] = t;
+        updateFreeSpaceMap(getFreeSpace(data) >= minRecordSize(td) + SLOT_SIZE);
+    }
+
+    /**
+     * Delete the specified tuple from the page; its space is reclaimed the
+     * next time the page needs room for an insert.
+     *
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *                     already empty.
+     * @param t The tuple to delete
+     */
+    public synchronized void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null)
+            throw new DbException("tried to delete tuple with null rid");
+        if (!rid.getPageId().equals(pid))
+            throw new DbException("tried to delete tuple on invalid page or table");
+        if (!isSlotUsed(rid.tupleno()))
+            throw new DbException("tried to delete null tuple.");
+
+        modify();
+        removeRecord(data, rid.tupleno());
+        tuples[rid.tupleno()] = null;
+        updateFreeSpaceMap(true);
+    }
+
+    /**
+     * Tells the free space map of the HeapFile this page belongs to whether
+     * the page has room for another record.
+     */
+    private void updateFreeSpaceMap(boolean hasRoom) {
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        if (file instanceof HeapFile)
+            ((HeapFile) file).getFreeSpaceMap().update(pid.pageNumber(), hasRoom);
+    }
+
+    /** Gives this page its own copy of the bytes before changing them. */
+    private void modify() {
+        if (!copied) {
+            data = data.clone();
+            copied = true;
+        }
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < getNumSlots(data) && getShort(data, slotEntry(i)) != 0;
+    }
+
+    /**
+     * Returns the number of tuples on this page.
+     */
+    public int getNumTuples() {
+        int n = 0;
+        for (int i = 0; i < getNumSlots(data); i++)
+            if (isSlotUsed(i))
+                n++;
+        return n;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this
+     *         iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        final int numSlots = getNumSlots(data);
+        return new Iterator<Tuple>() {
+            int next = advance(0);
+
+            private int advance(int i) {
+                while (i < numSlots && !isSlotUsed(i))
+                    i++;
+                return i;
+            }
+
+            public boolean hasNext() {
+                return next < numSlots;
+            }
+
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Tuple t = getTuple(next);
+                next = advance(next + 1);
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * @return an iterator over the given fields of the tuples on this page
+     */
+    public Iterator<Tuple> iterator(int[] columns, TupleDesc td) {
+        return new ProjectingIterator(iterator(), columns, td);
+    }
+
+    // returns the tuple in slot i, decoding it on first access
+    Tuple getTuple(int i) {
+        Tuple t = tuples[i];
+        if (t == null) {
+            t = decodeRecord(td, data, getShort(data, slotEntry(i)));
+            t.setRecordId(new RecordId(pid, i));
+            tuples[i] = t;
+        }
+        return t;
+    }
+
+    // ---- record encoding ----
+
+    /**
+     * @return the number of bytes t takes as a record on a slotted page
+     */
+    static int recordSize(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.STRING_TYPE)
+                size += 2 + Math.min(((StringField) t.getField(i)).getValue().length(),
+                        Type.STRING_LEN);
+            else
+                size += td.getFieldType(i).getLen();
+        }
+        return size;
+    }
+
+    /**
+     * @return the smallest number of bytes a record of td can take
+     */
+    static int minRecordSize(TupleDesc td) {
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++)
+            size += td.getFieldType(i) == Type.STRING_TYPE ? 2 : td.getFieldType(i).getLen();
+        return size;
+    }
+
+    /**
+     * @return the record of a slotted page holding the fields of t
+     */
+    static byte[] encodeRecord(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        byte[] rec = new byte[recordSize(t)];
+        int off = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            Field f = t.getField(i);
+            if (td.getFieldType(i) == Type.STRING_TYPE) {
+                String s = ((StringField) f).getValue();
+                if (s.length() > Type.STRING_LEN)
+                    s = s.substring(0, Type.STRING_LEN);
+                putShort(rec, off, s.length());
+                // same one-byte-per-char encoding as StringField.serialize
+                for (int j = 0; j < s.length(); j++)
+                    rec[off + 2 + j] = (byte) s.charAt(j);
+                off += 2 + s.length();
+            } else {
+                int v = ((IntField) f).getValue();
+                rec[off] = (byte) (v >>> 24);
+                rec[off + 1] = (byte) (v >>> 16);
+                rec[off + 2] = (byte) (v >>> 8);
+                rec[off + 3] = (byte) v;
+                off += 4;
+            }
+        }
+        return rec;
+    }
+
+    /**
+     * @return a tuple decoded from the record at offset in data
+     */
+    static Tuple decodeRecord(TupleDesc td, byte[] data, int offset) {
+        Tuple t = new Tuple(td);
+        int off = offset;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.STRING_TYPE) {
+                int len = getShort(data, off);
+                t.setField(i, new StringField(new String(data, off + 2, len), Type.STRING_LEN));
+                off += 2 + len;
+            } else {
+                t.setField(i, td.getFieldType(i).parse(data, off));
+                off += td.getFieldType(i).getLen();
+            }
+        }
+        return t;
+    }
+
+    // ---- page layout ----
+
+    static int getNumSlots(byte[] page) {
+        return getShort(page, 0);
+    }
+
+    private static int getRecordStart(byte[] page) {
+        int start = getShort(page, 2);
+        return start == 0 ? page.length : start;
+    }
+
+    private static int slotEntry(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    /**
+     * @return the number of bytes free for records and slots on the page,
+     *   counting space that compaction would reclaim and the entries of
+     *   empty slots that can be reused
+     */
+    static int getFreeSpace(byte[] page) {
+        int numSlots = getNumSlots(page);
+        int used = HEADER_SIZE + numSlots * SLOT_SIZE;
+        boolean emptySlot = false;
+        for (int i = 0; i < numSlots; i++) {
+            if (getShort(page, slotEntry(i)) != 0)
+                used += getShort(page, slotEntry(i) + 2);
+            else
+                emptySlot = true;
+        }
+        // an insert reusing an empty slot does not grow the directory
+        return page.length - used + (emptySlot ? SLOT_SIZE : 0);
+    }
+
+    /**
+     * Adds a record to a page, compacting the page if the contiguous free
+     * space is too small.
+     *
+     * @return the slot the record was stored in, or -1 if it does not fit
+     */
+    static int addRecord(byte[] page, byte[] rec) {
+        int numSlots = getNumSlots(page);
+        int slot = 0;
+        while (slot < numSlots && getShort(page, slotEntry(slot)) != 0)
+            slot++;
+        int need = rec.length + (slot == numSlots ? SLOT_SIZE : 0);
+        int contiguous = getRecordStart(page) - slotEntry(numSlots);
+        if (contiguous < need) {
+            if (getFreeSpace(page) < rec.length + SLOT_SIZE)
+                return -1;
+            compact(page);
+            contiguous = getRecordStart(page) - slotEntry(numSlots);
+            if (contiguous < need)
+                return -1;
+        }
+
+        int start = getRecordStart(page) - rec.length;
+        System.arraycopy(rec, 0, page, start, rec.length);
+        putShort(page, 2, start);
+        putShort(page, slotEntry(slot), start);
+        putShort(page, slotEntry(slot) + 2, rec.length);
+        if (slot == numSlots)
+            putShort(page, 0, numSlots + 1);
+        return slot;
+    }
+
+    /**
+     * Empties a slot of a page; its record bytes are reclaimed by the next
+     * compaction.  Empty slots at the end of the directory are dropped.
+     */
+    static void removeRecord(byte[] page, int slot) {
+        putShort(page, slotEntry(slot), 0);
+        putShort(page, slotEntry(slot) + 2, 0);
+        int numSlots = getNumSlots(page);
+        while (numSlots > 0 && getShort(page, slotEntry(numSlots - 1)) == 0)
+            numSlots--;
+        putShort(page, 0, numSlots);
+        if (numSlots == 0)
+            putShort(page, 2, 0);
+    }
+
+    /** Moves all records to the end of the page, closing the gaps. */
+    private static void compact(byte[] page) {
+        int numSlots = getNumSlots(page);
+        byte[] old = page.clone();
+        int end = page.length;
+        for (int i = 0; i < numSlots; i++) {
+            int off = getShort(old, slotEntry(i));
+            if (off == 0)
+                continue;
+            int len = getShort(old, slotEntry(i) + 2);
+            end -= len;
+            System.arraycopy(old, off, page, end, len);
+            putShort(page, slotEntry(i), end);
+        }
+        Arrays.fill(page, slotEntry(numSlots), end, (byte) 0);
+        putShort(page, 2, end == page.length ? 0 : end);
+    }
+
+    private static int getShort(byte[] b, int off) {
+        return ((b[off] & 0xFF) << 8) | (b[off + 1] & 0xFF);
+    }
+
+    private static void putShort(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 8);
+        b[off + 1] = (byte) v;
+    }
+}
@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -17,6 +19,11 @@ public class Tuple implements Serializable {
     private Field fields[];
     private transient TupleDesc td;
 
+    // serialized form this tuple's fields are decoded from on first access;
+    // null for tuples built in memory
+    private transient byte[] source;
+    private transient int sourceOffset;
+
     /**
      * Create a new tuple with the specified schema (type).
      *
@@ -29,6 +36,21 @@ public class Tuple implements Serializable {
         this.td = td;
     }
 
+    /**
+     * Create a tuple backed by the serialized bytes of a record, e.g. a slot
+     * of a page read from disk.  Fields are decoded from data only when they
+     * are first accessed; data must not change afterwards.
+     *
+     * @param td the schema of this tuple
+     * @param data the bytes holding the record
+     * @param offset where the record starts in data
+     */
+    Tuple(TupleDesc td, byte[] data, int offset) {
+        this(td);
+        this.source = data;
+        this.sourceOffset = offset;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -76,7 +98,36 @@ public class Tuple implements Serializable {
      *            field index to return. Must be a valid index.
      */
     public Field getField(int i) {
-        return fields[i];
+        Field f = fields[i];
+        if (f == null && source != null) {
+            f = td.getFieldType(i).parse(source, sourceOffset + td.getFieldOffset(i));
+            fields[i] = f;
+        }
+        return f;
+    }
+
+    /**
+     * @return a tuple of the given fields of this one, with the same
+     *         RecordId, so it can still be used to delete the stored tuple
+     * @param columns
+     *            indices of the fields to keep
+     * @param td
+     *            the schema of the result, e.g. getTupleDesc().project(columns)
+     */
+    Tuple project(int[] columns, TupleDesc td) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < columns.length; i++)
+            t.fields[i] = getField(columns[i]);
+        t.rid = rid;
+        return t;
+    }
+
+    /** Decodes any fields not yet read from the backing bytes. */
+    private void decodeAll() {
+        if (source == null)
+            return;
+        for (int i = 0; i < fields.length; i++)
+            getField(i);
     }
 
     /**
@@ -88,6 +139,7 @@ public class Tuple implements Serializable {
      * where \t is any whitespace (except a newline)
      */
     public String toString() {
+        decodeAll();
         String out = "";
         for (int i = 0; i < fields.length; i++) {
             if (out.length() > 0)
@@ -103,6 +155,7 @@ public class Tuple implements Serializable {
      * */
     public Iterator<Field> fields()
     {
+        decodeAll();
         return Arrays.asList(fields).iterator();
     }
 
@@ -111,6 +164,12 @@ public class Tuple implements Serializable {
      * */
     public void resetTupleDesc(TupleDesc td)
     {
+        decodeAll();
         this.td = td;
     }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        decodeAll();
+        out.defaultWriteObject();
+    }
 }
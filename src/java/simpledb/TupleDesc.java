@@ -48,6 +48,9 @@ public class TupleDesc implements Serializable {
 
     private final TDItem[] tdItems;
 
+    // byte offset of each field within a serialized tuple; built on first use
+    private transient volatile int[] offsets = null;
+
     /**
      * Create a new TupleDesc with typeAr.length fields with fields of the
      * specified types, with associated named fields.
@@ -144,6 +147,37 @@ public class TupleDesc implements Serializable {
         return size;
     }
 
+    /**
+     * @return The byte offset of the ith field within a serialized tuple of
+     *         this TupleDesc.
+     */
+    int getFieldOffset(int i) {
+        int[] off = offsets;
+        if (off == null) {
+            off = new int[tdItems.length];
+            for (int j = 1; j < off.length; j++)
+                off[j] = off[j - 1] + tdItems[j - 1].fieldType.getLen();
+            offsets = off;
+        }
+        return off[i];
+    }
+
+    /**
+     * @return a TupleDesc holding only the given fields of this one, in the
+     *         given order
+     * @param columns
+     *            indices of the fields to keep
+     */
+    TupleDesc project(int[] columns) {
+        Type[] types = new Type[columns.length];
+        String[] names = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            types[i] = tdItems[columns[i]].fieldType;
+            names[i] = tdItems[columns[i]].fieldName;
+        }
+        return new TupleDesc(types, names);
+    }
+
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
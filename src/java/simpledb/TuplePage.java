@@ -0,0 +1,51 @@
+package simpledb;
+
+import java.util.Iterator;
+
+/**
+ * TuplePage is the interface HeapFile uses to add, remove and scan the tuples
+ * on one of its pages.  Each on-disk page format a HeapFile can be stored in
+ * (HeapPage, SlottedHeapPage, PaxHeapPage) implements it.
+ *
+ * @see HeapFile
+ */
+interface TuplePage extends Page {
+
+    /**
+     * @return true if t would fit on this page, i.e. insertTuple(t) would
+     *   not fail for lack of space
+     */
+    public boolean hasRoomFor(Tuple t);
+
+    /**
+     * Adds the specified tuple to the page; the tuple's RecordId is updated
+     * to reflect that it is now stored on this page.
+     *
+     * @throws DbException if the page is full or the tuple does not match
+     *   the page's TupleDesc
+     */
+    public void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Deletes the specified tuple from the page.
+     *
+     * @throws DbException if the tuple is not on this page
+     */
+    public void deleteTuple(Tuple t) throws DbException;
+
+    /**
+     * @return an iterator over the tuples on this page, in slot order
+     */
+    public Iterator<Tuple> iterator();
+
+    /**
+     * Returns an iterator over the tuples on this page that holds only the
+     * given fields of each tuple.  Formats that can skip the other fields
+     * entirely (such as PaxHeapPage) decode nothing else.
+     *
+     * @param columns indices of the fields to return, in output order
+     * @param td the TupleDesc of the returned tuples
+     * @see Tuple#project
+     */
+    public Iterator<Tuple> iterator(int[] columns, TupleDesc td);
+}
@@ -0,0 +1,123 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * The scan resistant 2Q eviction policy (Johnson and Shasha, VLDB 1994).
+ * A page that enters the pool goes to the FIFO queue A1in.  Only pages that
+ * are requested again after falling out of A1in, which the policy remembers
+ * in the ghost queue A1out, are promoted to the LRU queue Am.  A sequential
+ * scan therefore only cycles through A1in and does not push the hot pages in
+ * Am out of the pool.
+ * <p>
+ * A1in holds about a quarter of the pool and A1out remembers half a pool's
+ * worth of page ids, the settings recommended by the paper.
+ * <p>
+ * Hits take no lock: they are queued in a buffer of at most a pool's worth
+ * of page ids, and replayed into Am under the policy's lock by the next
+ * admission or eviction.  Hits that find the buffer full are dropped, which
+ * only makes the LRU order of Am a little less exact.
+ */
+public class TwoQueueEvictionPolicy implements EvictionPolicy {
+
+    private final int maxIn;
+    private final int maxOut;
+
+    // iteration order of each set is oldest first
+    private final LinkedHashSet<PageId> a1in = new LinkedHashSet<PageId>();
+    private final LinkedHashSet<PageId> a1out = new LinkedHashSet<PageId>();
+    private final LinkedHashSet<PageId> am = new LinkedHashSet<PageId>();
+
+    // hits not yet applied to Am; drained under this
+    private final int maxHits;
+    private final ConcurrentLinkedQueue<PageId> hits = new ConcurrentLinkedQueue<PageId>();
+    private final AtomicInteger pendingHits = new AtomicInteger();
+
+    /**
+     * @param numPages the capacity of the BufferPool this policy is used by
+     */
+    public TwoQueueEvictionPolicy(int numPages) {
+        this.maxIn = Math.max(1, numPages / 4);
+        this.maxOut = Math.max(1, numPages / 2);
+        this.maxHits = Math.max(1, numPages);
+    }
+
+    public synchronized void admitted(PageId pid) {
+        drainHits();
+        if (a1in.contains(pid) || am.contains(pid)) {
+            hit(pid);
+        } else if (a1out.remove(pid)) {
+            am.add(pid);
+        } else {
+            a1in.add(pid);
+        }
+    }
+
+    public void accessed(PageId pid) {
+        if (pendingHits.incrementAndGet() > maxHits) {
+            pendingHits.decrementAndGet();
+            return;
+        }
+        hits.add(pid);
+    }
+
+    /** Applies the queued hits, in the order they happened.  Called under this. */
+    private void drainHits() {
+        PageId pid;
+        while ((pid = hits.poll()) != null) {
+            pendingHits.decrementAndGet();
+            hit(pid);
+        }
+    }
+
+    private void hit(PageId pid) {
+        // hits in A1in are taken to be correlated references and ignored,
+        // as are hits of pages that left the pool since
+        if (am.remove(pid))
+            am.add(pid);
+    }
+
+    public synchronized void removed(PageId pid) {
+        if (!a1in.remove(pid))
+            am.remove(pid);
+        a1out.remove(pid);
+    }
+
+    /**
+     * Evicts from the oldest pages of A1in first while it is over its share
+     * of the pool (or Am is empty), and from the least recently used pages of
+     * Am first otherwise.  Pages evicted from A1in are remembered in A1out.
+     */
+    public synchronized PageId evict(Predicate<PageId> evictable) {
+        drainHits();
+        boolean inFirst = a1in.size() > maxIn || am.isEmpty();
+        PageId pid = first(inFirst ? a1in : am, evictable);
+        if (pid == null)
+            pid = first(inFirst ? am : a1in, evictable);
+        if (pid == null)
+            return null;
+
+        if (a1in.remove(pid)) {
+            a1out.add(pid);
+            if (a1out.size() > maxOut) {
+                Iterator<PageId> it = a1out.iterator();
+                it.next();
+                it.remove();
+            }
+        } else {
+            am.remove(pid);
+        }
+        return pid;
+    }
+
+    private static PageId first(LinkedHashSet<PageId> queue, Predicate<PageId> evictable) {
+        for (PageId pid : queue)
+            if (evictable.test(pid))
+                return pid;
+        return null;
+    }
+}
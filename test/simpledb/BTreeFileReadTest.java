@@ -83,6 +83,32 @@ public class BTreeFileReadTest extends SimpleDbTestBase {
 		assertFalse(page.isSlotUsed(20));
 	}
 
+	/**
+	 * Unit test for BTreeFile.readPage() in memory-mapped mode
+	 */
+	@Test
+	public void readPageMapped() throws Exception {
+		BTreeFile threePageFile = BTreeUtility.createRandomBTreeFile(2, 520,
+				null, null, 0);
+		threePageFile.setMemoryMapped(true);
+
+		BTreePageId rootPtrPid = new BTreePageId(threePageFile.getId(), 0, BTreePageId.ROOT_PTR);
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) threePageFile.readPage(rootPtrPid);
+		assertEquals(BTreePageId.INTERNAL, rootPtr.getRootId().pgcateg());
+
+		BTreeInternalPage root = (BTreeInternalPage) threePageFile.readPage(rootPtr.getRootId());
+		int count = 0;
+		Iterator<BTreeEntry> entries = root.iterator();
+		while (entries.hasNext()) {
+			BTreeEntry e = entries.next();
+			BTreeLeafPage left = (BTreeLeafPage) threePageFile.readPage(e.getLeftChild());
+			BTreeLeafPage right = (BTreeLeafPage) threePageFile.readPage(e.getRightChild());
+			count += left.getNumTuples() + right.getNumTuples();
+		}
+		assertEquals(520, count);
+		threePageFile.setMemoryMapped(false);
+	}
+
 	@Test
 	public void testIteratorBasic() throws Exception {
 		BTreeFile smallFile = BTreeUtility.createRandomBTreeFile(2, 3, null,
@@ -0,0 +1,120 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolConcurrencyTest extends SimpleDbTestBase {
+
+    /**
+     * A file of empty HeapPages whose reads of page 0 block until released.
+     */
+    private static class SlowFile extends SkeletonFile {
+        final AtomicInteger reads = new AtomicInteger();
+        final CountDownLatch readStarted = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        SlowFile(int tableid, TupleDesc td) {
+            super(tableid, td);
+        }
+
+        public Page readPage(PageId id) throws NoSuchElementException {
+            reads.incrementAndGet();
+            try {
+                if (id.pageNumber() == 0) {
+                    readStarted.countDown();
+                    release.await();
+                }
+                return new HeapPage((HeapPageId) id, HeapPage.createEmptyPageData());
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private SlowFile file;
+    private ExecutorService threads;
+
+    @Before public void setUp() throws Exception {
+        TupleDesc td = Utility.getTupleDesc(2);
+        file = new SlowFile(-7, td);
+        Database.getCatalog().addTable(file, SystemTestUtil.getUUID());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES).setMaxReadAhead(0);
+        threads = Executors.newFixedThreadPool(8);
+    }
+
+    @After public void tearDown() {
+        file.release.countDown();
+        threads.shutdownNow();
+    }
+
+    private Future<Page> getPageAsync(final int pgno) {
+        return threads.submit(new Callable<Page>() {
+            public Page call() throws Exception {
+                return Database.getBufferPool().getPage(new TransactionId(),
+                        new HeapPageId(file.getId(), pgno), Permissions.READ_ONLY);
+            }
+        });
+    }
+
+    /**
+     * Unit test for concurrent misses on one page sharing a single read
+     */
+    @Test public void coalescedMisses() throws Exception {
+        ArrayList<Future<Page>> results = new ArrayList<Future<Page>>();
+        for (int i = 0; i < 6; i++)
+            results.add(getPageAsync(0));
+        assertTrue(file.readStarted.await(10, TimeUnit.SECONDS));
+        // give the other threads time to queue up behind the read
+        Thread.sleep(100);
+        file.release.countDown();
+
+        Page first = results.get(0).get(10, TimeUnit.SECONDS);
+        for (Future<Page> f : results)
+            assertSame(first, f.get(10, TimeUnit.SECONDS));
+        assertEquals(1, file.reads.get());
+    }
+
+    /**
+     * Unit test for hits and other misses not waiting for a slow read
+     */
+    @Test public void slowMissDoesNotBlock() throws Exception {
+        Page cached = getPageAsync(1).get(10, TimeUnit.SECONDS);
+        Future<Page> slow = getPageAsync(0);
+        assertTrue(file.readStarted.await(10, TimeUnit.SECONDS));
+
+        assertSame(cached, getPageAsync(1).get(10, TimeUnit.SECONDS));
+        getPageAsync(2).get(10, TimeUnit.SECONDS);
+        assertTrue(!slow.isDone());
+
+        file.release.countDown();
+        slow.get(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolConcurrencyTest.class);
+    }
+}
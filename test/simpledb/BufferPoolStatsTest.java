@@ -0,0 +1,112 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolStatsTest extends SimpleDbTestBase {
+
+    /**
+     * Unit test for LatencyHistogram bucketing and percentiles
+     */
+    @Test public void latencyHistogram() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.getPercentileMicros(99));
+        for (int i = 0; i < 99; i++)
+            h.record(3000); // 3us, below 4us
+        h.record(1000000); // 1ms, below 1024us
+        assertEquals(100, h.getCount());
+        assertEquals(4, h.getPercentileMicros(50));
+        assertEquals(4, h.getPercentileMicros(99));
+        assertEquals(1024, h.getPercentileMicros(100));
+        assertEquals((99 * 3 + 1000) / 100.0, h.getMeanMicros(), 1e-9);
+        h.reset();
+        assertEquals(0, h.getCount());
+    }
+
+    /**
+     * Unit test for the counters and per table latencies of a pool
+     */
+    @Test public void poolCounters() throws Exception {
+        final int PAGES = 10;
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES, null, null);
+        BufferPool bp = Database.resetBufferPool(4);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < PAGES; i++)
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        bp.getPage(tid, new HeapPageId(hf.getId(), PAGES - 1), Permissions.READ_ONLY);
+
+        BufferPoolStats stats = bp.getStats();
+        assertEquals(1, stats.getHits());
+        assertEquals(PAGES, stats.getMisses());
+        assertEquals(PAGES, stats.getReads());
+        assertEquals(PAGES - 4, stats.getEvictions());
+        assertEquals(PAGES, stats.getReadLatency(hf.getId()).getCount());
+        assertEquals(PAGES, stats.getReadLatency(BufferPoolStats.HEAP).getCount());
+        assertNull(stats.getWriteLatency(hf.getId()));
+        assertEquals(Integer.valueOf(4), bp.getTableResidency().get(hf.getId()));
+
+        HeapPage p = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), PAGES - 1),
+                Permissions.READ_WRITE);
+        p.markDirty(true, tid);
+        assertEquals(1, bp.getDirtyPageCount());
+        bp.flushPages(tid);
+        assertEquals(1, stats.getWrites());
+        assertEquals(1, stats.getWriteLatency(BufferPoolStats.HEAP).getCount());
+
+        bp.resetCounters();
+        assertEquals(0, stats.getHits());
+        assertNull(stats.getReadLatency(hf.getId()));
+    }
+
+    /**
+     * Unit test for page categories of B+ tree pages
+     */
+    @Test public void categories() {
+        assertEquals(BufferPoolStats.HEAP, BufferPoolStats.category(new HeapPageId(1, 0)));
+        assertEquals(BufferPoolStats.BTREE_ROOT_PTR,
+                BufferPoolStats.category(new BTreePageId(1, 0, BTreePageId.ROOT_PTR)));
+        assertEquals(BufferPoolStats.BTREE_INTERNAL,
+                BufferPoolStats.category(new BTreePageId(1, 1, BTreePageId.INTERNAL)));
+        assertEquals(BufferPoolStats.BTREE_LEAF,
+                BufferPoolStats.category(new BTreePageId(1, 2, BTreePageId.LEAF)));
+        assertEquals(BufferPoolStats.BTREE_HEADER,
+                BufferPoolStats.category(new BTreePageId(1, 3, BTreePageId.HEADER)));
+    }
+
+    /**
+     * Unit test for the statistics of the current pool being visible through JMX
+     */
+    @Test public void mbean() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        Database.getBufferPool().getPage(new TransactionId(), new HeapPageId(hf.getId(), 0),
+                Permissions.READ_ONLY);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(BufferPoolMonitor.NAME);
+        assertTrue(server.isRegistered(name));
+        assertEquals(1L, server.getAttribute(name, "Misses"));
+        assertEquals(1, server.getAttribute(name, "CachedPages"));
+        assertNotNull(server.getAttribute(name, "TableResidency"));
+        assertTrue(((String) server.getAttribute(name, "Report")).contains("1 of "));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolStatsTest.class);
+    }
+}
@@ -1,10 +1,9 @@
 package simpledb;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 
 import org.junit.After;
 import org.junit.Before;
@@ -35,11 +34,8 @@ public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
     		ArrayList<Page> dirtypages = new ArrayList<Page>();
     		for(int i = 0; i < duplicates; i++) {
     			// create a blank page
-    			BufferedOutputStream bw = new BufferedOutputStream(new FileOutputStream(super.getFile(), true));
-                byte[] emptyData = HeapPage.createEmptyPageData();
-                bw.write(emptyData);
-                bw.close();
-    			HeapPage p = new HeapPage(new HeapPageId(super.getId(), super.numPages() - 1), 
+    			int pgno = super.allocatePage();
+    			HeapPage p = new HeapPage(new HeapPageId(super.getId(), pgno), 
     					HeapPage.createEmptyPageData());
     	        p.insertTuple(t);
     			dirtypages.add(p);
@@ -48,6 +44,33 @@ public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
     	}
     }
     
+    // class to count the writes that reach the file
+    class CountingHeapFile extends HeapFileDuplicates {
+        int pageWrites = 0;
+        int batches = 0;
+        int batchPages = 0;
+        int forced = 0;
+
+        public CountingHeapFile(File f, TupleDesc td, int duplicates) {
+            super(f, td, duplicates);
+        }
+
+        @Override
+        public void writePage(Page p) throws IOException {
+            pageWrites++;
+            super.writePage(p);
+        }
+
+        @Override
+        public void writePages(List<Page> pages, boolean force) throws IOException {
+            batches++;
+            batchPages += pages.size();
+            if (force)
+                forced++;
+            super.writePages(pages, force);
+        }
+    }
+
     /**
      * Set up initial resources for each unit test.
      */
@@ -133,6 +156,33 @@ public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
     	assertEquals(10, count);
     }
 
+    /**
+     * Unit test for BufferPool.flushPages() writing a transaction's pages in
+     * one batch per file
+     */
+    @Test public void flushPagesBatched() throws Exception {
+        CountingHeapFile chf = new CountingHeapFile(empty.getFile(), empty.getTupleDesc(), 10);
+        Database.getCatalog().addTable(chf, SystemTestUtil.getUUID());
+        Database.getBufferPool().insertTuple(tid, chf.getId(), Utility.getHeapTuple(1, 2));
+        TransactionId other = new TransactionId();
+        Database.getBufferPool().insertTuple(other, chf.getId(), Utility.getHeapTuple(2, 2));
+
+        Database.getBufferPool().flushPages(tid);
+        assertEquals(0, chf.pageWrites);
+        assertEquals(1, chf.batches);
+        assertEquals(10, chf.batchPages);
+        assertEquals(1, chf.forced);
+        // page 0 is the empty file's page
+        for (int i = 1; i <= 10; i++) {
+            HeapPage p = (HeapPage) chf.readPage(new HeapPageId(chf.getId(), i));
+            assertEquals(503, p.getNumEmptySlots());
+        }
+        // the other transaction's pages are still only in memory
+        HeapPage p = (HeapPage) chf.readPage(new HeapPageId(chf.getId(), 11));
+        assertEquals(504, p.getNumEmptySlots());
+        Database.getBufferPool().transactionComplete(other, false);
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,196 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+
+    private static File tempFile() throws Exception {
+        File f = File.createTempFile("compressed", ".dat");
+        f.delete();
+        f.deleteOnExit();
+        new File(f.getPath() + ".pgt").deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        return f;
+    }
+
+    /**
+     * Unit test for the codecs restoring the pages they compress
+     */
+    @Test public void codecRoundTrip() throws Exception {
+        int pageSize = BufferPool.getPageSize();
+        byte[] zeroes = new byte[pageSize];
+        byte[] random = new byte[pageSize];
+        new Random(1).nextBytes(random);
+        byte[] mixed = new byte[pageSize];
+        for (int i = 0; i < pageSize; i++)
+            mixed[i] = (byte) (i % 300 < 150 ? i : 7);
+
+        for (PageCodec codec : new PageCodec[] { new DeflatePageCodec(), new RlePageCodec() }) {
+            for (byte[] page : new byte[][] { zeroes, random, mixed })
+                assertArrayEquals(codec.getName(), page,
+                        codec.decompress(codec.compress(page), pageSize));
+            assertTrue(codec.compress(zeroes).length < pageSize / 16);
+        }
+    }
+
+    /**
+     * Unit test for CompressedHeapFile.convert() and reading the converted
+     * file back through SeqScan
+     */
+    @Test public void convertAndScan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File heap = SystemTestUtil.createRandomHeapFileUnopened(2, 1500, 100, null, tuples);
+
+        for (PageCodec codec : new PageCodec[] { new DeflatePageCodec(), new RlePageCodec() }) {
+            File out = tempFile();
+            CompressedHeapFile.convert(heap, out, codec);
+            assertTrue(out.length() < heap.length());
+
+            CompressedHeapFile hf = new CompressedHeapFile(out, Utility.getTupleDesc(2), codec);
+            Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+            assertEquals(heap.length() / BufferPool.getPageSize(), hf.numPages());
+            SystemTestUtil.matchTuples(hf, tuples);
+        }
+    }
+
+    /**
+     * Unit test for inserting into a CompressedHeapFile, including pages that
+     * outgrow their extent, and reopening it
+     */
+    @Test public void insertAndReopen() throws Exception {
+        File f = tempFile();
+        CompressedHeapFile hf = new CompressedHeapFile(f, Utility.getTupleDesc(2), new DeflatePageCodec());
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+        TransactionId tid = new TransactionId();
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        Random r = new Random(2);
+        tuples.add(insert(hf, tid, 1, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        long firstOffset = hf.getPageTable().getOffset(0);
+        assertEquals(CompressedHeapFile.EXTENT_ALIGN, hf.getPageTable().getCapacity(0));
+
+        // random values fill the page with incompressible data
+        tid = new TransactionId();
+        for (int i = 0; i < 1000; i++)
+            tuples.add(insert(hf, tid, r.nextInt(), r.nextInt()));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(2, hf.numPages());
+        assertTrue(firstOffset != hf.getPageTable().getOffset(0));
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        Database.getCatalog().clear();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf = new CompressedHeapFile(f, Utility.getTupleDesc(2), new DeflatePageCodec());
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        assertEquals(2, hf.numPages());
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * Unit test for a crash after a page was written but before its table
+     * entry reached the disk: the page is read back as it was
+     */
+    @Test public void crashBeforeRepoint() throws Exception {
+        File f = tempFile();
+        File pgt = new File(f.getPath() + ".pgt");
+        CompressedHeapFile hf = new CompressedHeapFile(f, Utility.getTupleDesc(2), new DeflatePageCodec());
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+        TransactionId tid = new TransactionId();
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 10; i++)
+            tuples.add(insert(hf, tid, i, i));
+        Database.getBufferPool().transactionComplete(tid);
+        byte[] table = Files.readAllBytes(pgt.toPath());
+        long offset = hf.getPageTable().getOffset(0);
+
+        tid = new TransactionId();
+        insert(hf, tid, 10, 10);
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(offset != hf.getPageTable().getOffset(0));
+        // the extent the page left is reused once the table is on disk
+        assertEquals(offset, hf.getPageTable().reserve(CompressedHeapFile.EXTENT_ALIGN));
+
+        // the new table entry is lost in a crash
+        Database.getCatalog().clear();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf.close();
+        Files.write(pgt.toPath(), table);
+        hf = new CompressedHeapFile(f, Utility.getTupleDesc(2), new DeflatePageCodec());
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * Unit test for the extents pages leave being reused, also after the
+     * file is reopened, so that rewriting pages does not grow the file
+     */
+    @Test public void extentsReused() throws Exception {
+        File f = tempFile();
+        CompressedHeapFile hf = new CompressedHeapFile(f, Utility.getTupleDesc(2), new DeflatePageCodec());
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        // the page moves to a second extent, leaving the first one free
+        for (int i = 0; i < 2; i++) {
+            TransactionId tid = new TransactionId();
+            tuples.add(insert(hf, tid, i, i));
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        assertEquals(CompressedHeapFile.EXTENT_ALIGN, hf.getPageTable().getOffset(0));
+
+        Database.getCatalog().clear();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf.close();
+        hf = new CompressedHeapFile(f, Utility.getTupleDesc(2), new DeflatePageCodec());
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        for (int i = 2; i < 5; i++) {
+            TransactionId tid = new TransactionId();
+            tuples.add(insert(hf, tid, i, i));
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        assertTrue(f.length() <= 2 * CompressedHeapFile.EXTENT_ALIGN);
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        // a larger free extent is split
+        PageOffsetTable pt = hf.getPageTable();
+        long gap = pt.getOffset(0) == 0 ? CompressedHeapFile.EXTENT_ALIGN : 0;
+        assertEquals(gap, pt.reserve(CompressedHeapFile.EXTENT_ALIGN / 2));
+        assertEquals(gap + CompressedHeapFile.EXTENT_ALIGN / 2,
+                pt.reserve(CompressedHeapFile.EXTENT_ALIGN / 2));
+    }
+
+    private static ArrayList<Integer> insert(HeapFile hf, TransactionId tid, int a, int b)
+            throws Exception {
+        Tuple t = new Tuple(hf.getTupleDesc());
+        t.setField(0, new IntField(a));
+        t.setField(1, new IntField(b));
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        ArrayList<Integer> list = new ArrayList<Integer>();
+        list.add(a);
+        list.add(b);
+        return list;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
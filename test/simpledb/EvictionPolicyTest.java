@@ -0,0 +1,158 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.function.Predicate;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class EvictionPolicyTest extends SimpleDbTestBase {
+
+    private static PageId page(int pgno) {
+        return new HeapPageId(1, pgno);
+    }
+
+    private static final Predicate<PageId> ANY = new Predicate<PageId>() {
+        public boolean test(PageId pid) {
+            return true;
+        }
+    };
+
+    /**
+     * Unit test for ClockEvictionPolicy giving referenced pages a second
+     * chance
+     */
+    @Test public void clock() {
+        ClockEvictionPolicy clock = new ClockEvictionPolicy();
+        for (int i = 0; i < 3; i++)
+            clock.admitted(page(i));
+        clock.accessed(page(0));
+
+        // page 0 loses its reference bit, and page 1 is next
+        assertEquals(page(1), clock.evict(ANY));
+        clock.admitted(page(3));
+        // page 2 is not evictable, so the hand goes on to page 0
+        assertEquals(page(0), clock.evict(new Predicate<PageId>() {
+            public boolean test(PageId pid) {
+                return !pid.equals(page(2));
+            }
+        }));
+        clock.removed(page(2));
+        assertEquals(page(3), clock.evict(ANY));
+        assertNull(clock.evict(ANY));
+        assertNull(new ClockEvictionPolicy().evict(ANY));
+    }
+
+    /**
+     * Unit test for TwoQueueEvictionPolicy keeping re-referenced pages ahead
+     * of a scan
+     */
+    @Test public void twoQueue() {
+        TwoQueueEvictionPolicy twoQ = new TwoQueueEvictionPolicy(8);
+        for (int i = 0; i < 8; i++)
+            twoQ.admitted(page(i));
+        // page 0 is evicted from A1in and comes back, so it is hot
+        assertEquals(page(0), twoQ.evict(ANY));
+        twoQ.admitted(page(0));
+
+        // a scan of cold pages is always evicted before page 0
+        for (int i = 100; i < 110; i++) {
+            twoQ.admitted(page(i));
+            assertTrue(!twoQ.evict(ANY).equals(page(0)));
+        }
+
+        // once A1in is within its share, Am is trimmed first
+        TwoQueueEvictionPolicy small = new TwoQueueEvictionPolicy(8);
+        small.admitted(page(0));
+        assertEquals(page(0), small.evict(ANY));
+        small.admitted(page(0));
+        small.admitted(page(1));
+        assertEquals(page(0), small.evict(ANY));
+        assertEquals(page(1), small.evict(ANY));
+        assertNull(small.evict(ANY));
+    }
+
+    /**
+     * Unit test for TwoQueueEvictionPolicy applying the hits it queued
+     * without a lock before it picks a victim
+     */
+    @Test public void twoQueueHits() {
+        TwoQueueEvictionPolicy twoQ = new TwoQueueEvictionPolicy(8);
+        twoQ.admitted(page(0));
+        twoQ.admitted(page(1));
+        assertEquals(page(0), twoQ.evict(ANY));
+        assertEquals(page(1), twoQ.evict(ANY));
+        // both come back to Am, page 0 first
+        twoQ.admitted(page(0));
+        twoQ.admitted(page(1));
+
+        twoQ.accessed(page(0));
+        assertEquals(page(1), twoQ.evict(ANY));
+        assertEquals(page(0), twoQ.evict(ANY));
+
+        // hits of pages that left the pool are ignored
+        twoQ.accessed(page(5));
+        assertNull(twoQ.evict(ANY));
+    }
+
+    /**
+     * Unit test for the BufferPool hit and miss counters
+     */
+    @Test public void hitAndMissCounters() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 2000, null, null);
+        int numPages = hf.numPages();
+        BufferPool bp = Database.resetBufferPool(numPages + 1, new ClockEvictionPolicy());
+        bp.setMaxReadAhead(0);
+        assertTrue(bp.getEvictionPolicy() instanceof ClockEvictionPolicy);
+
+        TransactionId tid = new TransactionId();
+        for (int pass = 0; pass < 2; pass++)
+            for (int i = 0; i < numPages; i++)
+                bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        assertEquals(numPages, bp.getMissCount());
+        assertEquals(numPages, bp.getHitCount());
+
+        bp.resetCounters();
+        assertEquals(0, bp.getHitCount());
+        assertEquals(0, bp.getMissCount());
+    }
+
+    /**
+     * Unit test for a 2Q BufferPool keeping a hot page cached through a scan
+     * larger than the pool
+     */
+    @Test public void scanResistance() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 20000, null, null);
+        int numPages = hf.numPages();
+        BufferPool bp = Database.resetBufferPool(8, new TwoQueueEvictionPolicy(8));
+        bp.setMaxReadAhead(0);
+        TransactionId tid = new TransactionId();
+        HeapPageId hot = new HeapPageId(hf.getId(), 0);
+
+        // make page 0 hot: read it, push it out of A1in, and read it again
+        bp.getPage(tid, hot, Permissions.READ_ONLY);
+        for (int i = 1; i < 9; i++)
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        bp.getPage(tid, hot, Permissions.READ_ONLY);
+
+        for (int i = 9; i < numPages; i++)
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        bp.resetCounters();
+        bp.getPage(tid, hot, Permissions.READ_ONLY);
+        assertEquals(1, bp.getHitCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EvictionPolicyTest.class);
+    }
+}
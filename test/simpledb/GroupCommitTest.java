@@ -0,0 +1,78 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.concurrent.CyclicBarrier;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class GroupCommitTest extends SimpleDbTestBase {
+
+    /**
+     * Unit test for lone commits being forced one at a time
+     */
+    @Test public void sequentialCommits() throws Exception {
+        LogFile log = Database.getLogFile();
+        for (int i = 0; i < 20; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            t.commit();
+        }
+        assertEquals(20, log.getCommitLatency().getCount());
+        assertEquals(20, log.getCommitBatchSizes().getCount());
+        assertEquals(1.0, log.getCommitBatchSizes().getMean(), 1e-9);
+    }
+
+    /**
+     * Unit test for concurrent commits sharing forces of the log
+     */
+    @Test public void concurrentCommitsShareForces() throws Exception {
+        final int THREADS = 16;
+        final int ROUNDS = 20;
+        final CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        final ArrayList<Throwable> errors = new ArrayList<Throwable>();
+        ArrayList<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < THREADS; i++) {
+            Thread th = new Thread() {
+                public void run() {
+                    try {
+                        for (int r = 0; r < ROUNDS; r++) {
+                            Transaction t = new Transaction();
+                            t.start();
+                            barrier.await();
+                            t.commit();
+                        }
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            };
+            threads.add(th);
+            th.start();
+        }
+        for (Thread th : threads)
+            th.join();
+        assertTrue(errors.toString(), errors.isEmpty());
+
+        LogFile log = Database.getLogFile();
+        Histogram batches = log.getCommitBatchSizes();
+        assertEquals(THREADS * ROUNDS, log.getCommitLatency().getCount());
+        assertEquals(THREADS * ROUNDS, Math.round(batches.getCount() * batches.getMean()));
+        assertTrue("forces: " + batches.getCount(), batches.getCount() < THREADS * ROUNDS / 2);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GroupCommitTest.class);
+    }
+}
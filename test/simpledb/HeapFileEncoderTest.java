@@ -0,0 +1,115 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HeapFileEncoderTest extends SimpleDbTestBase {
+
+    private static File writeInput(ArrayList<ArrayList<Integer>> tuples) throws Exception {
+        File f = File.createTempFile("input", ".txt");
+        f.deleteOnExit();
+        BufferedWriter bw = new BufferedWriter(new FileWriter(f));
+        Random r = new Random(3);
+        for (int i = 0; i < 5000; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            for (int j = 0; j < 3; j++)
+                tuple.add(r.nextInt());
+            tuples.add(tuple);
+            bw.write(tuple.get(0) + "," + tuple.get(1) + "," + tuple.get(2));
+            bw.write(i % 7 == 0 ? "\r\n" : "\n");
+        }
+        bw.close();
+        return f;
+    }
+
+    private static File tempFile() throws Exception {
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        return f;
+    }
+
+    /**
+     * Unit test for HeapFileEncoder.convertParallel() producing the same file
+     * as convert() when the input fits in one range
+     */
+    @Test public void parallelMatchesSerial() throws Exception {
+        File in = writeInput(new ArrayList<ArrayList<Integer>>());
+        File serial = tempFile();
+        File parallel = tempFile();
+        Type[] types = new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
+        HeapFileEncoder.convert(in, serial, BufferPool.getPageSize(), 3, types, ',');
+        HeapFileEncoder.convertParallel(in, parallel, BufferPool.getPageSize(), types, ',', 4);
+        assertArrayEquals(Files.readAllBytes(serial.toPath()), Files.readAllBytes(parallel.toPath()));
+    }
+
+    /**
+     * Unit test for HeapFileEncoder.convertParallel() over many small ranges
+     */
+    @Test public void parallelRanges() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File in = writeInput(tuples);
+        File out = tempFile();
+        Type[] types = new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
+        HeapFileEncoder.convertParallel(in, out, BufferPool.getPageSize(), types, ',', 3, 1000);
+        assertEquals(0, out.length() % BufferPool.getPageSize());
+
+        HeapFile hf = Utility.openHeapFile(3, out);
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * Unit test for HeapFileEncoder.bulkLoad() with string fields and an
+     * empty input
+     */
+    @Test public void bulkLoad() throws Exception {
+        File in = File.createTempFile("input", ".txt");
+        in.deleteOnExit();
+        BufferedWriter bw = new BufferedWriter(new FileWriter(in));
+        bw.write("1|one\n\n2| two \n3|three");
+        bw.close();
+
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE },
+                new String[] { "id", "name" });
+        HeapFile hf = HeapFileEncoder.bulkLoad(in, tempFile(), td, '|', "bulk");
+        assertEquals(hf.getId(), Database.getCatalog().getTableId("bulk"));
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        String[] names = { "one", "two", "three" };
+        for (int i = 0; i < 3; i++) {
+            Tuple t = it.next();
+            assertEquals(new IntField(i + 1), t.getField(0));
+            assertEquals(new StringField(names[i], Type.STRING_LEN), t.getField(1));
+        }
+        assertTrue(!it.hasNext());
+        it.close();
+
+        File empty = File.createTempFile("input", ".txt");
+        empty.deleteOnExit();
+        hf = HeapFileEncoder.bulkLoad(empty, tempFile(), td, '|', "empty");
+        assertEquals(1, hf.numPages());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileEncoderTest.class);
+    }
+}
@@ -77,6 +77,38 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() after the file has been closed
+     */
+    @Test
+    public void readPageAfterClose() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        hf.close();
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        assertEquals(484, page.getNumEmptySlots());
+    }
+
+    /**
+     * Unit test for HeapFile.readPage() in memory-mapped mode
+     */
+    @Test
+    public void readPageMapped() throws Exception {
+        HeapFile twoPageFile = SystemTestUtil.createRandomHeapFile(2, 520,
+                null, null);
+        twoPageFile.setMemoryMapped(true);
+
+        HeapPage first = (HeapPage) twoPageFile.readPage(new HeapPageId(twoPageFile.getId(), 0));
+        HeapPage second = (HeapPage) twoPageFile.readPage(new HeapPageId(twoPageFile.getId(), 1));
+        assertEquals(0, first.getNumEmptySlots());
+        assertEquals(504 - 16, second.getNumEmptySlots());
+        try {
+            twoPageFile.readPage(new HeapPageId(twoPageFile.getId(), 2));
+            fail("expected exception");
+        } catch (IllegalArgumentException e) {
+        }
+        twoPageFile.setMemoryMapped(false);
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.io.File;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -43,6 +45,83 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for HeapFile.insertTuple() reusing a slot freed by a delete
+     */
+    @Test public void reuseFreedSlot() throws Exception {
+        Tuple first = Utility.getHeapTuple(0, 2);
+        empty.insertTuple(tid, first);
+        for (int i = 1; i < 504 * 2; ++i)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        assertEquals(2, empty.numPages());
+
+        empty.deleteTuple(tid, first);
+        Tuple t = Utility.getHeapTuple(-1, 2);
+        empty.insertTuple(tid, t);
+        assertEquals(0, t.getRecordId().getPageId().pageNumber());
+        assertEquals(2, empty.numPages());
+    }
+
+    /**
+     * Unit test for the free space of a page filled by an aborted
+     * transaction being reused
+     */
+    @Test public void abortRestoresFreeSpace() throws Exception {
+        TransactionId filler = new TransactionId();
+        for (int i = 0; i < 504; ++i)
+            Database.getBufferPool().insertTuple(filler, empty.getId(), Utility.getHeapTuple(i, 2));
+        assertEquals(1, empty.numPages());
+        assertEquals(-1, empty.getFreeSpaceMap().nextFreePage());
+        Database.getBufferPool().transactionComplete(filler, false);
+
+        assertEquals(0, empty.getFreeSpaceMap().nextFreePage());
+        Tuple t = Utility.getHeapTuple(-1, 2);
+        empty.insertTuple(tid, t);
+        assertEquals(0, t.getRecordId().getPageId().pageNumber());
+        assertEquals(1, empty.numPages());
+    }
+
+    /**
+     * Unit test for the free space map surviving a close of the HeapFile
+     */
+    @Test public void freeSpaceMapPersists() throws Exception {
+        for (int i = 0; i < 504 + 1; ++i)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        assertEquals(1, empty.getFreeSpaceMap().nextFreePage());
+
+        File mapFile = new File(empty.getFile().getPath() + ".fsm");
+        mapFile.deleteOnExit();
+        empty.close();
+        assertTrue(mapFile.exists());
+
+        assertEquals(1, empty.getFreeSpaceMap().nextFreePage());
+        assertFalse(mapFile.exists());
+    }
+
+    /**
+     * Unit test for HeapFile.allocatePage() preallocating space that is
+     * trimmed again on close
+     */
+    @Test public void allocatePage() throws Exception {
+        int pageSize = BufferPool.getPageSize();
+        assertEquals(1, empty.allocatePage());
+        assertEquals(2, empty.allocatePage());
+        assertEquals(3, empty.numPages());
+        assertTrue(empty.getFile().length() > 3 * pageSize);
+
+        // preallocated pages past the end are not part of the table
+        try {
+            empty.readPage(new HeapPageId(empty.getId(), 3));
+            fail("expected exception reading past the last page");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        empty.close();
+        assertEquals(3 * pageSize, empty.getFile().length());
+        assertEquals(3, empty.numPages());
+    }
+
     /**
      * JUnit suite target
      */
@@ -120,6 +120,24 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for HeapPage serializing untouched, partly decoded and
+     * modified tuples, and keeping the original bytes as its before-image
+     */
+    @Test public void getPageData() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+
+        // decode one field of one tuple; the rest stay raw
+        Iterator<Tuple> it = page.iterator();
+        assertEquals(new IntField(EXAMPLE_VALUES[0][1]), it.next().getField(1));
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+
+        page.deleteTuple(it.next());
+        assertFalse(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getBeforeImage().getPageData()));
+    }
+
     /**
      * JUnit suite target
      */
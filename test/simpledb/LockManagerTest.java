@@ -0,0 +1,239 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LockManagerTest extends SimpleDbTestBase {
+
+    private LockManager lm;
+    private PageId p0, p1;
+    private TransactionId t1, t2;
+    private ExecutorService threads;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        lm = new LockManager();
+        lm.setTimeout(200);
+        p0 = new HeapPageId(1, 0);
+        p1 = new HeapPageId(1, 1);
+        t1 = new TransactionId();
+        t2 = new TransactionId();
+        threads = Executors.newCachedThreadPool();
+    }
+
+    @After public void tearDown() {
+        threads.shutdownNow();
+    }
+
+    private void assertBlocked(TransactionId tid, PageId pid, boolean exclusive) {
+        try {
+            lm.acquire(tid, pid, exclusive);
+            fail("lock should not have been granted");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        assertFalse(lm.holdsExclusive(tid, pid));
+    }
+
+    /**
+     * Unit test for shared and exclusive lock compatibility
+     */
+    @Test public void sharedAndExclusive() throws Exception {
+        lm.acquire(t1, p0, false);
+        lm.acquire(t2, p0, false);
+        assertTrue(lm.holdsLock(t1, p0));
+        assertTrue(lm.holdsLock(t2, p0));
+        assertBlocked(t2, p0, true);
+        // the failed upgrade keeps the shared lock
+        assertTrue(lm.holdsLock(t2, p0));
+
+        lm.acquire(t1, p1, true);
+        assertBlocked(t2, p1, false);
+        assertFalse(lm.holdsLock(t2, p1));
+        // re-acquiring in a weaker mode is a no-op
+        lm.acquire(t1, p1, false);
+        assertTrue(lm.holdsExclusive(t1, p1));
+
+        lm.releaseAll(t1);
+        assertFalse(lm.holdsLock(t1, p0));
+        assertTrue(lm.getLockedPages(t1).isEmpty());
+        lm.acquire(t2, p1, true);
+        lm.acquire(t2, p0, true);
+    }
+
+    /**
+     * Unit test for upgrading a shared lock held alone
+     */
+    @Test public void upgrade() throws Exception {
+        lm.acquire(t1, p0, false);
+        lm.acquire(t1, p0, true);
+        assertTrue(lm.holdsExclusive(t1, p0));
+        assertBlocked(t2, p0, false);
+        lm.release(t1, p0);
+        lm.acquire(t2, p0, false);
+    }
+
+    /**
+     * Unit test for a waiting transaction getting the lock once it is
+     * released
+     */
+    @Test public void waiterWakesUp() throws Exception {
+        lm.setTimeout(10000);
+        lm.acquire(t1, p0, true);
+        Future<Boolean> waiter = threads.submit(new Callable<Boolean>() {
+            public Boolean call() throws Exception {
+                lm.acquire(t2, p0, true);
+                return lm.holdsExclusive(t2, p0);
+            }
+        });
+        Thread.sleep(100);
+        assertFalse(waiter.isDone());
+        lm.releaseAll(t1);
+        assertTrue(waiter.get(10, TimeUnit.SECONDS));
+    }
+
+    private Future<Boolean> acquireAsync(final TransactionId tid, final PageId pid) {
+        return threads.submit(new Callable<Boolean>() {
+            public Boolean call() throws Exception {
+                try {
+                    lm.acquire(tid, pid, true);
+                    return true;
+                } catch (TransactionAbortedException e) {
+                    lm.releaseAll(tid);
+                    return false;
+                }
+            }
+        });
+    }
+
+    /**
+     * Unit test for deadlock detection aborting only the youngest
+     * transaction of a cycle
+     */
+    @Test public void deadlock() throws Exception {
+        lm.setTimeout(0);
+        TransactionId t3 = new TransactionId();
+        PageId p2 = new HeapPageId(1, 2);
+        lm.acquire(t1, p0, true);
+        lm.acquire(t2, p1, true);
+        lm.acquire(t3, p2, true);
+
+        // t1 -> t2 -> t3 -> t1
+        Future<Boolean> r1 = acquireAsync(t1, p1);
+        Future<Boolean> r2 = acquireAsync(t2, p2);
+        Thread.sleep(50);
+        assertFalse(r1.isDone() || r2.isDone());
+        assertEquals(0, lm.getDeadlockCount());
+        Future<Boolean> r3 = acquireAsync(t3, p0);
+
+        assertFalse(r3.get(10, TimeUnit.SECONDS));
+        assertTrue(r2.get(10, TimeUnit.SECONDS));
+        assertFalse(r1.isDone());
+        lm.releaseAll(t2);
+        assertTrue(r1.get(10, TimeUnit.SECONDS));
+
+        assertEquals(1, lm.getDeadlockCount());
+        assertEquals(1, lm.getVictimCount());
+        assertTrue(lm.getAverageWaitNanos() > 0);
+    }
+
+    /**
+     * Unit test for a deadlock on a lock upgrade, with the older transaction
+     * closing the cycle
+     */
+    @Test public void upgradeDeadlock() throws Exception {
+        lm.setTimeout(0);
+        lm.acquire(t1, p0, false);
+        lm.acquire(t2, p0, false);
+        Future<Boolean> r2 = acquireAsync(t2, p0);
+        Thread.sleep(50);
+        // t1 closes the cycle, but t2 is younger and gives way
+        lm.acquire(t1, p0, true);
+        assertTrue(lm.holdsExclusive(t1, p0));
+        assertFalse(r2.get(10, TimeUnit.SECONDS));
+        assertEquals(1, lm.getVictimCount());
+    }
+
+    /**
+     * Unit test for a deadlock through a shared lock granted after the
+     * other transaction started waiting for the page
+     */
+    @Test public void deadlockThroughLaterHolder() throws Exception {
+        lm.setTimeout(0);
+        TransactionId t0 = new TransactionId();
+        lm.acquire(t0, p0, false);
+        lm.acquire(t1, p1, true);
+        Future<Boolean> r1 = acquireAsync(t1, p0);
+        Thread.sleep(50);
+
+        // t2 shares p0 with t0, so t1 now waits for t2 too; t0 never ends
+        lm.acquire(t2, p0, false);
+        Future<Boolean> r2 = acquireAsync(t2, p1);
+        assertFalse(r2.get(10, TimeUnit.SECONDS));
+        assertEquals(1, lm.getDeadlockCount());
+        assertFalse(r1.isDone());
+        lm.releaseAll(t0);
+        assertTrue(r1.get(10, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Unit test for BufferPool.transactionComplete() rolling back an aborted
+     * transaction and keeping a committed one
+     */
+    @Test public void commitAndAbort() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        BufferPool bp = Database.getBufferPool();
+        bp.setLockTimeout(200);
+
+        bp.insertTuple(t1, hf.getId(), Utility.getHeapTuple(1, 2));
+        PageId pid = new HeapPageId(hf.getId(), 0);
+        assertTrue(bp.holdsLock(t1, pid));
+        try {
+            bp.getPage(t2, pid, Permissions.READ_ONLY);
+            fail("t2 should not be able to read t1's page");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        bp.transactionComplete(t1, false);
+        assertFalse(bp.holdsLock(t1, pid));
+        assertEquals(0, countTuples(bp.getPage(t2, pid, Permissions.READ_ONLY)));
+        bp.transactionComplete(t2);
+
+        TransactionId t3 = new TransactionId();
+        bp.insertTuple(t3, hf.getId(), Utility.getHeapTuple(2, 2));
+        bp.transactionComplete(t3, true);
+        assertEquals(1, countTuples(hf.readPage(pid)));
+        assertEquals(null, bp.getPage(new TransactionId(), pid, Permissions.READ_ONLY).isDirty());
+    }
+
+    private static int countTuples(Page p) {
+        int n = 0;
+        for (java.util.Iterator<Tuple> it = ((HeapPage) p).iterator(); it.hasNext(); it.next())
+            n++;
+        return n;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
@@ -0,0 +1,130 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LogBufferTest extends SimpleDbTestBase {
+
+    /**
+     * Unit test for records wrapping around the end of the buffer
+     */
+    @Test public void wrapAround() throws Exception {
+        File f = File.createTempFile("logbuffer", null);
+        f.deleteOnExit();
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        LogBuffer buf = new LogBuffer(64, 0);
+        LogFile log = Database.getLogFile();
+        for (int i = 0; i < 20; i++) {
+            ByteBuffer rec = ByteBuffer.allocate(24);
+            for (int j = 0; j < 6; j++)
+                rec.putInt(i);
+            rec.flip();
+            long lsn = buf.reserve(24, log);
+            assertEquals(24L * i, lsn);
+            buf.fill(lsn, rec);
+            // the log file of the database knows nothing of this buffer
+            assertEquals(24L * (i + 1), buf.writeTo(raf.getChannel(), 0));
+        }
+        raf.seek(0);
+        for (int i = 0; i < 20 * 6; i++)
+            assertEquals(i / 6, raf.readInt());
+        raf.close();
+    }
+
+    /**
+     * Unit test for concurrent appends ending up back to back in the file
+     */
+    @Test public void concurrentAppends() throws Exception {
+        final LogFile log = Database.getLogFile();
+        final int THREADS = 8;
+        final int RECORDS = 200;
+        final ArrayList<Throwable> errors = new ArrayList<Throwable>();
+        ArrayList<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < THREADS; i++) {
+            Thread th = new Thread() {
+                public void run() {
+                    try {
+                        for (int r = 0; r < RECORDS; r++)
+                            log.logXactionBegin(new TransactionId());
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            };
+            threads.add(th);
+            th.start();
+        }
+        for (Thread th : threads)
+            th.join();
+        assertTrue(errors.toString(), errors.isEmpty());
+        log.force();
+
+        // BEGIN records are an int, the tid and their LSN
+        int size = LogFile.INT_SIZE + 2 * LogFile.LONG_SIZE;
+        assertEquals(LogFile.HEADER_SIZE + THREADS * RECORDS * size, log.getEndLsn());
+        RandomAccessFile in = new RandomAccessFile(log.logFile, "r");
+        assertEquals(LogFile.NO_CHECKPOINT_ID, in.readLong());
+        assertEquals(LogFile.HEADER_SIZE, in.readLong());
+        HashSet<Long> tids = new HashSet<Long>();
+        for (int i = 0; i < THREADS * RECORDS; i++) {
+            long lsn = in.getFilePointer();
+            assertEquals(LogFile.BEGIN_RECORD, in.readInt());
+            tids.add(in.readLong());
+            assertEquals(lsn, in.readLong());
+        }
+        assertEquals(THREADS * RECORDS, tids.size());
+        assertEquals(in.length(), in.getFilePointer());
+        in.close();
+    }
+
+    /**
+     * Unit test for LSNs staying the same when the log is truncated
+     */
+    @Test public void truncateKeepsLsns() throws Exception {
+        LogFile log = Database.getLogFile();
+        for (int i = 0; i < 10; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            t.commit();
+        }
+        Transaction running = new Transaction();
+        running.start();
+        long first = log.tidToFirstLogRecord.get(running.getId().getId());
+        for (int i = 0; i < 10; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            t.commit();
+        }
+        log.logCheckpoint();
+        assertEquals(LogFile.HEADER_SIZE, log.offsetOf(first));
+
+        RandomAccessFile in = new RandomAccessFile(log.logFile, "r");
+        in.seek(log.offsetOf(first));
+        assertEquals(LogFile.BEGIN_RECORD, in.readInt());
+        assertEquals(running.getId().getId(), in.readLong());
+        assertEquals(first, in.readLong());
+        in.close();
+        running.commit();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogBufferTest.class);
+    }
+}
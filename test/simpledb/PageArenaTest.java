@@ -0,0 +1,87 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageArenaTest extends SimpleDbTestBase {
+
+    private static byte[] bytes(int size, int value) {
+        byte[] b = new byte[size];
+        Arrays.fill(b, (byte) value);
+        return b;
+    }
+
+    /**
+     * Unit test for PageArena keeping, replacing and handing back pages
+     */
+    @Test public void frames() {
+        PageArena arena = new PageArena(3 * 16 + 5, 16);
+        assertEquals(3, arena.getNumFrames());
+        for (int i = 0; i < 4; i++)
+            arena.put(new HeapPageId(1, i), bytes(16, i));
+        assertEquals(3, arena.size());
+        // page 0 made room for page 3
+        assertNull(arena.take(new HeapPageId(1, 0)));
+        assertArrayEquals(bytes(16, 2), arena.take(new HeapPageId(1, 2)));
+        assertEquals(2, arena.size());
+        assertNull(arena.take(new HeapPageId(1, 2)));
+
+        // pages of the wrong size are not kept
+        arena.put(new HeapPageId(1, 5), bytes(8, 5));
+        assertEquals(2, arena.size());
+        arena.remove(new HeapPageId(1, 3));
+        assertEquals(1, arena.size());
+    }
+
+    /**
+     * Unit test for PageArena.parseBytes()
+     */
+    @Test public void parseBytes() {
+        assertEquals(100, PageArena.parseBytes("100"));
+        assertEquals(64L << 10, PageArena.parseBytes("64k"));
+        assertEquals(512L << 20, PageArena.parseBytes("512M"));
+        assertEquals(8L << 30, PageArena.parseBytes("8g"));
+    }
+
+    /**
+     * Unit test for a pool serving misses from its arena
+     */
+    @Test public void poolMissesHitArena() throws Exception {
+        final int PAGES = 20;
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES, null, null);
+        BufferPool bp = Database.resetBufferPool(4, new TwoQueueEvictionPolicy(4),
+                32L * BufferPool.getPageSize());
+        assertEquals(32, bp.getArenaFrames());
+        TransactionId tid = new TransactionId();
+
+        for (int i = 0; i < PAGES; i++)
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        assertEquals(0, bp.getArenaHitCount());
+        for (int i = 0; i < PAGES; i++) {
+            HeapPageId pid = new HeapPageId(hf.getId(), i);
+            Page p = bp.getPage(tid, pid, Permissions.READ_ONLY);
+            assertArrayEquals(hf.readPage(pid).getPageData(), p.getPageData());
+        }
+        // every miss of the second pass was served by the arena
+        assertEquals(bp.getMissCount(), PAGES + bp.getArenaHitCount());
+        assertTrue(bp.getArenaHitCount() >= PAGES - 4);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageArenaTest.class);
+    }
+}
@@ -0,0 +1,114 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageDeltaTest extends SimpleDbTestBase {
+
+    /** Checks that the delta from before to after redoes and undoes. */
+    private static byte[] roundTrip(Page before, Page after) throws Exception {
+        byte[] delta = PageDelta.diff(before, after);
+        byte[] data = before.getPageData();
+        PageDelta.redo(data, delta);
+        assertArrayEquals(after.getPageData(), data);
+        PageDelta.undo(data, delta);
+        assertArrayEquals(before.getPageData(), data);
+        return delta;
+    }
+
+    /**
+     * Unit test for deltas of HeapPage inserts and deletes
+     */
+    @Test public void heapPage() throws Exception {
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+        HeapPageId pid = new HeapPageId(-1, -1);
+        HeapPage before = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        HeapPage after = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        after.insertTuple(Utility.getHeapTuple(7, 2));
+        after.insertTuple(Utility.getHeapTuple(8, 2));
+        Iterator<Tuple> it = after.iterator();
+        after.deleteTuple(it.next());
+
+        byte[] delta = roundTrip(before, after);
+        assertTrue(delta.length < BufferPool.getPageSize() / 10);
+        assertTrue(PageDelta.diff(after, after).length == LogFile.INT_SIZE);
+    }
+
+    /**
+     * Unit test for deltas of B+ tree leaf, internal and header pages
+     */
+    @Test public void btreePages() throws Exception {
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+
+        BTreePageId leafId = new BTreePageId(-1, -1, BTreePageId.LEAF);
+        BTreeLeafPage leafBefore = new BTreeLeafPage(leafId, BTreeLeafPageTest.EXAMPLE_DATA, 0);
+        BTreeLeafPage leaf = new BTreeLeafPage(leafId, BTreeLeafPageTest.EXAMPLE_DATA, 0);
+        leaf.insertTuple(BTreeUtility.getBTreeTuple(1, 2));
+        leaf.deleteTuple(leaf.reverseIterator().next());
+        leaf.setRightSiblingId(new BTreePageId(-1, 3, BTreePageId.LEAF));
+        roundTrip(leafBefore, leaf);
+
+        BTreePageId internalId = new BTreePageId(-1, -1, BTreePageId.INTERNAL);
+        BTreeInternalPage internalBefore = new BTreeInternalPage(internalId, BTreeInternalPageTest.EXAMPLE_DATA, 0);
+        BTreeInternalPage internal = new BTreeInternalPage(internalId, BTreeInternalPageTest.EXAMPLE_DATA, 0);
+        internal.deleteKeyAndRightChild(internal.iterator().next());
+        internal.setParentId(new BTreePageId(-1, 5, BTreePageId.INTERNAL));
+        roundTrip(internalBefore, internal);
+
+        BTreePageId headerId = new BTreePageId(-1, -1, BTreePageId.HEADER);
+        BTreeHeaderPage headerBefore = new BTreeHeaderPage(headerId, BTreeHeaderPage.createEmptyPageData());
+        BTreeHeaderPage header = new BTreeHeaderPage(headerId, BTreeHeaderPage.createEmptyPageData());
+        header.markSlotUsed(3, true);
+        header.markSlotUsed(1000, true);
+        roundTrip(headerBefore, header);
+
+        // root pointer pages are always logged as full images
+        BTreePageId rootId = BTreeRootPtrPage.getId(-1);
+        BTreeRootPtrPage root = new BTreeRootPtrPage(rootId, BTreeRootPtrPage.createEmptyPageData());
+        assertNull(PageDelta.diff(root, root));
+    }
+
+    /**
+     * Unit test for later flushes of a page being logged as deltas
+     */
+    @Test public void logVolume() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 10, null, new ArrayList<ArrayList<Integer>>());
+        BufferPool bp = Database.getBufferPool();
+        LogFile log = Database.getLogFile();
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+
+        bp.insertTuple(tid, f.getId(), Utility.getHeapTuple(1, 2));
+        long start = log.getEndLsn();
+        bp.flushPages(tid);
+        long full = log.getEndLsn() - start;
+        assertTrue(full > 2 * BufferPool.getPageSize());
+
+        bp.insertTuple(tid, f.getId(), Utility.getHeapTuple(2, 2));
+        start = log.getEndLsn();
+        bp.flushPages(tid);
+        long delta = log.getEndLsn() - start;
+        assertTrue("delta record of " + delta + " bytes", delta < 100);
+
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageDeltaTest.class);
+    }
+}
@@ -0,0 +1,116 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageWriterTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 20;
+
+    private HeapFile hf;
+    private BufferPool bp;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // 504 two-column tuples fill a page
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * (POOL_PAGES + 1), null, null);
+        bp = Database.resetBufferPool(POOL_PAGES);
+        tid = new TransactionId();
+    }
+
+    private void dirty(int pages) throws Exception {
+        for (int i = 0; i < pages; i++) {
+            Page p = bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_WRITE);
+            p.markDirty(true, tid);
+        }
+    }
+
+    private int countDirty() {
+        int n = 0;
+        for (Page p : bp.pages.values())
+            if (p.isDirty() != null)
+                n++;
+        return n;
+    }
+
+    private static int countTuples(Page p) {
+        int n = 0;
+        for (Iterator<Tuple> it = ((HeapPage) p).iterator(); it.hasNext(); it.next())
+            n++;
+        return n;
+    }
+
+    /**
+     * Unit test for the background writer bringing the share of dirty pages
+     * down to the dirty ratio
+     */
+    @Test public void writesDownToRatio() throws Exception {
+        bp.setDirtyRatio(0.25);
+        dirty(10);
+        for (int i = 0; i < 100 && countDirty() > 5; i++)
+            Thread.sleep(50);
+        assertEquals(5, countDirty());
+        assertEquals(5, bp.getBackgroundWriteCount());
+        // the pages were taken in file order
+        for (int i = 0; i < 5; i++)
+            assertEquals(null, bp.pages.get(new HeapPageId(hf.getId(), i)).isDirty());
+    }
+
+    /**
+     * Unit test for an abort undoing the changes the background writer wrote
+     * out early
+     */
+    @Test public void abortUndoesWrittenPages() throws Exception {
+        bp.setDirtyRatio(1);
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        Tuple t = ((HeapPage) bp.getPage(tid, pid, Permissions.READ_ONLY)).iterator().next();
+        bp.deleteTuple(tid, t);
+        bp.setDirtyRatio(0);
+        bp.writeDirtyPages();
+        assertEquals(503, countTuples(hf.readPage(pid)));
+
+        bp.transactionComplete(tid, false);
+        assertEquals(504, countTuples(hf.readPage(pid)));
+        assertEquals(504, countTuples(bp.getPage(new TransactionId(), pid, Permissions.READ_ONLY)));
+    }
+
+    /**
+     * Unit test for an eviction writing dirty pages when there is no clean
+     * one, unless the background writer is disabled
+     */
+    @Test public void evictionWritesDirtyPages() throws Exception {
+        bp.setDirtyRatio(1);
+        dirty(POOL_PAGES);
+        HeapPageId extra = new HeapPageId(hf.getId(), POOL_PAGES);
+        try {
+            bp.getPage(tid, extra, Permissions.READ_ONLY);
+            fail("no page should have been evicted");
+        } catch (DbException e) {
+            // expected
+        }
+
+        bp.setDirtyRatio(0.99);
+        bp.getPage(tid, extra, Permissions.READ_ONLY);
+        assertTrue(countDirty() < POOL_PAGES);
+        assertTrue(bp.pages.size() <= POOL_PAGES);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageWriterTest.class);
+    }
+}
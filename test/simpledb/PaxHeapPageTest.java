@@ -0,0 +1,228 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PaxHeapPageTest extends SimpleDbTestBase {
+
+    private HeapPageId pid;
+    private TupleDesc td;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() throws Exception {
+        this.pid = new HeapPageId(-1, -1);
+        this.td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+        Database.getCatalog().addTable(new SkeletonFile(-1, td), SystemTestUtil.getUUID());
+    }
+
+    private Tuple getTuple(int i) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField("s" + i, Type.STRING_LEN));
+        t.setField(2, new IntField(-i));
+        return t;
+    }
+
+    /**
+     * Unit test for PaxHeapPage.insertTuple() and deleteTuple(), checked
+     * through the bytes written to disk
+     */
+    @Test public void insertAndDelete() throws Exception {
+        PaxHeapPage page = new PaxHeapPage(pid, HeapPage.createEmptyPageData());
+        int slots = page.getNumEmptySlots();
+        // same capacity as a row-oriented HeapPage
+        assertEquals((BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1), slots);
+
+        ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+        for (int i = 0; i < slots; i++) {
+            Tuple t = getTuple(i);
+            page.insertTuple(t);
+            inserted.add(t);
+        }
+        try {
+            page.insertTuple(getTuple(slots));
+            fail("page should be full");
+        } catch (DbException e) {
+            // expected
+        }
+
+        page.deleteTuple(inserted.get(3));
+        PaxHeapPage copy = new PaxHeapPage(pid, page.getPageData());
+        assertFalse(copy.isSlotUsed(3));
+        Iterator<Tuple> it = copy.iterator();
+        for (int i = 0; i < slots; i++) {
+            if (i == 3)
+                continue;
+            Tuple t = it.next();
+            assertTrue(TestUtil.compareTuples(getTuple(i), t));
+            assertEquals(new RecordId(pid, i), t.getRecordId());
+        }
+        assertFalse(it.hasNext());
+        assertEquals(0, page.getBeforeImage().iterator().hasNext() ? 1 : 0);
+    }
+
+    /**
+     * Unit test for the projecting iterator of PaxHeapPage
+     */
+    @Test public void projectedIterator() throws Exception {
+        PaxHeapPage page = new PaxHeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < 10; i++)
+            page.insertTuple(getTuple(i));
+
+        int[] columns = new int[] { 2, 0 };
+        TupleDesc projected = td.project(columns);
+        Iterator<Tuple> it = page.iterator(columns, projected);
+        for (int i = 0; i < 10; i++) {
+            Tuple t = it.next();
+            assertEquals(projected, t.getTupleDesc());
+            assertEquals(new IntField(-i), t.getField(0));
+            assertEquals(new IntField(i), t.getField(1));
+            assertEquals(new RecordId(pid, i), t.getRecordId());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Unit test for HeapFileEncoder.convertPax() and a projecting SeqScan over
+     * the resulting PaxHeapFile
+     */
+    @Test public void convertAndScan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 2000; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            for (int j = 0; j < 4; j++)
+                tuple.add(i * 10 + j);
+            tuples.add(tuple);
+        }
+        File f = File.createTempFile("pax", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convertPax(tuples, f, BufferPool.getPageSize(), 4);
+
+        PaxHeapFile hf = new PaxHeapFile(f, Utility.getTupleDesc(4, "c"));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "t", new int[] { 3, 1 });
+        assertEquals(2, scan.getTupleDesc().numFields());
+        assertEquals("t.c3", scan.getTupleDesc().getFieldName(0));
+
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertEquals(new IntField(count * 10 + 3), t.getField(0));
+            assertEquals(new IntField(count * 10 + 1), t.getField(1));
+            count++;
+        }
+        scan.close();
+        assertEquals(2000, count);
+
+        // a full scan still returns whole tuples
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        Tuple first = it.next();
+        assertEquals(4, first.getTupleDesc().numFields());
+        assertEquals(new IntField(2), first.getField(2));
+        it.close();
+    }
+
+    /**
+     * Unit test for LogicalPlan passing only the fields a query reads to its
+     * scans
+     */
+    @Test public void physicalPlanProjects() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(5, 100, null, null, "c");
+        Database.getCatalog().addTable(hf, "proj");
+        TableStats.computeStatistics();
+        TransactionId tid = new TransactionId();
+
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+                "SELECT a.c3 FROM proj a, proj b WHERE a.c1 = b.c0 AND b.c4 > 0;");
+        HashMap<String, int[]> columns = new HashMap<String, int[]>();
+        findScans(lp.physicalPlan(tid, TableStats.getStatsMap(), false), columns);
+        assertTrue(Arrays.equals(new int[] { 1, 3 }, columns.get("a")));
+        assertTrue(Arrays.equals(new int[] { 0, 4 }, columns.get("b")));
+
+        lp = new Parser().generateLogicalPlan(tid,
+                "SELECT * FROM proj a, proj b WHERE a.c1 = b.c0;");
+        columns.clear();
+        findScans(lp.physicalPlan(tid, TableStats.getStatsMap(), false), columns);
+        assertEquals(2, columns.size());
+        assertNull(columns.get("a"));
+        assertNull(columns.get("b"));
+    }
+
+    /**
+     * Unit test for LogicalPlan estimating a filter on a projected scan with
+     * the statistics of the filtered field, not of the field at the same
+     * place in the projection
+     */
+    @Test public void physicalPlanFilterStats() throws Exception {
+        File text = File.createTempFile("mixed", ".txt");
+        text.deleteOnExit();
+        FileWriter w = new FileWriter(text);
+        for (int i = 0; i < 100; i++)
+            w.write(i + ",s" + i + "," + i + "\n");
+        w.close();
+        File data = File.createTempFile("mixed", ".dat");
+        data.deleteOnExit();
+        Type[] types = new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE };
+        HeapFileEncoder.convert(text, data, BufferPool.getPageSize(), 3, types, ',');
+        TupleDesc named = new TupleDesc(types, new String[] { "a", "b", "c" });
+        Database.getCatalog().addTable(new HeapFile(data, named), "mixed");
+        TableStats.computeStatistics();
+        TransactionId tid = new TransactionId();
+
+        // c is the second field of the scan of x, and b a string
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+                "SELECT x.b FROM mixed x, mixed y WHERE x.b = y.b AND x.c > 89;");
+        DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        HashMap<String, int[]> columns = new HashMap<String, int[]>();
+        findScans(plan, columns);
+        assertTrue(Arrays.equals(new int[] { 1, 2 }, columns.get("x")));
+        plan.open();
+        int n = 0;
+        while (plan.hasNext()) {
+            plan.next();
+            n++;
+        }
+        plan.close();
+        assertEquals(10, n);
+    }
+
+    private static void findScans(DbIterator plan, HashMap<String, int[]> columns) {
+        if (plan instanceof SeqScan) {
+            columns.put(((SeqScan) plan).getAlias(), ((SeqScan) plan).getColumns());
+            return;
+        }
+        for (DbIterator child : ((Operator) plan).getChildren())
+            findScans(child, columns);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxHeapPageTest.class);
+    }
+}
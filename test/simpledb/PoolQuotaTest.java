@@ -0,0 +1,126 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PoolQuotaTest extends SimpleDbTestBase {
+
+    private static final int PAGES = 10;
+    private HeapFile hot;
+    private HeapFile batch;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        hot = SystemTestUtil.createRandomHeapFile(2, 504 * 4, null, null);
+        batch = SystemTestUtil.createRandomHeapFile(2, 504 * 30, null, null);
+        tid = new TransactionId();
+    }
+
+    private void read(BufferPool bp, HeapFile hf, int pages) throws Exception {
+        for (int i = 0; i < pages; i++)
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+    }
+
+    private int cached(BufferPool bp, HeapFile hf) {
+        Integer n = bp.getTableResidency().get(hf.getId());
+        return n == null ? 0 : n;
+    }
+
+    /**
+     * Unit test for the minimum of a table keeping its pages in the pool
+     */
+    @Test public void minimumStaysResident() throws Exception {
+        Database.getCatalog().setTableQuota(hot.getId(), 4, PoolQuota.UNLIMITED);
+        BufferPool bp = Database.resetBufferPool(PAGES, new ClockEvictionPolicy());
+        read(bp, hot, 4);
+        read(bp, batch, 30);
+        assertEquals(4, cached(bp, hot));
+        assertEquals(4, bp.getPartitionPageCount(Database.getCatalog().getPoolQuota(hot.getId())));
+        bp.resetCounters();
+        read(bp, hot, 4);
+        assertEquals(0, bp.getMissCount());
+    }
+
+    /**
+     * Unit test for the maximum of a table making it evict its own pages
+     */
+    @Test public void maximumEvictsOwnPages() throws Exception {
+        Database.getCatalog().setTableQuota(batch.getId(), 0, 3);
+        BufferPool bp = Database.resetBufferPool(PAGES, new ClockEvictionPolicy());
+        read(bp, hot, 4);
+        read(bp, batch, 30);
+        assertEquals(3, cached(bp, batch));
+        assertEquals(4, cached(bp, hot));
+    }
+
+    /**
+     * Unit test for the tables of a tablespace sharing its quota
+     */
+    @Test public void tablespaceShared() throws Exception {
+        Catalog c = Database.getCatalog();
+        c.setTablespaceQuota("batch", 0, 5);
+        c.setTablespace(hot.getId(), "batch");
+        c.setTablespace(batch.getId(), "batch");
+        assertSame(c.getPoolQuota(hot.getId()), c.getPoolQuota(batch.getId()));
+        BufferPool bp = Database.resetBufferPool(PAGES, new ClockEvictionPolicy());
+        read(bp, hot, 4);
+        read(bp, batch, 30);
+        assertEquals(5, cached(bp, hot) + cached(bp, batch));
+
+        // a table's own quota takes precedence
+        c.setTableQuota(hot.getId(), 1, 2);
+        assertEquals(2, c.getPoolQuota(hot.getId()).getMaxPages());
+    }
+
+    /**
+     * Unit test for quotas in the schema file
+     */
+    @Test public void loadSchema() throws Exception {
+        File dir = File.createTempFile("quota", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        File schema = new File(dir, "catalog.txt");
+        schema.deleteOnExit();
+        FileWriter w = new FileWriter(schema);
+        w.write("tablespace adhoc maxpages=20\n");
+        w.write("lookup (id int pk, v int) minpages=8 maxpages=16\n");
+        w.write("events (id int, v int) tablespace=adhoc\n");
+        w.write("other (id int, v int)\n");
+        w.close();
+        Catalog c = Database.getCatalog();
+        c.loadSchema(schema.getAbsolutePath());
+        for (String t : new String[] { "lookup", "events", "other" })
+            new File(dir, t + ".dat").deleteOnExit();
+
+        PoolQuota lookup = c.getPoolQuota(c.getTableId("lookup"));
+        assertEquals(8, lookup.getMinPages());
+        assertEquals(16, lookup.getMaxPages());
+        PoolQuota adhoc = c.getPoolQuota(c.getTableId("events"));
+        assertEquals("adhoc", adhoc.getName());
+        assertEquals(0, adhoc.getMinPages());
+        assertEquals(20, adhoc.getMaxPages());
+        assertNull(c.getPoolQuota(c.getTableId("other")));
+        assertTrue(Database.getBufferPool().report().contains("buffer pool"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PoolQuotaTest.class);
+    }
+}
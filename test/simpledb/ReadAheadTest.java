@@ -0,0 +1,154 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+
+    private static final int PAGES = 20;
+    private static final int POOL = 10;
+
+    private BufferPool bp;
+    private HeapFile hf;
+
+    @Before public void setUp() throws Exception {
+        bp = Database.resetBufferPool(POOL);
+        bp.setMaxReadAhead(4);
+        hf = SystemTestUtil.createRandomHeapFile(2, PAGES * 504, null, null);
+        assertEquals(PAGES, hf.numPages());
+    }
+
+    private HeapPageId page(int pgno) {
+        return new HeapPageId(hf.getId(), pgno);
+    }
+
+    /** Waits for the pages being read ahead. */
+    private void awaitReadAhead() throws Exception {
+        for (BufferPool.Prefetch pf : bp.readAhead.values())
+            pf.page.get();
+    }
+
+    /** Deletes a tuple of a page on disk, and tells the pool the page changed. */
+    private void changeOnDisk(HeapPageId pid) throws Exception {
+        HeapPage p = (HeapPage) hf.readPage(pid);
+        p.deleteTuple(p.iterator().next());
+        hf.writePage(p);
+        bp.discardPage(pid);
+    }
+
+    /**
+     * Unit test for read-ahead starting on sequential access, stopping on a
+     * jump, and its window growing with the read latency
+     */
+    @Test public void sequentialWindow() throws Exception {
+        ReadAhead ra = new ReadAhead(hf.getId());
+        ra.access(0, PAGES);
+        assertEquals(0, ra.getPrefetchedUpTo());
+        assertTrue(bp.readAhead.isEmpty());
+
+        // the second sequential page starts the initial window
+        ra.access(1, PAGES);
+        assertEquals(3, ra.getPrefetchedUpTo());
+        assertTrue(bp.readAhead.containsKey(page(2)));
+        assertTrue(bp.readAhead.containsKey(page(3)));
+        awaitReadAhead();
+
+        // a jump starts over without reading ahead
+        bp.readAhead.clear();
+        ra.access(10, PAGES);
+        assertEquals(10, ra.getPrefetchedUpTo());
+        assertTrue(bp.readAhead.isEmpty());
+
+        // the slower the reads compared to the scan, the wider the window
+        assertEquals(2, ReadAhead.window(8, 0, 0));
+        assertEquals(3, ReadAhead.window(8, 1000, 1000));
+        assertEquals(6, ReadAhead.window(8, 4000, 1000));
+        assertEquals(8, ReadAhead.window(8, 1000000, 1000));
+        assertEquals(0, ReadAhead.window(0, 1000000, 1000));
+    }
+
+    /**
+     * Unit test for read-ahead never evicting pages of the pool
+     */
+    @Test public void neverEvicts() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < POOL; i++)
+            bp.getPage(tid, page(i), Permissions.READ_ONLY);
+        HashSet<PageId> cached = new HashSet<PageId>(bp.pages.keySet());
+        assertEquals(POOL, cached.size());
+
+        for (int i = POOL; i < POOL + 4; i++)
+            assertTrue(bp.prefetchPage(page(i)));
+        // the read-ahead area is full
+        assertFalse(bp.prefetchPage(page(POOL + 4)));
+        awaitReadAhead();
+
+        assertEquals(cached, new HashSet<PageId>(bp.pages.keySet()));
+        assertEquals(4, bp.readAhead.size());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for a page read ahead being dropped when the page changes,
+     * also if the read-ahead is installed after the change
+     */
+    @Test public void invalidatedOnWrite() throws Exception {
+        TransactionId tid = new TransactionId();
+        assertTrue(bp.prefetchPage(page(5)));
+        awaitReadAhead();
+        changeOnDisk(page(5));
+        assertFalse(bp.readAhead.containsKey(page(5)));
+        HeapPage p = (HeapPage) bp.getPage(tid, page(5), Permissions.READ_ONLY);
+        assertEquals(1, p.getNumEmptySlots());
+
+        // a read-ahead that lost the race with the change
+        assertTrue(bp.prefetchPage(page(6)));
+        BufferPool.Prefetch stale = bp.readAhead.get(page(6));
+        awaitReadAhead();
+        changeOnDisk(page(6));
+        bp.readAhead.put(page(6), stale);
+        p = (HeapPage) bp.getPage(tid, page(6), Permissions.READ_ONLY);
+        assertEquals(1, p.getNumEmptySlots());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for the pages read ahead of a scan being dropped when the
+     * scan is rewound or closed before it gets to them
+     */
+    @Test public void droppedOnClose() throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        for (int i = 0; i < 504 * 2 + 1; i++)
+            it.next();
+        assertFalse(bp.readAhead.isEmpty());
+        it.rewind();
+        assertTrue(bp.readAhead.isEmpty());
+
+        for (int i = 0; i < 504 * 2 + 1; i++)
+            it.next();
+        assertFalse(bp.readAhead.isEmpty());
+        it.close();
+        assertTrue(bp.readAhead.isEmpty());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
@@ -0,0 +1,375 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class RecoveryTest extends SimpleDbTestBase {
+
+    private File file;
+    private HeapFile hf;
+
+    @Before public void createTable() throws Exception {
+        file = File.createTempFile("recovery", ".dat");
+        file.deleteOnExit();
+        hf = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+    }
+
+    private Transaction begin() {
+        Transaction t = new Transaction();
+        t.start();
+        return t;
+    }
+
+    private void insert(Transaction t, int v) throws Exception {
+        Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(v, 2));
+    }
+
+    /** Loses everything in memory, and recovers from the log. */
+    private RecoveryStats crash() throws Exception {
+        return crash(ParallelRedo.THREADS);
+    }
+
+    /** Crashes, and recovers with the given number of redo threads. */
+    private RecoveryStats crash(int threads) throws Exception {
+        Database.reset();
+        hf = Utility.openHeapFile(2, file);
+        Database.getLogFile().recoveryThreads = threads;
+        Database.getLogFile().recover();
+        return Database.getLogFile().getLastRecovery();
+    }
+
+    private void expect(int... values) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int v : values)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(v, v)));
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    private int countRecords(int type) throws Exception {
+        LogFile log = Database.getLogFile();
+        log.force();
+        RandomAccessFile in = new RandomAccessFile(log.logFile, "r");
+        in.seek(LogFile.LONG_SIZE);
+        long base = in.readLong();
+        LogRecord.Scanner scanner = new LogRecord.Scanner(in, LogFile.HEADER_SIZE, base);
+        int n = 0;
+        LogRecord rec;
+        while ((rec = scanner.next()) != null) {
+            if (rec.type == type)
+                n++;
+        }
+        scanner.close();
+        return n;
+    }
+
+    /**
+     * Unit test for redoing a committed update that did not reach the disk
+     */
+    @Test public void committedRedone() throws Exception {
+        Transaction t1 = begin();
+        insert(t1, 1);
+        t1.commit();
+
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        byte[] old = hf.readPage(pid).getPageData();
+        Transaction t2 = begin();
+        insert(t2, 2);
+        t2.commit();
+        hf.writePage(new HeapPage(pid, old));
+
+        RecoveryStats stats = crash();
+        assertEquals(0, stats.getLosers());
+        assertTrue(stats.getRecordsRedone() >= 2);
+        expect(1, 2);
+    }
+
+    /**
+     * Unit test for undoing the stolen pages of an uncommitted transaction
+     */
+    @Test public void losersUndone() throws Exception {
+        Transaction t1 = begin();
+        insert(t1, 1);
+        t1.commit();
+
+        Transaction t2 = begin();
+        insert(t2, 2);
+        Database.getBufferPool().flushPages(t2.getId());
+        insert(t2, 3);
+        Database.getBufferPool().flushPages(t2.getId());
+        Database.getLogFile().force();
+
+        RecoveryStats stats = crash();
+        assertEquals(1, stats.getLosers());
+        assertEquals(2, stats.getRecordsUndone());
+        expect(1);
+    }
+
+    /**
+     * Unit test for rollback() on abort
+     */
+    @Test public void abortRollsBack() throws Exception {
+        Transaction t = begin();
+        insert(t, 5);
+        Database.getBufferPool().flushPages(t.getId());
+        t.abort();
+        assertEquals(1, countRecords(LogFile.CLR_RECORD));
+        expect();
+
+        RecoveryStats stats = crash();
+        assertEquals(0, stats.getLosers());
+        expect();
+    }
+
+    /**
+     * Unit test for an abort through the BufferPool alone rolling back the
+     * pages written out early from the log
+     */
+    @Test public void bufferPoolAbortRollsBack() throws Exception {
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(5, 2));
+        Database.getBufferPool().flushPages(tid);
+        assertTrue(Database.getLogFile().isRunning(tid));
+        Database.getBufferPool().transactionComplete(tid, false);
+        assertEquals(1, countRecords(LogFile.CLR_RECORD));
+        assertEquals(1, countRecords(LogFile.ABORT_RECORD));
+        expect();
+
+        RecoveryStats stats = crash();
+        assertEquals(0, stats.getLosers());
+        expect();
+    }
+
+    /**
+     * Unit test for recovery undoing the stolen pages of a transaction that
+     * never logged a BEGIN record
+     */
+    @Test public void bufferPoolLosersUndone() throws Exception {
+        Transaction t1 = begin();
+        insert(t1, 1);
+        t1.commit();
+
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(2, 2));
+        Database.getBufferPool().flushPages(tid);
+        Database.getLogFile().force();
+
+        RecoveryStats stats = crash();
+        assertEquals(1, stats.getLosers());
+        assertEquals(1, stats.getRecordsUndone());
+        expect(1);
+    }
+
+    /**
+     * Unit test for a record cut short at the end of the log being dropped
+     */
+    @Test public void tornTailDropped() throws Exception {
+        Transaction t1 = begin();
+        insert(t1, 1);
+        t1.commit();
+        Transaction t2 = begin();
+        insert(t2, 2);
+        t2.commit();
+        LogFile log = Database.getLogFile();
+        log.force();
+        // the crash cut the COMMIT record of t2 short
+        RandomAccessFile raf = new RandomAccessFile(log.logFile, "rw");
+        raf.setLength(raf.length() - 3);
+        raf.close();
+
+        RecoveryStats stats = crash();
+        assertEquals(1, stats.getLosers());
+        expect(1);
+    }
+
+    /**
+     * Unit test for a damaged record in the middle of the log failing
+     * recovery, without cutting off the records after it
+     */
+    @Test public void damagedRecordKept() throws Exception {
+        Transaction t1 = begin();
+        insert(t1, 1);
+        t1.commit();
+        Transaction t2 = begin();
+        insert(t2, 2);
+        t2.commit();
+        LogFile log = Database.getLogFile();
+        log.force();
+        // an unknown type for the first record of the log
+        RandomAccessFile raf = new RandomAccessFile(log.logFile, "rw");
+        long length = raf.length();
+        raf.seek(LogFile.HEADER_SIZE);
+        raf.writeInt(99);
+        raf.close();
+
+        try {
+            crash();
+            fail("recovery should fail on a damaged log");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(length, log.logFile.length());
+    }
+
+    /**
+     * Unit test for compensated updates not being undone again
+     */
+    @Test public void repeatedRecovery() throws Exception {
+        Transaction t1 = begin();
+        insert(t1, 1);
+        t1.commit();
+
+        Transaction t2 = begin();
+        insert(t2, 2);
+        Database.getBufferPool().flushPages(t2.getId());
+        insert(t2, 3);
+        Database.getBufferPool().flushPages(t2.getId());
+        // crash after the rollback, before the ABORT record
+        Database.getLogFile().rollback(t2.getId());
+        Database.getLogFile().force();
+
+        RecoveryStats stats = crash();
+        assertEquals(1, stats.getLosers());
+        assertEquals(0, stats.getRecordsUndone());
+        expect(1);
+
+        stats = crash();
+        assertEquals(0, stats.getLosers());
+        expect(1);
+    }
+
+    /**
+     * Unit test for redo starting at the last checkpoint
+     */
+    @Test public void checkpointBoundsRedo() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            Transaction t = begin();
+            insert(t, i);
+            t.commit();
+        }
+        LogFile log = Database.getLogFile();
+        log.logCheckpoint();
+        Transaction t = begin();
+        insert(t, 5);
+        t.commit();
+        long pending = log.getBytesSinceCheckpoint();
+
+        RecoveryStats stats = crash();
+        assertTrue(stats.getCheckpointLsn() != LogFile.NO_CHECKPOINT_ID);
+        assertEquals(pending, stats.getRedoBytes());
+        assertEquals(1, stats.getRecordsRedone());
+        assertTrue(stats.toString().startsWith("recovery took"));
+        expect(0, 1, 2, 3, 4, 5);
+    }
+
+    /**
+     * Unit test for redo of many pages on several threads
+     */
+    @Test public void parallelRedo() throws Exception {
+        byte[] empty = Files.readAllBytes(file.toPath());
+        int[] values = new int[3000];
+        for (int i = 0; i < 10; i++) {
+            Transaction t = begin();
+            for (int j = 0; j < 300; j++) {
+                values[i * 300 + j] = i * 300 + j;
+                insert(t, i * 300 + j);
+            }
+            t.commit();
+        }
+        // none of the committed pages made it to disk
+        Files.write(file.toPath(), empty);
+
+        RecoveryStats stats = crash(4);
+        assertEquals(4, stats.getRedoThreads());
+        assertTrue(stats.getPagesRedone() > 4);
+        assertTrue(stats.getRecordsRedone() > stats.getPagesRedone());
+        expect(values);
+    }
+
+    /**
+     * Unit test for redo holding no more pages in memory than its bound,
+     * writing pages out early to redo more pages than that
+     */
+    @Test public void redoPagesBounded() throws Exception {
+        byte[] empty = Files.readAllBytes(file.toPath());
+        int[] values = new int[3000];
+        for (int i = 0; i < 10; i++) {
+            Transaction t = begin();
+            for (int j = 0; j < 300; j++) {
+                values[i * 300 + j] = i * 300 + j;
+                insert(t, i * 300 + j);
+            }
+            t.commit();
+        }
+        Files.write(file.toPath(), empty);
+
+        Database.reset();
+        hf = Utility.openHeapFile(2, file);
+        Database.getLogFile().recoveryThreads = 1;
+        Database.getLogFile().recoveryPages = 2;
+        Database.getLogFile().recover();
+        RecoveryStats stats = Database.getLogFile().getLastRecovery();
+        assertTrue(stats.getPagesRedone() > 2);
+        assertEquals(2, stats.getPeakRedoPages());
+        expect(values);
+    }
+
+    /**
+     * Unit test for pages written out while their transaction keeps changing
+     * them: what is logged, written and used as the next before image must
+     * be the same image, so redo rebuilds the pages from the log
+     */
+    @Test public void pagesWrittenWhileChanging() throws Exception {
+        byte[] empty = Files.readAllBytes(file.toPath());
+        final Transaction t = begin();
+        final int[] values = new int[3000];
+        final Exception[] failure = new Exception[1];
+        Thread inserter = new Thread() {
+            public void run() {
+                try {
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = i;
+                        insert(t, i);
+                    }
+                } catch (Exception e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        BufferPool bp = Database.getBufferPool();
+        bp.setDirtyRatio(0);
+        inserter.start();
+        while (inserter.isAlive())
+            bp.writeDirtyPages();
+        inserter.join();
+        if (failure[0] != null)
+            throw failure[0];
+        t.commit();
+        Files.write(file.toPath(), empty);
+
+        crash();
+        expect(values);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RecoveryTest.class);
+    }
+}
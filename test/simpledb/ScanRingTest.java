@@ -0,0 +1,123 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ScanRingTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 32;
+
+    private HeapFile hot;
+    private HeapFile big;
+    private BufferPool bp;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hot = SystemTestUtil.createRandomHeapFile(2, 2000, null, null);
+        big = SystemTestUtil.createRandomHeapFile(2, 20000, null, null);
+        bp = Database.resetBufferPool(POOL_PAGES);
+        tid = new TransactionId();
+    }
+
+    private int scan(HeapFile f) throws Exception {
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    private int cachedPages(HeapFile f) {
+        int n = 0;
+        for (PageId pid : bp.pages.keySet())
+            if (pid.getTableId() == f.getId())
+                n++;
+        return n;
+    }
+
+    /**
+     * Unit test for BufferPool.getScanRing() only giving large tables a ring
+     */
+    @Test public void threshold() {
+        int threshold = (int) (POOL_PAGES * BufferPool.SCAN_RING_THRESHOLD);
+        assertNull(bp.getScanRing(threshold));
+        ScanRing ring = bp.getScanRing(threshold + 1);
+        assertEquals(POOL_PAGES / 8, ring.size());
+    }
+
+    /**
+     * Unit test for a scan of a large table recycling its ring and leaving
+     * the other cached pages alone
+     */
+    @Test public void bigScanKeepsHotPages() throws Exception {
+        assertTrue(big.numPages() > POOL_PAGES);
+        scan(hot);
+        assertEquals(hot.numPages(), cachedPages(hot));
+
+        assertEquals(20000, scan(big));
+        assertTrue(cachedPages(big) <= bp.getScanRing(big.numPages()).size());
+        assertTrue(bp.pages.size() <= POOL_PAGES);
+
+        bp.resetCounters();
+        scan(hot);
+        assertEquals(0, bp.getMissCount());
+    }
+
+    /**
+     * Unit test for a ring page requested outside of the scan staying in the
+     * pool
+     */
+    @Test public void sharedPageLeavesRing() throws Exception {
+        DbFileIterator it = big.iterator(tid);
+        it.open();
+        it.next();
+        PageId first = new HeapPageId(big.getId(), 0);
+        bp.getPage(tid, first, Permissions.READ_ONLY);
+        while (it.hasNext())
+            it.next();
+        it.close();
+        assertTrue(bp.pages.containsKey(first));
+    }
+
+    /**
+     * Unit test for a rewound scan giving back the pages of its old ring,
+     * so they do not pile up in the pool where nothing can evict them
+     */
+    @Test public void rewindReleasesRing() throws Exception {
+        SeqScan scan = new SeqScan(tid, big.getId(), "big");
+        scan.open();
+        for (int i = 0; i < 3 * POOL_PAGES; i++) {
+            for (int j = 0; j < 10 * 504 && scan.hasNext(); j++)
+                scan.next();
+            assertTrue(cachedPages(big) <= bp.getScanRing(big.numPages()).size());
+            scan.rewind();
+        }
+        scan.close();
+        assertEquals(0, cachedPages(big));
+
+        // the pool can still cache other pages
+        scan(hot);
+        assertEquals(hot.numPages(), cachedPages(hot));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ScanRingTest.class);
+    }
+}
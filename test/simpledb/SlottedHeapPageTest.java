@@ -0,0 +1,167 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+
+    private HeapPageId pid;
+    private TupleDesc td;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() throws Exception {
+        this.pid = new HeapPageId(-1, -1);
+        this.td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        Database.getCatalog().addTable(new SkeletonFile(-1, td), SystemTestUtil.getUUID());
+    }
+
+    private Tuple getTuple(int i, String s) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    /**
+     * Unit test for SlottedHeapPage.insertTuple() and iterator(), with short
+     * strings packing many more tuples than a fixed-size HeapPage holds
+     */
+    @Test public void insertAndIterate() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        int n = 0;
+        while (page.hasRoomFor(getTuple(n, "row " + n))) {
+            page.insertTuple(getTuple(n, "row " + n));
+            n++;
+        }
+        int fixedSlots = (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+        assertTrue(n > 5 * fixedSlots);
+
+        try {
+            page.insertTuple(getTuple(n, "row " + n));
+            fail("page should be full");
+        } catch (DbException e) {
+            // expected
+        }
+
+        // the bytes written to disk read back as the same tuples
+        SlottedHeapPage copy = new SlottedHeapPage(pid, page.getPageData());
+        Iterator<Tuple> it = copy.iterator();
+        for (int i = 0; i < n; i++) {
+            Tuple t = it.next();
+            assertTrue(TestUtil.compareTuples(getTuple(i, "row " + i), t));
+            assertEquals(new RecordId(pid, i), t.getRecordId());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Unit test for SlottedHeapPage reclaiming the space of deleted tuples
+     * without changing the slots of the remaining ones
+     */
+    @Test public void deleteAndCompact() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        String longString = new String(new char[100]).replace('\0', 'x');
+        ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+        while (page.hasRoomFor(getTuple(0, longString))) {
+            Tuple t = getTuple(inserted.size(), longString);
+            page.insertTuple(t);
+            inserted.add(t);
+        }
+
+        // free every other tuple, then fill the holes with short tuples
+        for (int i = 0; i < inserted.size(); i += 2)
+            page.deleteTuple(inserted.get(i));
+        int shortTuples = 0;
+        while (page.hasRoomFor(getTuple(-1, "s"))) {
+            page.insertTuple(getTuple(-1, "s"));
+            shortTuples++;
+        }
+        assertTrue(shortTuples > inserted.size());
+
+        SlottedHeapPage copy = new SlottedHeapPage(pid, page.getPageData());
+        for (int i = 1; i < inserted.size(); i += 2) {
+            assertTrue(copy.isSlotUsed(i));
+            assertTrue(TestUtil.compareTuples(inserted.get(i), copy.getTuple(i)));
+        }
+        assertEquals(inserted.size() / 2 + shortTuples, copy.getNumTuples());
+    }
+
+    /**
+     * Unit test for the before-image of a SlottedHeapPage
+     */
+    @Test public void beforeImage() throws Exception {
+        byte[] empty = HeapPage.createEmptyPageData();
+        SlottedHeapPage page = new SlottedHeapPage(pid, empty);
+        page.insertTuple(getTuple(1, "one"));
+        assertTrue(Arrays.equals(HeapPage.createEmptyPageData(), empty));
+        assertEquals(0, page.getBeforeImage().getNumTuples());
+
+        page.setBeforeImage();
+        assertEquals(1, page.getBeforeImage().getNumTuples());
+    }
+
+    /**
+     * Unit test for HeapFileEncoder.convertSlotted() and scanning the result
+     * through a SlottedHeapFile
+     */
+    @Test public void convertAndScan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 3000; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuple.add(-i);
+            tuples.add(tuple);
+        }
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convertSlotted(tuples, f, BufferPool.getPageSize(), 2);
+        // 8-byte records plus a 4-byte slot each
+        assertEquals(9, f.length() / BufferPool.getPageSize());
+
+        SlottedHeapFile hf = new SlottedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(new IntField(count), t.getField(0));
+            assertEquals(new IntField(-count), t.getField(1));
+            count++;
+        }
+        it.close();
+        assertEquals(3000, count);
+
+        // deletes and inserts go through the regular HeapFile paths
+        Tuple t = Utility.getHeapTuple(new int[] { 42, 42 });
+        hf.insertTuple(tid, t);
+        assertEquals(8, t.getRecordId().getPageId().pageNumber());
+        hf.deleteTuple(tid, t);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
@@ -202,6 +202,16 @@ public class TestUtil {
             this.td = td;
         }
 
+        public void open() {
+        }
+
+        public void close() {
+        }
+
+        public int allocatePage() {
+            throw new RuntimeException("not implemented");
+        }
+
         public Page readPage(PageId id) throws NoSuchElementException {
             throw new RuntimeException("not implemented");
         }